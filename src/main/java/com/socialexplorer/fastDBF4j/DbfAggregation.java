@@ -0,0 +1,512 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.util.ByteUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Group-by aggregation computed directly over a DBF file scan, e.g. sum of population by county.
+ *
+ * Records are grouped by raw bytes of the key columns, so no key values are decoded while scanning. Aggregates
+ * are kept in primitive arrays, and numeric values are parsed straight from record bytes. The file is split into
+ * partitions (ranges of records) which are aggregated on separate threads, each with its own file handle,
+ * and merged at the end.
+ *
+ * Records flagged as deleted are skipped. Blank numeric values are ignored by all aggregate functions.
+ *
+ * Usage:
+ * <pre>
+ *     DbfAggregation aggregation = new DbfAggregation(dbfFile.getHeader(), "STATE", "COUNTY");
+ *     int population = aggregation.add(DbfAggregation.Function.SUM, "POP");
+ *     for (DbfAggregation.Group group : aggregation.run(dbfFile)) {
+ *         System.out.println(group.getKey(0) + " " + group.getKey(1) + " " + group.getValue(population));
+ *     }
+ * </pre>
+ */
+public class DbfAggregation {
+    /**
+     * Aggregate functions.
+     */
+    public enum Function {
+        /**
+         * Number of non blank values, or number of records if no column is given.
+         */
+        COUNT,
+        /**
+         * Sum of values, 0 if there are no values.
+         */
+        SUM,
+        /**
+         * Smallest value, NaN if there are no values.
+         */
+        MIN,
+        /**
+         * Largest value, NaN if there are no values.
+         */
+        MAX,
+        /**
+         * Average value, NaN if there are no values.
+         */
+        AVG
+    }
+
+    private final DbfHeader header;
+
+    /**
+     * Offsets and lengths of key columns.
+     */
+    private final int[] keyAddresses;
+    private final int[] keyLengths;
+
+    /**
+     * Length of all key columns together.
+     */
+    private final int keyWidth;
+
+    /**
+     * Aggregates: function, column offset, length and type. Column offset is -1 for COUNT of records.
+     */
+    private final List<Function> functions = new ArrayList<Function>();
+    private int[] valueAddresses = new int[0];
+    private int[] valueLengths = new int[0];
+    private DbfColumn.DbfColumnType[] valueTypes = new DbfColumn.DbfColumnType[0];
+
+    /**
+     * Number of threads (and partitions) used for aggregation.
+     */
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param header Header of the file to be aggregated.
+     * @param groupByColumns Names of columns to group by. If none are given, all records make up one group.
+     * @exception IllegalArgumentException If a column does not exist.
+     */
+    public DbfAggregation(DbfHeader header, String... groupByColumns) {
+        this.header = header;
+
+        keyAddresses = new int[groupByColumns.length];
+        keyLengths = new int[groupByColumns.length];
+        int width = 0;
+        for (int i = 0; i < groupByColumns.length; i++) {
+            DbfColumn column = getColumn(groupByColumns[i]);
+            keyAddresses[i] = column.getDataAddress();
+            keyLengths[i] = column.getLength();
+            width += column.getLength();
+        }
+        keyWidth = width;
+    }
+
+    private DbfColumn getColumn(String columnName) {
+        DbfColumn column = header.getColumn(columnName);
+        if (column == null) {
+            throw new IllegalArgumentException("Column '" + columnName + "' does not exist.");
+        }
+        return column;
+    }
+
+    /**
+     * Add an aggregate.
+     *
+     * @param function Aggregate function.
+     * @param columnName Column to aggregate. Can be null for COUNT, in which case records are counted.
+     * @return Index of the aggregate, used to get its value from the result groups.
+     * @exception IllegalArgumentException If the column does not exist or is not numeric (any column can be counted).
+     */
+    public int add(Function function, String columnName) {
+        int address = -1;
+        int length = 0;
+        DbfColumn.DbfColumnType type = null;
+
+        if (columnName != null) {
+            DbfColumn column = getColumn(columnName);
+            type = column.getColumnType();
+            if (function != Function.COUNT && type != DbfColumn.DbfColumnType.NUMBER
+                    && type != DbfColumn.DbfColumnType.FLOAT && type != DbfColumn.DbfColumnType.INTEGER
+                    && type != DbfColumn.DbfColumnType.DOUBLE && type != DbfColumn.DbfColumnType.CURRENCY) {
+                throw new IllegalArgumentException("Column '" + columnName + "' is not numeric and can only be counted.");
+            }
+            address = column.getDataAddress();
+            length = column.getLength();
+        } else if (function != Function.COUNT) {
+            throw new IllegalArgumentException("Column must be specified for " + function + " aggregate.");
+        }
+
+        int index = functions.size();
+        functions.add(function);
+        valueAddresses = Arrays.copyOf(valueAddresses, index + 1);
+        valueLengths = Arrays.copyOf(valueLengths, index + 1);
+        valueTypes = Arrays.copyOf(valueTypes, index + 1);
+        valueAddresses[index] = address;
+        valueLengths[index] = length;
+        valueTypes[index] = type;
+
+        return index;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of threads (and partitions) used for aggregation.
+     * @exception IllegalArgumentException If the thread count is not positive.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive.");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Scan the file and compute aggregates for every group.
+     *
+     * @param source Opened file to aggregate. It is read through separate file handles,
+     *               so the position of the file does not change.
+     * @return Groups in the order their first record appears in the file.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception IllegalArgumentException If the file header is not the one this aggregation was created with.
+     * @exception NumberFormatException If an aggregated column holds a value that is not a number.
+     * @throws IOException If an I/O error occurs or aggregation is interrupted.
+     */
+    public List<Group> run(DbfFile source) throws IOException {
+        if (source.dbfFile == null) {
+            throw new IllegalStateException("Source file is not opened.");
+        }
+        if (source.getHeader() != header) {
+            throw new IllegalArgumentException("File header does not match the header this aggregation was created with.");
+        }
+
+        final DbfFile file = source;
+        final byte[][] nullValues = getNullValues();
+        long recordCount = source.countRecordsInFile();
+        long partitionSize = Math.max(1, (recordCount + threadCount - 1) / threadCount);
+
+        GroupTable result;
+        if (threadCount == 1 || recordCount <= partitionSize) {
+            result = aggregate(source, 0, recordCount, nullValues);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            try {
+                List<Future<GroupTable>> futures = new ArrayList<Future<GroupTable>>();
+                for (long start = 0; start < recordCount; start += partitionSize) {
+                    final long from = start;
+                    final long count = Math.min(partitionSize, recordCount - start);
+                    futures.add(executor.submit(new Callable<GroupTable>() {
+                        public GroupTable call() throws IOException {
+                            return aggregate(file, from, count, nullValues);
+                        }
+                    }));
+                }
+
+                // Merge in partition order, so groups keep the order of their first appearance in the file.
+                result = futures.get(0).get();
+                for (int i = 1; i < futures.size(); i++) {
+                    result.merge(futures.get(i).get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Aggregation was interrupted.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        return result.toGroups();
+    }
+
+    /**
+     * Null values of the aggregated columns, encoded with the encoding of the file (null where there is none),
+     * so that fields holding them are skipped like blank fields, as {@link DbfRecord#getDouble(int)} reads them as NaN.
+     */
+    private byte[][] getNullValues() throws UnsupportedEncodingException {
+        byte[][] nullValues = new byte[functions.size()][];
+        for (int i = 0; i < nullValues.length; i++) {
+            // Binary fields are not text, a null value can not be compared with them.
+            if (valueTypes[i] != null && valueTypes[i] != DbfColumn.DbfColumnType.INTEGER
+                    && valueTypes[i] != DbfColumn.DbfColumnType.DOUBLE && valueTypes[i] != DbfColumn.DbfColumnType.CURRENCY) {
+                nullValues[i] = header.getConfiguration().getNullValueBytes(valueTypes[i]);
+            }
+        }
+        return nullValues;
+    }
+
+    /**
+     * Aggregate a range of records, reading them in large blocks through a separate file handle.
+     */
+    private GroupTable aggregate(DbfFile source, long firstRecord, long recordCount, byte[][] nullValues) throws IOException {
+        int recordLength = header.getRecordLength();
+        byte[] key = new byte[keyWidth];
+
+        GroupTable table = new GroupTable();
+
+        DbfBlockReader reader = DbfBlockReader.open(source, firstRecord, recordCount);
+        try {
+            int records;
+            while ((records = reader.next()) > 0) {
+                byte[] buffer = reader.getBuffer();
+                for (int offset = 0; offset < records * recordLength; offset += recordLength) {
+                    if (buffer[offset] == '*') {
+                        continue;
+                    }
+
+                    int keyOffset = 0;
+                    for (int i = 0; i < keyAddresses.length; i++) {
+                        System.arraycopy(buffer, offset + keyAddresses[i], key, keyOffset, keyLengths[i]);
+                        keyOffset += keyLengths[i];
+                    }
+
+                    table.accumulate(table.findOrAdd(key, 0), buffer, offset, nullValues);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return table;
+    }
+
+    /**
+     * Result of the aggregation for one group.
+     */
+    public static class Group {
+        private final String[] keys;
+        private final double[] values;
+        private final long recordCount;
+
+        Group(String[] keys, double[] values, long recordCount) {
+            this.keys = keys;
+            this.values = values;
+            this.recordCount = recordCount;
+        }
+
+        /**
+         * @param index Index of the group-by column.
+         * @return Value of the group-by column, with blanks trimmed.
+         */
+        public String getKey(int index) {
+            return keys[index];
+        }
+
+        /**
+         * @param aggregateIndex Index of the aggregate, as returned by {@link DbfAggregation#add(Function, String)}.
+         * @return Value of the aggregate.
+         */
+        public double getValue(int aggregateIndex) {
+            return values[aggregateIndex];
+        }
+
+        /**
+         * @return Number of records in the group.
+         */
+        public long getRecordCount() {
+            return recordCount;
+        }
+    }
+
+    /**
+     * Open addressing hash table of groups, keyed by raw key bytes. Keys and aggregates of all groups are stored in
+     * flat arrays indexed by group number, so there are no per-group objects.
+     */
+    private class GroupTable {
+        private final int aggregateCount = functions.size();
+
+        /**
+         * Slots hold group number + 1, 0 means the slot is empty.
+         */
+        private int[] slots = new int[1024];
+        private int groupCount = 0;
+        private int[] hashes = new int[256];
+        private byte[] keys = new byte[256 * keyWidth];
+        private long[] recordCounts = new long[256];
+        private double[] values = new double[256 * aggregateCount];
+        private long[] valueCounts = new long[256 * aggregateCount];
+
+        /**
+         * Find the group for the key, adding a new group if it does not exist.
+         * @return Group number.
+         */
+        int findOrAdd(byte[] key, int keyOffset) {
+            int hash = hash(key, keyOffset);
+            int mask = slots.length - 1;
+
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int group = slots[slot] - 1;
+                if (group < 0) {
+                    group = add(key, keyOffset, hash);
+                    slots[slot] = group + 1;
+                    if (groupCount * 2 > slots.length) {
+                        rehash();
+                    }
+                    return group;
+                }
+
+                if (hashes[group] == hash && keyEquals(group, key, keyOffset)) {
+                    return group;
+                }
+            }
+        }
+
+        private int hash(byte[] key, int keyOffset) {
+            int hash = 1;
+            for (int i = keyOffset; i < keyOffset + keyWidth; i++) {
+                hash = 31 * hash + key[i];
+            }
+            return hash ^ (hash >>> 16);
+        }
+
+        private boolean keyEquals(int group, byte[] key, int keyOffset) {
+            int start = group * keyWidth;
+            for (int i = 0; i < keyWidth; i++) {
+                if (keys[start + i] != key[keyOffset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int add(byte[] key, int keyOffset, int hash) {
+            if (groupCount == hashes.length) {
+                int capacity = hashes.length * 2;
+                hashes = Arrays.copyOf(hashes, capacity);
+                keys = Arrays.copyOf(keys, capacity * keyWidth);
+                recordCounts = Arrays.copyOf(recordCounts, capacity);
+                values = Arrays.copyOf(values, capacity * aggregateCount);
+                valueCounts = Arrays.copyOf(valueCounts, capacity * aggregateCount);
+            }
+
+            hashes[groupCount] = hash;
+            System.arraycopy(key, keyOffset, keys, groupCount * keyWidth, keyWidth);
+            return groupCount++;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int group = 0; group < groupCount; group++) {
+                int slot = hashes[group] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = group + 1;
+            }
+        }
+
+        /**
+         * Add values of a record to the group aggregates.
+         */
+        void accumulate(int group, byte[] record, int recordOffset, byte[][] nullValues) {
+            recordCounts[group]++;
+
+            for (int i = 0; i < aggregateCount; i++) {
+                if (valueAddresses[i] < 0) {
+                    continue;
+                }
+
+                int fieldOffset = recordOffset + valueAddresses[i];
+                if (nullValues[i] != null && ByteUtils.equalsTrimmed(record, fieldOffset, valueLengths[i], nullValues[i])) {
+                    continue;
+                }
+
+                double value;
+                if (valueTypes[i] == DbfColumn.DbfColumnType.INTEGER || valueTypes[i] == DbfColumn.DbfColumnType.DOUBLE
+                        || valueTypes[i] == DbfColumn.DbfColumnType.CURRENCY) {
+                    value = DbfColumn.getBinaryNumber(valueTypes[i], record, fieldOffset);
+                } else if (valueTypes[i] == DbfColumn.DbfColumnType.NUMBER || valueTypes[i] == DbfColumn.DbfColumnType.FLOAT) {
+                    value = ByteUtils.parseDouble(record, fieldOffset, valueLengths[i]);
+                } else {
+                    // Only counted, any non blank value will do.
+                    value = ByteUtils.isBlank(record, fieldOffset, valueLengths[i]) ? Double.NaN : 0;
+                }
+
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+
+                int index = group * aggregateCount + i;
+                combine(index, functions.get(i), value, 1);
+            }
+        }
+
+        private void combine(int index, Function function, double value, long count) {
+            if (valueCounts[index] == 0) {
+                values[index] = value;
+            } else if (function == Function.MIN) {
+                values[index] = Math.min(values[index], value);
+            } else if (function == Function.MAX) {
+                values[index] = Math.max(values[index], value);
+            } else {
+                values[index] += value;
+            }
+            valueCounts[index] += count;
+        }
+
+        /**
+         * Merge groups of another partition into this table.
+         */
+        void merge(GroupTable other) {
+            for (int otherGroup = 0; otherGroup < other.groupCount; otherGroup++) {
+                int group = findOrAdd(other.keys, otherGroup * keyWidth);
+                recordCounts[group] += other.recordCounts[otherGroup];
+
+                for (int i = 0; i < aggregateCount; i++) {
+                    int otherIndex = otherGroup * aggregateCount + i;
+                    if (other.valueCounts[otherIndex] > 0) {
+                        combine(group * aggregateCount + i, functions.get(i), other.values[otherIndex], other.valueCounts[otherIndex]);
+                    }
+                }
+            }
+        }
+
+        List<Group> toGroups() throws UnsupportedEncodingException {
+            String encodingName = header.getConfiguration().getEncodingName();
+            List<Group> groups = new ArrayList<Group>(groupCount);
+
+            for (int group = 0; group < groupCount; group++) {
+                String[] groupKeys = new String[keyLengths.length];
+                int keyOffset = group * keyWidth;
+                for (int i = 0; i < keyLengths.length; i++) {
+                    groupKeys[i] = new String(keys, keyOffset, keyLengths[i], encodingName).trim();
+                    keyOffset += keyLengths[i];
+                }
+
+                double[] groupValues = new double[aggregateCount];
+                for (int i = 0; i < aggregateCount; i++) {
+                    int index = group * aggregateCount + i;
+                    long count = valueCounts[index];
+                    switch (functions.get(i)) {
+                        case COUNT:
+                            groupValues[i] = valueAddresses[i] < 0 ? recordCounts[group] : count;
+                            break;
+                        case SUM:
+                            groupValues[i] = count == 0 ? 0 : values[index];
+                            break;
+                        case AVG:
+                            groupValues[i] = count == 0 ? Double.NaN : values[index] / count;
+                            break;
+                        default:
+                            groupValues[i] = count == 0 ? Double.NaN : values[index];
+                    }
+                }
+
+                groups.add(new Group(groupKeys, groupValues, recordCounts[group]));
+            }
+
+            return groups;
+        }
+    }
+}
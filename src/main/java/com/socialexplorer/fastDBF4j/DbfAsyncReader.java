@@ -0,0 +1,371 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Reads records of a DBF file without blocking the calling thread. Reads go through an AsynchronousFileChannel
+ * and results are delivered as CompletableFutures, completed on the threads of the channel.
+ * <p>
+ * Requests are not read one by one. Requests that arrive while reads are in flight wait in a queue, and the
+ * next batch sorts them by position and merges requests for the same or nearby records into one read.
+ * So under load, many concurrent lookups cost a few large reads instead of one small read each.
+ * <p>
+ * The reader uses its own file handle, so it does not change the position of the DbfFile it was created from.
+ * Records are returned as new DbfRecord objects; the reader does not see changes to the header made after it was created.
+ */
+public class DbfAsyncReader {
+    /**
+     * Default number of batches that can be read at the same time.
+     */
+    public static final int DEFAULT_MAX_BATCHES_IN_FLIGHT = 4;
+
+    /**
+     * Default maximum size of one coalesced read.
+     */
+    public static final int DEFAULT_MAX_READ_SIZE = 256 * 1024;
+
+    /**
+     * Default maximum number of unrequested bytes between two requests that are still merged into one read.
+     */
+    public static final int DEFAULT_MAX_GAP = 4096;
+
+    private final DbfHeader header;
+    private final int recordLength;
+    private final long headerLength;
+    private final AsynchronousFileChannel channel;
+
+    private final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<Request>();
+    private final AtomicInteger batchesInFlight = new AtomicInteger();
+
+    private volatile int maxBatchesInFlight = DEFAULT_MAX_BATCHES_IN_FLIGHT;
+    private volatile int maxReadSize = DEFAULT_MAX_READ_SIZE;
+    private volatile int maxGap = DEFAULT_MAX_GAP;
+
+    /**
+     * @param source Opened DBF file.
+     * @exception IllegalStateException If the file is not opened.
+     * @throws IOException If the file can not be opened for reading.
+     */
+    public DbfAsyncReader(DbfFile source) throws IOException {
+        if (source.dbfFile == null) {
+            throw new IllegalStateException("Source file is not opened.");
+        }
+
+        this.header = source.getHeader();
+        this.recordLength = header.getRecordLength();
+        this.headerLength = header.headerLength();
+        this.channel = AsynchronousFileChannel.open(Paths.get(source.getFilePath()), StandardOpenOption.READ);
+    }
+
+    /**
+     * Read a record.
+     *
+     * @param index Zero based index of the record.
+     * @return Future that completes with the record, or with null if there is no record with the given index.
+     */
+    public CompletableFuture<DbfRecord> readAsync(final long index) {
+        if (index < 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return submit(recordOffset(index), recordLength).thenApply(new Function<byte[], DbfRecord>() {
+            public DbfRecord apply(byte[] data) {
+                return data == null || data.length < recordLength ? null : toRecord(data, 0, index);
+            }
+        });
+    }
+
+    /**
+     * Read consecutive records with one read.
+     *
+     * @param from Zero based index of the first record.
+     * @param count Number of records to read.
+     * @return Future that completes with the records. The list is shorter than count if the file ends before.
+     * @exception IllegalArgumentException If from or count is negative.
+     */
+    public CompletableFuture<List<DbfRecord>> readRangeAsync(final long from, int count) {
+        if (from < 0 || count < 0) {
+            throw new IllegalArgumentException("Record index and count can not be negative.");
+        }
+        if (count == 0) {
+            return CompletableFuture.completedFuture(Collections.<DbfRecord>emptyList());
+        }
+
+        return submit(recordOffset(from), (long) count * recordLength).thenApply(new Function<byte[], List<DbfRecord>>() {
+            public List<DbfRecord> apply(byte[] data) {
+                List<DbfRecord> records = new ArrayList<DbfRecord>();
+                for (int offset = 0; data != null && offset + recordLength <= data.length; offset += recordLength) {
+                    records.add(toRecord(data, offset, from + records.size()));
+                }
+                return records;
+            }
+        });
+    }
+
+    /**
+     * Read the value of one field. Only the bytes of the field are read.
+     *
+     * @param rowIndex Zero based index of the record.
+     * @param columnIndex Index of the column.
+     * @return Future that completes with the value as it would be returned by {@link DbfRecord#get(int)},
+     *         or with null if there is no record with the given index.
+     */
+    public CompletableFuture<String> readValueAsync(final long rowIndex, final int columnIndex) {
+        if (rowIndex < 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final DbfColumn column = header.get(columnIndex);
+        return submit(recordOffset(rowIndex) + column.getDataAddress(), column.getLength()).thenApply(new Function<byte[], String>() {
+            public String apply(byte[] data) {
+                if (data == null || data.length < column.getLength()) {
+                    return null;
+                }
+
+                try {
+                    // Place the field at its address in an otherwise empty record, and let the record decode it.
+                    DbfRecord record = new DbfRecord(header);
+                    System.arraycopy(data, 0, record.getData(), column.getDataAddress(), data.length);
+                    return record.get(columnIndex);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Close the file. Requests that have not been read yet fail.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void close() throws IOException {
+        channel.close();
+
+        Request request;
+        while ((request = pending.poll()) != null) {
+            request.future.completeExceptionally(new IOException("Reader is closed."));
+        }
+    }
+
+    public int getMaxBatchesInFlight() {
+        return maxBatchesInFlight;
+    }
+
+    public void setMaxBatchesInFlight(int maxBatchesInFlight) {
+        if (maxBatchesInFlight <= 0) {
+            throw new IllegalArgumentException("Number of batches in flight must be positive.");
+        }
+        this.maxBatchesInFlight = maxBatchesInFlight;
+    }
+
+    public int getMaxReadSize() {
+        return maxReadSize;
+    }
+
+    /**
+     * @param maxReadSize Maximum size of one coalesced read. A single request larger than this is still read at once.
+     */
+    public void setMaxReadSize(int maxReadSize) {
+        if (maxReadSize <= 0) {
+            throw new IllegalArgumentException("Read size must be positive.");
+        }
+        this.maxReadSize = maxReadSize;
+    }
+
+    public int getMaxGap() {
+        return maxGap;
+    }
+
+    /**
+     * @param maxGap Maximum number of unrequested bytes between two requests that are merged into one read.
+     *               0 merges only adjacent and overlapping requests.
+     */
+    public void setMaxGap(int maxGap) {
+        if (maxGap < 0) {
+            throw new IllegalArgumentException("Gap can not be negative.");
+        }
+        this.maxGap = maxGap;
+    }
+
+    private long recordOffset(long index) {
+        return headerLength + index * recordLength;
+    }
+
+    private DbfRecord toRecord(byte[] data, int offset, long index) {
+        try {
+            DbfRecord record = new DbfRecord(header);
+            System.arraycopy(data, offset, record.getData(), 0, recordLength);
+            record.setRecordIndex(index);
+            return record;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Queue a read of length bytes at the given position.
+     * @return Future that completes with the bytes, with fewer bytes if the file ends within the range,
+     *         or with null if the range starts at or after the end of the file.
+     */
+    private CompletableFuture<byte[]> submit(long position, long length) {
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Can not read more than " + Integer.MAX_VALUE + " bytes at once.");
+        }
+        if (!channel.isOpen()) {
+            CompletableFuture<byte[]> failed = new CompletableFuture<byte[]>();
+            failed.completeExceptionally(new IOException("Reader is closed."));
+            return failed;
+        }
+
+        Request request = new Request(position, (int) length);
+        pending.add(request);
+        dispatch();
+        return request.future;
+    }
+
+    /**
+     * Start batches of pending requests, as long as the number of batches in flight allows it.
+     * Whoever adds a request or finishes a batch calls this, so no request is left behind in the queue.
+     */
+    private void dispatch() {
+        while (!pending.isEmpty()) {
+            int inFlight = batchesInFlight.get();
+            if (inFlight >= maxBatchesInFlight) {
+                return;
+            }
+            if (!batchesInFlight.compareAndSet(inFlight, inFlight + 1)) {
+                continue;
+            }
+
+            List<Request> batch = new ArrayList<Request>();
+            Request request;
+            while ((request = pending.poll()) != null) {
+                batch.add(request);
+            }
+
+            if (batch.isEmpty()) {
+                batchesInFlight.decrementAndGet();
+            } else {
+                readBatch(batch);
+            }
+        }
+    }
+
+    /**
+     * Sort a batch by position, merge requests into runs and read each run with one read.
+     */
+    private void readBatch(List<Request> batch) {
+        Collections.sort(batch, new Comparator<Request>() {
+            public int compare(Request a, Request b) {
+                return a.position < b.position ? -1 : (a.position == b.position ? 0 : 1);
+            }
+        });
+
+        List<List<Request>> runs = new ArrayList<List<Request>>();
+        List<Request> run = null;
+        long runStart = 0;
+        long runEnd = 0;
+        for (Request request : batch) {
+            long end = request.position + request.length;
+            if (run != null && request.position <= runEnd + maxGap && Math.max(runEnd, end) - runStart <= maxReadSize) {
+                run.add(request);
+                runEnd = Math.max(runEnd, end);
+            } else {
+                run = new ArrayList<Request>();
+                run.add(request);
+                runs.add(run);
+                runStart = request.position;
+                runEnd = end;
+            }
+        }
+
+        AtomicInteger runsLeft = new AtomicInteger(runs.size());
+        for (List<Request> requests : runs) {
+            readRun(requests, runsLeft);
+        }
+    }
+
+    private void readRun(final List<Request> requests, final AtomicInteger runsLeft) {
+        final long start = requests.get(0).position;
+        long end = start;
+        for (Request request : requests) {
+            end = Math.max(end, request.position + request.length);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        CompletionHandler<Integer, Void> handler = new CompletionHandler<Integer, Void>() {
+            public void completed(Integer count, Void attachment) {
+                if (count >= 0 && buffer.hasRemaining()) {
+                    // Partial read, continue where it stopped.
+                    try {
+                        channel.read(buffer, start + buffer.position(), null, this);
+                    } catch (RuntimeException e) {
+                        failed(e, null);
+                    }
+                    return;
+                }
+
+                byte[] data = buffer.array();
+                int available = buffer.position();
+                for (Request request : requests) {
+                    int offset = (int) (request.position - start);
+                    if (offset >= available) {
+                        request.future.complete(null);
+                    } else {
+                        request.future.complete(Arrays.copyOfRange(data, offset, Math.min(available, offset + request.length)));
+                    }
+                }
+                finishRun();
+            }
+
+            public void failed(Throwable e, Void attachment) {
+                for (Request request : requests) {
+                    request.future.completeExceptionally(e);
+                }
+                finishRun();
+            }
+
+            private void finishRun() {
+                if (runsLeft.decrementAndGet() == 0) {
+                    batchesInFlight.decrementAndGet();
+                    dispatch();
+                }
+            }
+        };
+
+        try {
+            channel.read(buffer, start, null, handler);
+        } catch (RuntimeException e) {
+            handler.failed(e, null);
+        }
+    }
+
+    /**
+     * Pending read of a byte range.
+     */
+    private static class Request {
+        final long position;
+        final int length;
+        final CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+
+        Request(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.util.ByteUtils;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes one column across a whole block of records at once, into primitive arrays. Use it together with
+ * {@link DbfFile#readNextBlock(byte[])} for scans that only need a few columns:
+ * <pre>
+ *     byte[] block = new byte[1000 * dbfFile.getHeader().getRecordLength()];
+ *     double[] population = new double[1000];
+ *     DbfBatchDecoder decoder = new DbfBatchDecoder(dbfFile.getHeader());
+ *     int records;
+ *     while ((records = dbfFile.readNextBlock(block)) > 0) {
+ *         decoder.setBlock(block, records);
+ *         decoder.decodeDoubles(populationColumn, population);
+ *         ...
+ *     }
+ * </pre>
+ *
+ * Values are decoded straight from the record bytes, without creating String objects. Blanks and digits of numeric
+ * fields are processed eight bytes at a time (SWAR - SIMD within a register) through a little endian view of the
+ * block, which needs no special JVM support. Field values that do not fit the fast path (more than 15 significant
+ * digits, scientific notation) fall back to the one byte at a time parser.
+ */
+public class DbfBatchDecoder {
+    private final DbfHeader header;
+    private final int recordLength;
+
+    private byte[] block = null;
+    private ByteBuffer view = null;
+    private int recordCount = 0;
+
+    /**
+     * @param header Header of the records being decoded.
+     */
+    public DbfBatchDecoder(DbfHeader header) {
+        this.header = header;
+        this.recordLength = header.getRecordLength();
+    }
+
+    /**
+     * Set the block of records to decode.
+     *
+     * @param block Buffer holding whole records, starting at offset 0.
+     * @param recordCount Number of records in the buffer.
+     * @exception IllegalArgumentException If the buffer is too small for the given number of records.
+     */
+    public void setBlock(byte[] block, int recordCount) {
+        if ((long) recordCount * recordLength > block.length) {
+            throw new IllegalArgumentException("Buffer is too small to hold " + recordCount + " records.");
+        }
+
+        if (this.block != block) {
+            this.block = block;
+            this.view = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * @return Number of records in the current block.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @param record Index of the record in the block.
+     * @return true if the record is flagged as deleted.
+     */
+    public boolean isDeleted(int record) {
+        return block[record * recordLength] == '*';
+    }
+
+    /**
+     * Decode a numeric column (NUMBER, FLOAT, INTEGER, DOUBLE or CURRENCY) of all records in the block.
+     *
+     * @param columnIndex Index of the column.
+     * @param values Receives the values, NaN for blank and null values. Must hold at least getRecordCount() values.
+     * @exception IllegalArgumentException If the column is not numeric.
+     * @exception NumberFormatException If a field is not a number.
+     * @throws UnsupportedEncodingException If the encoding of the file is not supported.
+     */
+    public void decodeDoubles(int columnIndex, double[] values) throws UnsupportedEncodingException {
+        DbfColumn column = header.get(columnIndex);
+        int address = column.getDataAddress();
+        int length = column.getLength();
+        byte[] nullValue = header.getConfiguration().getNullValueBytes(column.getColumnType());
+
+        if (column.getColumnType() == DbfColumn.DbfColumnType.INTEGER) {
+            for (int i = 0, offset = address; i < recordCount; i++, offset += recordLength) {
+                values[i] = view.getInt(offset);
+            }
+        } else if (column.getColumnType() == DbfColumn.DbfColumnType.DOUBLE || column.getColumnType() == DbfColumn.DbfColumnType.CURRENCY) {
+            for (int i = 0, offset = address; i < recordCount; i++, offset += recordLength) {
+                values[i] = DbfColumn.getBinaryNumber(column.getColumnType(), block, offset);
+            }
+        } else if (column.getColumnType() == DbfColumn.DbfColumnType.NUMBER || column.getColumnType() == DbfColumn.DbfColumnType.FLOAT) {
+            for (int i = 0, offset = address; i < recordCount; i++, offset += recordLength) {
+                if (nullValue != null && ByteUtils.equalsTrimmed(block, offset, length, nullValue)) {
+                    values[i] = Double.NaN;
+                } else {
+                    values[i] = ByteUtils.parseDouble(block, offset, length, view);
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Column '" + column.getName() + "' is not numeric.");
+        }
+    }
+
+    /**
+     * Decode an integer column (NUMBER without decimals or INTEGER) of all records in the block.
+     *
+     * @param columnIndex Index of the column.
+     * @param values Receives the values, 0 for blank and null values. Must hold at least getRecordCount() values.
+     * @param isNull Receives true for blank and null values, false otherwise. Must hold at least getRecordCount() values.
+     * @exception IllegalArgumentException If the column is not an integer column.
+     * @exception NumberFormatException If a field is not an integer.
+     * @throws UnsupportedEncodingException If the encoding of the file is not supported.
+     */
+    public void decodeLongs(int columnIndex, long[] values, boolean[] isNull) throws UnsupportedEncodingException {
+        DbfColumn column = header.get(columnIndex);
+        int address = column.getDataAddress();
+        int length = column.getLength();
+        byte[] nullValue = header.getConfiguration().getNullValueBytes(column.getColumnType());
+
+        if (column.getColumnType() == DbfColumn.DbfColumnType.INTEGER) {
+            for (int i = 0, offset = address; i < recordCount; i++, offset += recordLength) {
+                values[i] = view.getInt(offset);
+                isNull[i] = false;
+            }
+        } else if (column.getColumnType() == DbfColumn.DbfColumnType.NUMBER && column.getDecimalCount() == 0) {
+            for (int i = 0, offset = address; i < recordCount; i++, offset += recordLength) {
+                isNull[i] = ByteUtils.isBlank(block, offset, length) || (nullValue != null && ByteUtils.equalsTrimmed(block, offset, length, nullValue));
+                values[i] = isNull[i] ? 0 : ByteUtils.parseLong(block, offset, length);
+            }
+        } else {
+            throw new IllegalArgumentException("Column '" + column.getName() + "' is not an integer column.");
+        }
+    }
+
+    /**
+     * Decode a column of all records in the block as strings, with trailing blanks removed.
+     *
+     * @param columnIndex Index of the column.
+     * @param values Receives the values, empty string for null values. Must hold at least getRecordCount() values.
+     * @throws UnsupportedEncodingException If the encoding of the file is not supported.
+     */
+    public void decodeStrings(int columnIndex, String[] values) throws UnsupportedEncodingException {
+        DbfColumn column = header.get(columnIndex);
+        int address = column.getDataAddress();
+        int length = column.getLength();
+        String encodingName = header.getConfiguration().getEncodingName();
+        byte[] nullValue = header.getConfiguration().getNullValueBytes(column.getColumnType());
+
+        for (int i = 0, offset = address; i < recordCount; i++, offset += recordLength) {
+            if (nullValue != null && ByteUtils.equalsTrimmed(block, offset, length, nullValue)) {
+                values[i] = "";
+                continue;
+            }
+
+            // Character data is left justified, so trailing blanks are the long run.
+            int end = offset + length;
+            while (end - offset >= 8 && view.getLong(end - 8) == ByteUtils.EIGHT_BLANKS) end -= 8;
+            while (end > offset && block[end - 1] == ' ') end--;
+
+            values[i] = new String(block, offset, end - offset, encodingName);
+        }
+    }
+}
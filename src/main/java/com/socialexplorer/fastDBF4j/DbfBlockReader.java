@@ -0,0 +1,88 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.util.FileReader;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads a range of whole records in large blocks through its own file handle. Used by bulk operations
+ * that scan files, so that they do not move the position of an opened DbfFile and can run on several threads.
+ */
+class DbfBlockReader {
+    private final FileReader reader;
+    private final int recordLength;
+    private final int recordsPerBlock;
+    private final byte[] buffer;
+    private long recordsLeft;
+
+    /**
+     * @param filePath Path of the file.
+     * @param offset Offset of the first record in the file.
+     * @param recordCount Number of records to read.
+     * @param recordLength Length of a record.
+     * @param bufferSize Size of a block in bytes, rounded down to whole records.
+     * @throws IOException If the file can not be opened.
+     */
+    DbfBlockReader(String filePath, long offset, long recordCount, int recordLength, int bufferSize) throws IOException {
+        this.reader = new FileReader(new RandomAccessFile(filePath, "r"));
+        this.recordLength = recordLength;
+        this.recordsPerBlock = Math.max(1, bufferSize / recordLength);
+        this.buffer = new byte[recordsPerBlock * recordLength];
+        this.recordsLeft = recordCount;
+        reader.seek(offset);
+    }
+
+    /**
+     * Create a reader for records [firstRecord, firstRecord + recordCount) of a DBF file.
+     */
+    static DbfBlockReader open(DbfFile file, long firstRecord, long recordCount) throws IOException {
+        return open(file, firstRecord, recordCount, file.getHeader().getConfiguration().getIoBufferSize());
+    }
+
+    /**
+     * Create a reader for records [firstRecord, firstRecord + recordCount) of a DBF file, with blocks of bufferSize bytes.
+     */
+    static DbfBlockReader open(DbfFile file, long firstRecord, long recordCount, int bufferSize) throws IOException {
+        DbfHeader header = file.getHeader();
+        DbfBlockReader reader = new DbfBlockReader(file.getFilePath(), header.headerLength() + firstRecord * header.getRecordLength(),
+                recordCount, header.getRecordLength(), bufferSize);
+        reader.reader.setMetrics(header.getConfiguration().getMetrics());
+        return reader;
+    }
+
+    /**
+     * Read the next block of records.
+     * @return Number of records read into the buffer, 0 at the end of the range.
+     * @throws IOException If an I/O error occurs.
+     */
+    int next() throws IOException {
+        return next(buffer);
+    }
+
+    /**
+     * Read the next block of records into another buffer of the same size, e.g. one of several buffers in turn.
+     * @param target Buffer that receives the records, at least as large as {@link #getBuffer()}.
+     * @return Number of records read into the buffer, 0 at the end of the range.
+     * @throws IOException If an I/O error occurs.
+     */
+    int next(byte[] target) throws IOException {
+        int records = (int) Math.min(recordsPerBlock, recordsLeft);
+        if (records > 0) {
+            reader.readFully(target, 0, records * recordLength);
+            recordsLeft -= records;
+        }
+        return records;
+    }
+
+    /**
+     * @return Buffer holding the records of the last block.
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    void close() throws IOException {
+        reader.close();
+    }
+}
@@ -1,5 +1,7 @@
 package com.socialexplorer.fastDBF4j;
 
+import com.socialexplorer.fastDBF4j.util.ByteUtils;
+
 import java.lang.reflect.Type;
 import java.util.Date;
 import java.util.EnumSet;
@@ -78,28 +80,29 @@ public class DbfColumn implements Cloneable {
         /**
          * F 	Float       Number stored as a string, right justified, and padded with blanks to the width of the field.
          */
-        FLOAT(7, 'F');
-
-        private int code;
-        private char c;
-
+        FLOAT(7, 'F'),
         /**
-         * Value that will be written to DBF when setting null value,
-         * and that will be read as null when found in DBF.
+         * B 	Double 	Length: 8 	8 byte little endian IEEE double 	(Visual FoxPro)
+         * Visual FoxPro reuses the character of BINARY, so 'B' is a double only in Visual FoxPro files.
          */
-        private String nullValue = null;
-
-        public void setNullValue(String nullValue) {
-            this.nullValue = nullValue;
-        }
-
-        public String getNullValue() {
-            return this.nullValue;
-        }
+        DOUBLE(8, 'B'),
+        /**
+         * Y 	Currency 	Length: 8 	8 byte little endian integer, the value times 10000 	(Visual FoxPro)
+         */
+        CURRENCY(9, 'Y'),
+        /**
+         * T 	DateTime 	Length: 8 	4 byte little endian julian day number followed by
+         * 4 byte little endian number of milliseconds since midnight 	(Visual FoxPro)
+         */
+        DATETIME(10, 'T'),
+        /**
+         * 0 	NullFlags 	Hidden system column _NullFlags of Visual FoxPro, a bit field with a bit for each nullable
+         * or varying column of the record 	(Visual FoxPro). It is read as raw bytes and has no string value.
+         */
+        NULL_FLAGS(11, '0');
 
-        public boolean isNullValue(String value) {
-            return this.nullValue != null && this.nullValue.equals(value.trim());
-        }
+        private int code;
+        private char c;
 
         private DbfColumnType(int code, char c) {
             this.code = code;
@@ -114,11 +117,21 @@ public class DbfColumn implements Cloneable {
             return c;
         }
 
+        /**
+         * @return true if columns of this type can only be stored in Visual FoxPro files.
+         */
+        public boolean isVisualFoxPro() {
+            return this == DOUBLE || this == CURRENCY || this == DATETIME;
+        }
+
         private static Map<Character, DbfColumnType> dbfColumnCharMap = new HashMap();
 
         static {
             for (DbfColumnType dbfColumnType : EnumSet.allOf(DbfColumnType.class)) {
-                dbfColumnCharMap.put(dbfColumnType.getChar(), dbfColumnType);
+                // 'B' stays BINARY, DOUBLE is only used for Visual FoxPro files (see DbfColumn#getDbaseType(char, int))
+                if (!dbfColumnCharMap.containsKey(dbfColumnType.getChar())) {
+                    dbfColumnCharMap.put(dbfColumnType.getChar(), dbfColumnType);
+                }
             }
         }
 
@@ -127,6 +140,21 @@ public class DbfColumn implements Cloneable {
         }
     }
 
+    /**
+     * Julian day number of 1970-01-01, used to convert DATETIME values.
+     */
+    static final long EPOCH_JULIAN_DAY = 2440588;
+
+    /**
+     * Number of milliseconds in a day.
+     */
+    static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * Values of CURRENCY columns are stored multiplied by this number.
+     */
+    static final int CURRENCY_SCALE = 10000;
+
     /***
      * Column (field) name
      */
@@ -165,12 +193,19 @@ public class DbfColumn implements Cloneable {
         this.type = type;
         this.length = length;
 
-        if (type == DbfColumnType.NUMBER) {
+        if (type == DbfColumnType.NUMBER || type == DbfColumnType.DOUBLE) {
+            // decimal count of a double only tells how many decimals to display
             decimalCount = decimalPlaces;
+        } else if (type == DbfColumnType.CURRENCY) {
+            decimalCount = 4;
         } else {
             decimalCount = 0;
         }
 
+        // binary Visual FoxPro types are 8 bytes long
+        if (this.type.isVisualFoxPro())
+            this.length = 8;
+
         // perform some simple integrity checks...
         //-------------------------------------------
 
@@ -328,6 +363,89 @@ public class DbfColumn implements Cloneable {
         return dbfColumnType;
     }
 
+    /**
+     * Get dbase column type for character, as used in a file of the given type. In Visual FoxPro files
+     * 'B' is a DOUBLE column, in other files it is BINARY.
+     *
+     * @param c Type character of the column.
+     * @param fileType Type of the file, the first byte of the header.
+     * @return Dbf column type
+     * @throws IllegalArgumentException If the given character does not have a corresponding dbase type,
+     *                                  or is a Varchar ('V') or Varbinary ('Q') column of Visual FoxPro, which are not supported.
+     */
+    public static DbfColumnType getDbaseType(char c, int fileType) {
+        if (DbfHeader.isVisualFoxProFileType(fileType)) {
+            switch (Character.toUpperCase(c)) {
+                case 'B':
+                    return DbfColumnType.DOUBLE;
+                case 'V':
+                    throw new IllegalArgumentException("Visual FoxPro Varchar columns (type V) are not supported.");
+                case 'Q':
+                    throw new IllegalArgumentException("Visual FoxPro Varbinary columns (type Q) are not supported.");
+            }
+        }
+        return getDbaseType(c);
+    }
+
+    /**
+     * @param type Type of a binary column (DOUBLE, CURRENCY or DATETIME).
+     * @param b Record data.
+     * @param offset Offset of the field.
+     * @return true if the field is blank (cleared to spaces). An all zero DATETIME is blank as well.
+     */
+    static boolean isBinaryBlank(DbfColumnType type, byte[] b, int offset) {
+        long bits = ByteUtils.getLittleEndianLong(b, offset);
+        return bits == 0x2020202020202020L || (type == DbfColumnType.DATETIME && bits == 0);
+    }
+
+    /**
+     * Decode a binary numeric field without creating objects. DATETIME values are returned as
+     * milliseconds since 1970-01-01 00:00, with the stored time taken as UTC.
+     *
+     * @param type Type of the column (INTEGER, DOUBLE, CURRENCY or DATETIME).
+     * @param b Record data.
+     * @param offset Offset of the field.
+     * @return Value of the field, NaN if a DOUBLE, CURRENCY or DATETIME field is blank.
+     * @exception IllegalArgumentException If the column type is not binary.
+     */
+    static double getBinaryNumber(DbfColumnType type, byte[] b, int offset) {
+        if (type == DbfColumnType.INTEGER) {
+            return ByteUtils.getLittleEndianInt(b, offset);
+        }
+        if (isBinaryBlank(type, b, offset)) {
+            return Double.NaN;
+        }
+
+        switch (type) {
+            case DOUBLE:
+                return Double.longBitsToDouble(ByteUtils.getLittleEndianLong(b, offset));
+            case CURRENCY:
+                return (double) ByteUtils.getLittleEndianLong(b, offset) / CURRENCY_SCALE;
+            case DATETIME:
+                return getDateTimeMillis(b, offset);
+            default:
+                throw new IllegalArgumentException(type + " is not a binary numeric type.");
+        }
+    }
+
+    /**
+     * @return Value of a DATETIME field as milliseconds since 1970-01-01 00:00, with the stored time taken as UTC.
+     */
+    static long getDateTimeMillis(byte[] b, int offset) {
+        long julianDay = ByteUtils.getLittleEndianInt(b, offset) & 0xFFFFFFFFL;
+        long millis = ByteUtils.getLittleEndianInt(b, offset + 4) & 0xFFFFFFFFL;
+        return (julianDay - EPOCH_JULIAN_DAY) * MILLIS_PER_DAY + millis;
+    }
+
+    /**
+     * Store milliseconds since 1970-01-01 00:00 (UTC) as a DATETIME field.
+     */
+    static void putDateTimeMillis(byte[] b, int offset, long millis) {
+        long day = Math.floorDiv(millis, MILLIS_PER_DAY);
+        ByteUtils.putLittleEndianInt(b, offset, (int) (day + EPOCH_JULIAN_DAY));
+        ByteUtils.putLittleEndianInt(b, offset + 4, (int) (millis - day * MILLIS_PER_DAY));
+    }
+
     /***
      * Returns shp file Shape Field.
      * @return
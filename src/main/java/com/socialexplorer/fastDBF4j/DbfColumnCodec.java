@@ -0,0 +1,569 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.exceptions.DbfDataTruncateException;
+import com.socialexplorer.fastDBF4j.util.ByteUtils;
+import com.socialexplorer.fastDBF4j.util.Configuration;
+import org.apache.commons.lang.NotImplementedException;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Reads and writes the values of one column in record data. DbfHeader creates one codec per column
+ * (see {@link DbfHeader#getCodec(int)}), with the offset, length and decimal count of the column resolved once,
+ * so DbfRecord get() and set() do not dispatch on the column type for every value.
+ * <p>
+ * Each column type has its own subclass. A new column type needs a codec and a case in {@link #create}.
+ */
+abstract class DbfColumnCodec {
+    /**
+     * Format of DATETIME values as strings, see get() and set(). DATETIME values have no time zone.
+     */
+    static final String DATETIME_FORMAT = "yyyyMMddHHmmss";
+
+    /**
+     * Array used to clear decimals, we can clear up to 40 decimals which is much more
+     * than is allowed under DBF spec anyway.
+     * Note: 48 is ASCII code for 0.
+     */
+    private static final byte[] DECIMAL_CLEAR = new byte[] {48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48,
+                                                                48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48,
+                                                                48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48};
+
+    protected final DbfHeader header;
+    protected final Configuration configuration;
+    protected final DbfColumn column;
+    protected final DbfColumn.DbfColumnType type;
+    protected final int address;
+    protected final int length;
+    protected final int decimals;
+
+    protected DbfColumnCodec(DbfHeader header, DbfColumn column) {
+        this.header = header;
+        this.configuration = header.getConfiguration();
+        this.column = column;
+        this.type = column.getColumnType();
+        this.address = column.getDataAddress();
+        this.length = column.getLength();
+        this.decimals = column.getDecimalCount();
+    }
+
+    /**
+     * Create the codec for a column of a header.
+     */
+    static DbfColumnCodec create(DbfHeader header, DbfColumn column) {
+        switch (column.getColumnType()) {
+            case CHARACTER:
+                return new CharacterCodec(header, column);
+            case NUMBER:
+            case FLOAT:
+                return column.getDecimalCount() == 0 ? new IntegralNumberCodec(header, column) : new DecimalNumberCodec(header, column);
+            case INTEGER:
+                return new IntegerCodec(header, column);
+            case BOOLEAN:
+                return new BooleanCodec(header, column);
+            case DATE:
+                return new DateCodec(header, column);
+            case DOUBLE:
+                return new DoubleCodec(header, column);
+            case CURRENCY:
+                return new CurrencyCodec(header, column);
+            case DATETIME:
+                return new DateTimeCodec(header, column);
+            case MEMO:
+                return new MemoCodec(header, column);
+            case BINARY:
+            case NULL_FLAGS:
+                return new BinaryCodec(header, column);
+            default:
+                throw new UnsupportedOperationException("Unrecognized data type: " + column.getColumnType());
+        }
+    }
+
+    /**
+     * @return Column of this codec.
+     */
+    DbfColumn getColumn() {
+        return column;
+    }
+
+    /**
+     * @return Value of the field as a string, empty if it equals the null value of the column type.
+     */
+    String get(byte[] data) throws IOException {
+        if (configuration.isNullValue(type, data, address, length)) {
+            return "";
+        }
+        return new String(data, address, length, configuration.getCharset());
+    }
+
+    /**
+     * Set a value that is neither null nor empty.
+     * @param record Record the data belongs to, for its truncation settings.
+     */
+    abstract void set(DbfRecord record, byte[] data, String value) throws DbfDataTruncateException, IOException;
+
+    /**
+     * Set the null value of the column type, or clear the field if the column type has no null value.
+     */
+    void setNull(byte[] data) throws DbfDataTruncateException, UnsupportedEncodingException {
+        String nullValue = configuration.getNullValue(type);
+        if (nullValue == null) {
+            clear(data);
+        } else {
+            byte[] valueBytes = nullValue.getBytes(configuration.getCharset());
+
+            if (valueBytes.length > length) {
+                throw new DbfDataTruncateException("Trying to write null value as: " + nullValue + " but it exceeds column length.");
+            }
+            // First clear the previous value, then set the new one.
+            clear(data);
+            System.arraycopy(valueBytes, 0, data, address, valueBytes.length);
+        }
+    }
+
+    /**
+     * Clear the field to blanks.
+     */
+    void clear(byte[] data) throws UnsupportedEncodingException {
+        System.arraycopy(header.getEmptyDataRecord(), address, data, address, length);
+    }
+
+    /**
+     * @return true if the field is blank or equals the null value of the column type.
+     */
+    boolean isNull(byte[] data) throws UnsupportedEncodingException {
+        return ByteUtils.isBlank(data, address, length) || configuration.isNullValue(type, data, address, length);
+    }
+
+    /**
+     * @return Value of a numeric field, NaN if it is blank or null.
+     */
+    double getDouble(byte[] data) throws UnsupportedEncodingException {
+        throw new UnsupportedOperationException("Invalid data type. Column '" + column.getName() + "' is not numeric.");
+    }
+
+    /**
+     * @return Value of an integer field.
+     */
+    long getLong(byte[] data) {
+        throw new UnsupportedOperationException("Invalid data type. Column '" + column.getName() + "' is not an integer column.");
+    }
+
+    void setDouble(byte[] data, double value) throws UnsupportedEncodingException {
+        throw new UnsupportedOperationException("Invalid data type. Column '" + column.getName() + "' is not a double or currency column.");
+    }
+
+    boolean getBoolean(byte[] data) {
+        throw new UnsupportedOperationException("Invalid data type. Column '" + column.getName() + "' is not a boolean column.");
+    }
+
+    Date getDate(byte[] data) throws ParseException {
+        throw new UnsupportedOperationException("Invalid data type. Column '" + column.getName() + "' is not a date column.");
+    }
+
+    void setDate(byte[] data, Date value) {
+        throw new UnsupportedOperationException("Invalid data type. Column is of '" + type.toString() + "' type, not date.");
+    }
+
+    /**
+     * Text left justified and padded with blanks.
+     */
+    static class CharacterCodec extends DbfColumnCodec {
+        CharacterCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        void set(DbfRecord record, byte[] data, String value) throws DbfDataTruncateException, IOException {
+            byte[] valueBytes = value.getBytes(configuration.getCharset());
+
+            if (!record.getAllowStringTruncate() && valueBytes.length > length) {
+                throw new DbfDataTruncateException("Value exceeds column length. String truncation would occur " +
+                        "and AllowStringTruncate flag is set to false. " +
+                        "To suppress this exception change AllowStringTruncate to true.");
+            }
+
+            // First clear the previous value, then set the new one.
+            clear(data);
+            System.arraycopy(valueBytes, 0, data, address, Math.min(valueBytes.length, length));
+        }
+    }
+
+    /**
+     * Number stored as text, right justified and padded with blanks.
+     */
+    abstract static class NumberCodec extends DbfColumnCodec {
+        NumberCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        double getDouble(byte[] data) throws UnsupportedEncodingException {
+            if (configuration.isNullValue(type, data, address, length)) {
+                return Double.NaN;
+            }
+            return ByteUtils.parseDouble(data, address, length);
+        }
+    }
+
+    /**
+     * NUMBER or FLOAT column without decimals.
+     */
+    static class IntegralNumberCodec extends NumberCodec {
+        IntegralNumberCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        void set(DbfRecord record, byte[] data, String value) throws DbfDataTruncateException, IOException {
+            //throw an exception if integer overflow would occur
+            if (!record.getAllowIntegerTruncate() && value.length() > length) {
+                throw new DbfDataTruncateException("Value not set. Integer does not fit and would be truncated. " +
+                        "AllowIntegerTruncate is set to false. To suppress this exception set allowIntegerTruncate " +
+                        "to true, although that is not recommended.");
+            }
+
+            //clear all numbers, set to [space].
+            clear(data);
+
+            //set integer part, CAREFUL not to overflow buffer! (truncate instead)
+            int nNumLen = value.length() > length ? length : value.length();
+            byte[] valueBytes = value.substring(0, nNumLen).getBytes(configuration.getCharset());
+            System.arraycopy(valueBytes, 0, data, address + length - nNumLen, valueBytes.length);
+        }
+
+        long getLong(byte[] data) {
+            if (type != DbfColumn.DbfColumnType.NUMBER) {
+                return super.getLong(data);
+            }
+            return ByteUtils.parseLong(data, address, length);
+        }
+    }
+
+    /**
+     * NUMBER or FLOAT column with decimals.
+     */
+    static class DecimalNumberCodec extends NumberCodec {
+        DecimalNumberCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        void set(DbfRecord record, byte[] data, String value) throws DbfDataTruncateException, IOException {
+            //break value down into integer and decimal portions
+            int indexDecimal = value.indexOf('.'); //index where the decimal point occurs
+            char[] cDec = null; //decimal portion of the number
+            char[] cNum = null; //integer portion
+
+            if (indexDecimal > -1) {
+                cDec = value.substring(indexDecimal + 1).trim().toCharArray();
+                cNum = value.substring(0, indexDecimal).toCharArray();
+
+                //throw an exception if decimal overflow would occur
+                if (!record.getAllowDecimalTruncate() && cDec.length > decimals)
+                    throw new DbfDataTruncateException("Value not set. Decimal does not fit and would be truncated. " +
+                            "AllowDecimalTruncate is set to false. " +
+                            "To suppress this exception set AllowDecimalTruncate to true.");
+
+            } else
+                cNum = value.toCharArray();
+
+            //throw an exception if integer overflow would occur
+            if (!record.getAllowIntegerTruncate() && cNum.length > length - decimals - 1)// -1 for the decimal point
+                throw new DbfDataTruncateException("Value not set. Integer does not fit and would be truncated. " +
+                        "AllowIntegerTruncate is set to false. " +
+                        "To suppress this exception set AllowIntegerTruncate to true, although that is not recommended.");
+
+            // Clear all decimals, set to 0.
+            System.arraycopy(DECIMAL_CLEAR, 0, data, address + length - decimals, decimals);
+            //clear all numbers, set to [space].
+            System.arraycopy(header.getEmptyDataRecord(), address, data, address, length - decimals);
+
+            //set decimal numbers, CAREFUL not to overflow buffer! (truncate instead)
+            if (indexDecimal > -1) {
+                int decimalLength = cDec.length > decimals ? decimals : cDec.length;
+                byte[] valueBytes = value.substring(indexDecimal + 1, indexDecimal + decimalLength + 1).getBytes(configuration.getCharset());
+                System.arraycopy(valueBytes, 0, data, address + length - decimals, valueBytes.length);
+            }
+
+            //set integer part, CAREFUL not to overflow buffer! (truncate instead)
+            int nNumLen = cNum.length > length - decimals - 1 ? (length - decimals - 1) : cNum.length;
+            byte[] valueBytes = value.substring(0, nNumLen).getBytes(configuration.getCharset());
+            System.arraycopy(valueBytes, 0, data, address + length - decimals - nNumLen - 1, valueBytes.length);
+
+            //set decimal point
+            data[address + length - decimals - 1] = (byte) '.';
+        }
+    }
+
+    /**
+     * 4 byte little endian integer.
+     */
+    static class IntegerCodec extends DbfColumnCodec {
+        IntegerCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        String get(byte[] data) {
+            return Integer.toString(ByteUtils.getLittleEndianInt(data, address));
+        }
+
+        void set(DbfRecord record, byte[] data, String value) {
+            ByteUtils.putLittleEndianInt(data, address, Integer.parseInt(value));
+        }
+
+        boolean isNull(byte[] data) {
+            return false;
+        }
+
+        double getDouble(byte[] data) {
+            return ByteUtils.getLittleEndianInt(data, address);
+        }
+
+        long getLong(byte[] data) {
+            return ByteUtils.getLittleEndianInt(data, address);
+        }
+    }
+
+    /**
+     * One of T, F or ? (not initialized).
+     */
+    static class BooleanCodec extends DbfColumnCodec {
+        BooleanCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        void set(DbfRecord record, byte[] data, String value) {
+            if (value.toLowerCase().equals("true")   || value.toLowerCase().equals("1") ||
+                value.toUpperCase().equals("T")      || value.toLowerCase().equals("yes") ||
+                value.toUpperCase().equals("Y")) {
+                data[address] = (byte) 'T';
+            }
+            else if (value.equals(" ") || value.equals("?")) {
+                data[address] = (byte) '?';
+            }
+            else {
+                data[address] = (byte) 'F';
+            }
+        }
+
+        boolean getBoolean(byte[] data) {
+            byte value = data[address];
+            return value == 'T' || value == 't' || value == 'Y' || value == 'y';
+        }
+    }
+
+    /**
+     * Date as text, yyyyMMdd.
+     */
+    static class DateCodec extends DbfColumnCodec {
+        DateCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        void set(DbfRecord record, byte[] data, String value) {
+            // Try to parse out date value then set the value.
+            try {
+                setDate(data, SimpleDateFormat.getInstance().parse(value));
+            } catch(Exception e) {
+                throw new IllegalArgumentException("Date could not be parsed from source string.");
+            }
+        }
+
+        Date getDate(byte[] data) throws ParseException {
+            String sDateVal = new String(data, address, length, configuration.getCharset());
+            return new SimpleDateFormat("yyyyMMdd").parse(sDateVal);
+        }
+
+        void setDate(byte[] data, Date value) {
+            // Format date and set value. Date format is: yyyyMMdd
+            String formattedValue = (new SimpleDateFormat("yyyyMMdd")).format(value);
+            byte[] bytes = formattedValue.substring(0, length).getBytes(configuration.getCharset());
+            System.arraycopy(bytes, 0, data, address, bytes.length);
+        }
+    }
+
+    /**
+     * 8 byte Visual FoxPro value. Blank fields are read as empty strings and are null.
+     */
+    abstract static class VisualFoxProCodec extends DbfColumnCodec {
+        VisualFoxProCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        String get(byte[] data) {
+            return DbfColumn.isBinaryBlank(type, data, address) ? "" : format(data);
+        }
+
+        /**
+         * @return Value of a field that is not blank as a string.
+         */
+        abstract String format(byte[] data);
+
+        boolean isNull(byte[] data) {
+            return DbfColumn.isBinaryBlank(type, data, address);
+        }
+    }
+
+    /**
+     * 8 byte little endian IEEE double.
+     */
+    static class DoubleCodec extends VisualFoxProCodec {
+        DoubleCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        String format(byte[] data) {
+            return Double.toString(Double.longBitsToDouble(ByteUtils.getLittleEndianLong(data, address)));
+        }
+
+        void set(DbfRecord record, byte[] data, String value) throws UnsupportedEncodingException {
+            setDouble(data, Double.parseDouble(value));
+        }
+
+        double getDouble(byte[] data) {
+            return DbfColumn.getBinaryNumber(type, data, address);
+        }
+
+        void setDouble(byte[] data, double value) throws UnsupportedEncodingException {
+            if (Double.isNaN(value)) {
+                clear(data);
+            } else {
+                ByteUtils.putLittleEndianLong(data, address, Double.doubleToLongBits(value));
+            }
+        }
+    }
+
+    /**
+     * 8 byte little endian integer, the value times 10000.
+     */
+    static class CurrencyCodec extends VisualFoxProCodec {
+        CurrencyCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        String format(byte[] data) {
+            return BigDecimal.valueOf(ByteUtils.getLittleEndianLong(data, address), 4).toPlainString();
+        }
+
+        void set(DbfRecord record, byte[] data, String value) throws DbfDataTruncateException {
+            BigDecimal scaled = new BigDecimal(value.trim()).movePointRight(4);
+            if (!record.getAllowDecimalTruncate() && scaled.stripTrailingZeros().scale() > 0) {
+                throw new DbfDataTruncateException("Value not set. Currency has more than 4 decimals and would be truncated. " +
+                        "AllowDecimalTruncate is set to false. " +
+                        "To suppress this exception set AllowDecimalTruncate to true.");
+            }
+            try {
+                ByteUtils.putLittleEndianLong(data, address, scaled.setScale(0, RoundingMode.HALF_UP).longValueExact());
+            } catch (ArithmeticException e) {
+                throw new DbfDataTruncateException("Value not set. Currency value " + value + " is out of range.");
+            }
+        }
+
+        double getDouble(byte[] data) {
+            return DbfColumn.getBinaryNumber(type, data, address);
+        }
+
+        void setDouble(byte[] data, double value) throws UnsupportedEncodingException {
+            if (Double.isNaN(value)) {
+                clear(data);
+                return;
+            }
+
+            double units = Math.rint(value * DbfColumn.CURRENCY_SCALE);
+            if (units < Long.MIN_VALUE || units >= Long.MAX_VALUE) {
+                throw new IllegalArgumentException("Currency value " + value + " is out of range.");
+            }
+            ByteUtils.putLittleEndianLong(data, address, (long) units);
+        }
+    }
+
+    /**
+     * 4 byte little endian julian day followed by 4 byte little endian milliseconds since midnight.
+     */
+    static class DateTimeCodec extends VisualFoxProCodec {
+        DateTimeCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        String format(byte[] data) {
+            return newFormat().format(new Date(DbfColumn.getDateTimeMillis(data, address)));
+        }
+
+        void set(DbfRecord record, byte[] data, String value) {
+            // Same format as returned by get(), yyyyMMddHHmmss.
+            SimpleDateFormat format = newFormat();
+            format.setLenient(false);
+            try {
+                DbfColumn.putDateTimeMillis(data, address, format.parse(value.trim()).getTime());
+            } catch (ParseException e) {
+                throw new IllegalArgumentException("Date and time could not be parsed from source string, expected " + DATETIME_FORMAT + ".");
+            }
+        }
+
+        Date getDate(byte[] data) {
+            if (DbfColumn.isBinaryBlank(type, data, address)) {
+                return null;
+            }
+
+            // DATETIME values have no time zone, return the same wall clock time in the default time zone.
+            Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            utc.setTimeInMillis(DbfColumn.getDateTimeMillis(data, address));
+            Calendar local = Calendar.getInstance();
+            local.clear();
+            local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH), utc.get(Calendar.DAY_OF_MONTH),
+                    utc.get(Calendar.HOUR_OF_DAY), utc.get(Calendar.MINUTE), utc.get(Calendar.SECOND));
+            local.set(Calendar.MILLISECOND, utc.get(Calendar.MILLISECOND));
+            return local.getTime();
+        }
+
+        void setDate(byte[] data, Date value) {
+            // Store the wall clock time of the default time zone, DATETIME values have no time zone.
+            Calendar local = Calendar.getInstance();
+            local.setTime(value);
+            Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            utc.clear();
+            utc.set(local.get(Calendar.YEAR), local.get(Calendar.MONTH), local.get(Calendar.DAY_OF_MONTH),
+                    local.get(Calendar.HOUR_OF_DAY), local.get(Calendar.MINUTE), local.get(Calendar.SECOND));
+            utc.set(Calendar.MILLISECOND, local.get(Calendar.MILLISECOND));
+            DbfColumn.putDateTimeMillis(data, address, utc.getTimeInMillis());
+        }
+
+        private static SimpleDateFormat newFormat() {
+            SimpleDateFormat format = new SimpleDateFormat(DATETIME_FORMAT);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format;
+        }
+    }
+
+    /**
+     * Pointer to a memo file, which is not supported.
+     */
+    static class MemoCodec extends DbfColumnCodec {
+        MemoCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        void set(DbfRecord record, byte[] data, String value) {
+            // copy 10 digits TODO
+            throw new NotImplementedException("Memo data type functionality not implemented yet!");
+        }
+    }
+
+    /**
+     * Binary data, can not be set from a string.
+     */
+    static class BinaryCodec extends DbfColumnCodec {
+        BinaryCodec(DbfHeader header, DbfColumn column) {
+            super(header, column);
+        }
+
+        void set(DbfRecord record, byte[] data, String value) {
+            throw new UnsupportedOperationException("Cannot use string source to set binary data. Use setBinaryValue() and getBinaryValue() functions instead.");
+        }
+    }
+}
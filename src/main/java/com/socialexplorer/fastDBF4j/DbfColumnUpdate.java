@@ -0,0 +1,173 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.exceptions.DbfDataTruncateException;
+import com.socialexplorer.fastDBF4j.util.ByteUtils;
+
+import java.io.IOException;
+
+/**
+ * Updates one column over a range of records in place. Records are read in large blocks
+ * (see {@link com.socialexplorer.fastDBF4j.util.Configuration#getIoBufferSize()}), only the bytes of the updated
+ * field are changed in the block, and the block is written back from the first to the last updated field.
+ * So an update costs two large I/O calls per block instead of a seek and a write per record.
+ */
+abstract class DbfColumnUpdate {
+    protected final DbfFile file;
+    protected final DbfHeader header;
+    protected final DbfColumn column;
+    protected final int columnIndex;
+
+    protected DbfColumnUpdate(DbfFile file, int columnIndex) {
+        this.file = file;
+        this.header = file.getHeader();
+        this.column = header.get(columnIndex);
+        this.columnIndex = columnIndex;
+    }
+
+    /**
+     * Set the field of one record in the block.
+     *
+     * @param recordIndex Index of the record in the file.
+     * @param block Block of records.
+     * @param recordOffset Offset of the record in the block.
+     */
+    protected abstract void encode(long recordIndex, byte[] block, int recordOffset) throws IOException, DbfDataTruncateException;
+
+    /**
+     * Update records [firstRecord, firstRecord + recordCount).
+     * @return Number of updated records.
+     */
+    long run(long firstRecord, long recordCount) throws IOException, DbfDataTruncateException {
+        if (file.dbfFile == null) {
+            throw new IllegalStateException("File is not opened.");
+        }
+        if (file.isReadOnly()) {
+            throw new UnsupportedOperationException("Trying to write to a read-only file.");
+        }
+
+        // Fields are written around the journal, replaying older images after a crash would undo the update.
+        file.checkpointJournal();
+        if (firstRecord < 0 || firstRecord + recordCount > file.countRecordsInFile()) {
+            throw new IllegalArgumentException("Records [" + firstRecord + ", " + (firstRecord + recordCount)
+                    + ") are not all in the file.");
+        }
+
+        int recordLength = header.getRecordLength();
+        int recordsPerBlock = Math.max(1, header.getConfiguration().getIoBufferSize() / recordLength);
+        byte[] block = new byte[recordsPerBlock * recordLength];
+        DbfStatistics statistics = file.getStatistics();
+        DbfMetrics metrics = header.getConfiguration().getMetrics();
+
+        for (long first = firstRecord; first < firstRecord + recordCount; first += recordsPerBlock) {
+            int records = (int) Math.min(recordsPerBlock, firstRecord + recordCount - first);
+            long position = header.headerLength() + first * recordLength;
+
+            long readStart = metrics != null ? System.nanoTime() : 0;
+            file.dbfFile.seek(position);
+            file.dbfFile.readFully(block, 0, records * recordLength);
+            if (metrics != null) {
+                metrics.recordsRead(records, System.nanoTime() - readStart);
+            }
+
+            for (int i = 0; i < records; i++) {
+                encode(first + i, block, i * recordLength);
+                if (statistics != null) {
+                    statistics.add(first + i, block, i * recordLength);
+                }
+            }
+
+            // Bytes before the first and after the last updated field did not change.
+            int start = column.getDataAddress();
+            int end = (records - 1) * recordLength + column.getDataAddress() + column.getLength();
+            long writeStart = metrics != null ? System.nanoTime() : 0;
+            file.dbfFile.seek(position + start);
+            file.dbfFile.write(block, start, end - start);
+            if (metrics != null) {
+                metrics.recordsWritten(records, System.nanoTime() - writeStart);
+            }
+        }
+
+        return recordCount;
+    }
+
+    /**
+     * Sets the column from an array of numbers.
+     */
+    static class FromArray extends DbfColumnUpdate {
+        private final long firstRecord;
+        private final double[] values;
+
+        FromArray(DbfFile file, int columnIndex, long firstRecord, double[] values) {
+            super(file, checkNumeric(file, columnIndex));
+            this.firstRecord = firstRecord;
+            this.values = values;
+        }
+
+        private static int checkNumeric(DbfFile file, int columnIndex) {
+            DbfColumn.DbfColumnType columnType = file.getHeader().get(columnIndex).getColumnType();
+            if (columnType != DbfColumn.DbfColumnType.NUMBER && columnType != DbfColumn.DbfColumnType.FLOAT
+                    && columnType != DbfColumn.DbfColumnType.INTEGER && columnType != DbfColumn.DbfColumnType.DOUBLE
+                    && columnType != DbfColumn.DbfColumnType.CURRENCY) {
+                throw new IllegalArgumentException("Column '" + file.getHeader().get(columnIndex).getName() + "' is not numeric.");
+            }
+            return columnIndex;
+        }
+
+        protected void encode(long recordIndex, byte[] block, int recordOffset) throws DbfDataTruncateException {
+            double value = values[(int) (recordIndex - firstRecord)];
+            int offset = recordOffset + column.getDataAddress();
+
+            if (column.getColumnType() == DbfColumn.DbfColumnType.INTEGER) {
+                if (value != Math.rint(value) || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Value " + value + " of record " + recordIndex
+                            + " is not a valid integer.");
+                }
+                int intValue = (int) value;
+                block[offset] = (byte) intValue;
+                block[offset + 1] = (byte) (intValue >> 8);
+                block[offset + 2] = (byte) (intValue >> 16);
+                block[offset + 3] = (byte) (intValue >> 24);
+            } else if (Double.isNaN(value)) {
+                // NaN stands for a missing value, like a blank field is read as NaN.
+                for (int i = 0; i < column.getLength(); i++) {
+                    block[offset + i] = ' ';
+                }
+            } else if (column.getColumnType() == DbfColumn.DbfColumnType.DOUBLE) {
+                ByteUtils.putLittleEndianLong(block, offset, Double.doubleToLongBits(value));
+            } else if (column.getColumnType() == DbfColumn.DbfColumnType.CURRENCY) {
+                double units = Math.rint(value * DbfColumn.CURRENCY_SCALE);
+                if (units < Long.MIN_VALUE || units >= Long.MAX_VALUE) {
+                    throw new DbfDataTruncateException("Value " + value + " of record " + recordIndex
+                            + " does not fit into column '" + column.getName() + "'.");
+                }
+                ByteUtils.putLittleEndianLong(block, offset, (long) units);
+            } else if (!ByteUtils.formatNumber(value, column.getDecimalCount(), block, offset, column.getLength())) {
+                throw new DbfDataTruncateException("Value " + value + " of record " + recordIndex
+                        + " does not fit into column '" + column.getName() + "'.");
+            }
+        }
+    }
+
+    /**
+     * Sets the column from values computed by a function of the record.
+     */
+    static class FromFunction extends DbfColumnUpdate {
+        private final DbfValueFunction function;
+        private final DbfRecord record;
+
+        FromFunction(DbfFile file, int columnIndex, DbfValueFunction function) throws IOException {
+            super(file, columnIndex);
+            this.function = function;
+            this.record = new DbfRecord(header);
+        }
+
+        protected void encode(long recordIndex, byte[] block, int recordOffset) throws IOException, DbfDataTruncateException {
+            System.arraycopy(block, recordOffset, record.getData(), 0, header.getRecordLength());
+            record.setRecordIndex(recordIndex);
+
+            record.set(columnIndex, function.apply(record));
+
+            System.arraycopy(record.getData(), column.getDataAddress(), block, recordOffset + column.getDataAddress(), column.getLength());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends records to a DBF file from many threads at once, without a global lock.
+ * <p>
+ * Each thread fills its own block of records. When a block is full, the thread reserves as many record slots
+ * as the block holds with one atomic add on the record count, and writes the block to its slots with a positional
+ * write. So threads only meet on an AtomicLong, once per block, and write to the file in parallel.
+ * Records of one thread stay in order, records of different threads are interleaved by block.
+ * <p>
+ * The record count in the header is written once, when the appender is closed. Until then, the file must not be
+ * written through the DbfFile it was created from. Column statistics of the file, if used, are updated on close.
+ * If the file has a journal, records waiting in it are committed and the journal is emptied when the appender is created.
+ * <pre>
+ *     DbfConcurrentAppender appender = new DbfConcurrentAppender(dbfFile);
+ *     // on each producer thread
+ *     appender.append(record);
+ *     // when all producers are done
+ *     appender.close();
+ * </pre>
+ */
+public class DbfConcurrentAppender {
+    /**
+     * Default size of the block of each thread.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private final DbfFile file;
+    private final DbfHeader header;
+    private final int recordLength;
+    private final int recordsPerBlock;
+    private final long firstRecord;
+    private final RandomAccessFile output;
+    private final FileChannel channel;
+
+    private final AtomicLong recordCount;
+    private final ConcurrentLinkedQueue<Block> blocks = new ConcurrentLinkedQueue<Block>();
+    private final ThreadLocal<Block> threadBlock = new ThreadLocal<Block>();
+    private volatile boolean closed = false;
+
+    /**
+     * @param target DBF file opened for writing.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception UnsupportedOperationException If the file is read-only.
+     * @throws IOException If the file can not be opened for writing.
+     */
+    public DbfConcurrentAppender(DbfFile target) throws IOException {
+        this(target, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param target DBF file opened for writing.
+     * @param blockSize Size of the block of each thread in bytes, rounded down to whole records.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception UnsupportedOperationException If the file is read-only.
+     * @exception IllegalArgumentException If the block size is not positive.
+     * @throws IOException If the file can not be opened for writing.
+     */
+    public DbfConcurrentAppender(DbfFile target, int blockSize) throws IOException {
+        if (target.dbfFile == null) {
+            throw new IllegalStateException("File is not opened.");
+        }
+        if (target.isReadOnly()) {
+            throw new UnsupportedOperationException("Trying to write to a read-only file.");
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive.");
+        }
+
+        // Records are written around the journal, so replaying it after a crash must not touch them.
+        target.checkpointJournal();
+
+        if (!target.headerWritten) {
+            target.writeHeader();
+        }
+
+        this.file = target;
+        this.header = target.getHeader();
+        this.recordLength = header.getRecordLength();
+        this.recordsPerBlock = Math.max(1, blockSize / recordLength);
+        this.firstRecord = target.countRecordsInFile();
+        this.recordCount = new AtomicLong(firstRecord);
+        this.output = new RandomAccessFile(target.getFilePath(), "rw");
+        this.channel = output.getChannel();
+    }
+
+    /**
+     * Append a record. Can be called by any number of threads at once. The record is copied, so it can be reused.
+     *
+     * @param record Record with the same structure as the header of the file.
+     * @exception IllegalStateException If the appender is closed, or the record does not match the header.
+     * @throws IOException If an I/O error occurs while writing a full block.
+     */
+    public void append(DbfRecord record) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Appender is closed.");
+        }
+        if (record.getHeader() != header && record.getHeader().getRecordLength() != recordLength) {
+            throw new IllegalStateException("Record parameter does not have the same size as the header specifies.");
+        }
+
+        Block block = threadBlock.get();
+        if (block == null) {
+            block = new Block(recordsPerBlock * recordLength);
+            blocks.add(block);
+            threadBlock.set(block);
+        }
+
+        System.arraycopy(record.getData(), 0, block.buffer, block.length, recordLength);
+        block.length += recordLength;
+        if (block.length == block.buffer.length) {
+            flush(block);
+        }
+    }
+
+    /**
+     * Write the block of the calling thread, e.g. when a producer is done or before it waits for a long time.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void flush() throws IOException {
+        Block block = threadBlock.get();
+        if (block != null) {
+            flush(block);
+        }
+    }
+
+    /**
+     * @return Number of records in the file, including records appended so far that are not written yet.
+     */
+    public long getRecordCount() {
+        long count = recordCount.get();
+        for (Block block : blocks) {
+            count += block.length / recordLength;
+        }
+        return count;
+    }
+
+    /**
+     * Write the blocks of all threads and publish the record count in the header.
+     * Call it after all producer threads are done appending.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            for (Block block : blocks) {
+                flush(block);
+            }
+
+            long count = recordCount.get();
+            ByteBuffer endOfFile = ByteBuffer.wrap(new byte[]{0x1A});
+            channel.write(endOfFile, header.headerLength() + count * recordLength);
+        } finally {
+            output.close();
+        }
+
+        long count = recordCount.get();
+        header.setRecordCount(count);
+        header.writeRecordCount(file.dbfFile);
+
+        DbfStatistics statistics = file.getStatistics();
+        if (statistics != null && count > firstRecord) {
+            DbfBlockReader reader = DbfBlockReader.open(file, firstRecord, count - firstRecord);
+            try {
+                long index = firstRecord;
+                int records;
+                while ((records = reader.next()) > 0) {
+                    for (int i = 0; i < records; i++, index++) {
+                        statistics.add(index, reader.getBuffer(), i * recordLength);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Reserve slots for the records in the block and write them there.
+     */
+    private void flush(Block block) throws IOException {
+        if (block.length == 0) {
+            return;
+        }
+
+        DbfMetrics metrics = header.getConfiguration().getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        int records = block.length / recordLength;
+        long first = recordCount.getAndAdd(records);
+        long position = header.headerLength() + first * recordLength;
+
+        ByteBuffer buffer = ByteBuffer.wrap(block.buffer, 0, block.length);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+
+        // The appender writes through its own channel, which the file does not measure.
+        if (metrics != null) {
+            metrics.bytesWritten(block.length);
+            metrics.recordsWritten(records, System.nanoTime() - start);
+        }
+        block.length = 0;
+    }
+
+    /**
+     * Records appended by one thread and not written yet.
+     */
+    private static class Block {
+        final byte[] buffer;
+        int length = 0;
+
+        Block(int size) {
+            this.buffer = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Blocking record reader for many threads, e.g. thousands of virtual threads serving lookups.
+ * <p>
+ * DbfFile.read() moves the shared file pointer, so it can not be called from several threads at once. This reader
+ * uses positional reads instead, and has no synchronized blocks or monitors, only lock-free queues and
+ * LockSupport parking, so waiting virtual threads do not pin their carrier threads.
+ * <p>
+ * Concurrent requests are combined. A thread whose request is queued either becomes one of the (few) threads that
+ * do I/O, or parks until its request is done. A thread doing I/O takes a batch of queued requests, sorts them by
+ * position and reads requests for the same or nearby records with one read, then hands out the data and wakes the
+ * waiting threads. The more threads wait, the larger and fewer the reads. Batches are limited in size, so while one
+ * thread reads a batch, the requests behind it are read by other threads at the same time: whenever a batch is taken
+ * or a read slot frees up, as many waiting threads are woken as there are free slots.
+ */
+public class DbfConcurrentReader {
+    /**
+     * Default number of threads that can read from the file at the same time.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_READS = 4;
+
+    /**
+     * Default maximum size of one combined read.
+     */
+    public static final int DEFAULT_MAX_READ_SIZE = 256 * 1024;
+
+    /**
+     * Default maximum number of unrequested bytes between two requests that are still combined into one read.
+     */
+    public static final int DEFAULT_MAX_GAP = 4096;
+
+    /**
+     * Default maximum number of requests a thread takes from the queue at once.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private final DbfHeader header;
+    private final int recordLength;
+    private final long headerLength;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    private final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<Request>();
+    private final AtomicInteger readers = new AtomicInteger();
+
+    private volatile int maxConcurrentReads = DEFAULT_MAX_CONCURRENT_READS;
+    private volatile int maxReadSize = DEFAULT_MAX_READ_SIZE;
+    private volatile int maxGap = DEFAULT_MAX_GAP;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    /**
+     * @param source Opened DBF file. The reader opens its own handle, so the position of the file does not change.
+     * @exception IllegalStateException If the file is not opened.
+     * @throws IOException If the file can not be opened for reading.
+     */
+    public DbfConcurrentReader(DbfFile source) throws IOException {
+        if (source.dbfFile == null) {
+            throw new IllegalStateException("Source file is not opened.");
+        }
+
+        this.header = source.getHeader();
+        this.recordLength = header.getRecordLength();
+        this.headerLength = header.headerLength();
+        this.file = new RandomAccessFile(source.getFilePath(), "r");
+        this.channel = file.getChannel();
+    }
+
+    /**
+     * Read a record. Can be called by any number of threads at once.
+     *
+     * @param index Zero based index of the record.
+     * @param fillRecord Record to fill, must have the same structure as the header of the file.
+     * @return true if the record was read, false if there is no record with the given index.
+     * @exception IllegalStateException If the record does not match the header of the file.
+     * @throws IOException If an I/O error occurs.
+     */
+    public boolean read(long index, DbfRecord fillRecord) throws IOException {
+        if (fillRecord.getHeader() != header && fillRecord.getHeader().getRecordLength() != recordLength) {
+            throw new IllegalStateException("Record parameter does not have the same size as the header specifies.");
+        }
+        if (index < 0) {
+            return false;
+        }
+
+        if (!execute(new Request(headerLength + index * recordLength, fillRecord.getData()))) {
+            return false;
+        }
+        fillRecord.setRecordIndex(index);
+        return true;
+    }
+
+    /**
+     * Read a record. Can be called by any number of threads at once.
+     *
+     * @param index Zero based index of the record.
+     * @return New record, or null if there is no record with the given index.
+     * @throws IOException If an I/O error occurs.
+     */
+    public DbfRecord read(long index) throws IOException {
+        DbfRecord record = new DbfRecord(header);
+        return read(index, record) ? record : null;
+    }
+
+    /**
+     * Close the file. Must not be called while reads are in progress.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void close() throws IOException {
+        file.close();
+    }
+
+    public int getMaxConcurrentReads() {
+        return maxConcurrentReads;
+    }
+
+    public void setMaxConcurrentReads(int maxConcurrentReads) {
+        if (maxConcurrentReads <= 0) {
+            throw new IllegalArgumentException("Number of concurrent reads must be positive.");
+        }
+        this.maxConcurrentReads = maxConcurrentReads;
+    }
+
+    public int getMaxReadSize() {
+        return maxReadSize;
+    }
+
+    public void setMaxReadSize(int maxReadSize) {
+        if (maxReadSize <= 0) {
+            throw new IllegalArgumentException("Read size must be positive.");
+        }
+        this.maxReadSize = maxReadSize;
+    }
+
+    public int getMaxGap() {
+        return maxGap;
+    }
+
+    /**
+     * @param maxGap Maximum number of unrequested bytes between two requests that are combined into one read.
+     *               0 combines only adjacent and overlapping requests.
+     */
+    public void setMaxGap(int maxGap) {
+        if (maxGap < 0) {
+            throw new IllegalArgumentException("Gap can not be negative.");
+        }
+        this.maxGap = maxGap;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize Maximum number of queued requests a thread reads at once. Larger batches combine more
+     *                     requests, smaller ones spread queued requests over more concurrent reads.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Queue the request and wait until it is done, doing I/O for queued requests when a read slot is free.
+     * @return true if the record was read, false if it is past the end of the file.
+     */
+    private boolean execute(Request request) throws IOException {
+        pending.add(request);
+
+        while (!request.done) {
+            int count = readers.get();
+            if (count < maxConcurrentReads && readers.compareAndSet(count, count + 1)) {
+                try {
+                    readPending();
+                } finally {
+                    readers.decrementAndGet();
+                    // Requests queued while we were reading might have found all slots taken, wake threads to take over.
+                    wakeWaiting();
+                }
+            } else if (!request.done) {
+                LockSupport.park(this);
+            }
+        }
+
+        if (request.error != null) {
+            throw new IOException("Reading record failed.", request.error);
+        }
+        return request.found;
+    }
+
+    /**
+     * Wake the threads of the first queued requests, one for each free read slot, so they can read in parallel.
+     */
+    private void wakeWaiting() {
+        int free = maxConcurrentReads - readers.get();
+        if (free <= 0) {
+            return;
+        }
+        for (Request request : pending) {
+            LockSupport.unpark(request.thread);
+            if (--free == 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Take a batch of queued requests, read them with as few reads as possible and wake the threads waiting for them.
+     */
+    private void readPending() {
+        int limit = maxBatchSize;
+        List<Request> batch = new ArrayList<Request>(Math.min(limit, 64));
+        Request request;
+        while (batch.size() < limit && (request = pending.poll()) != null) {
+            batch.add(request);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // Requests left in the queue are read by other threads while this one reads its batch.
+        if (!pending.isEmpty()) {
+            wakeWaiting();
+        }
+
+        Collections.sort(batch, new Comparator<Request>() {
+            public int compare(Request a, Request b) {
+                return a.position < b.position ? -1 : (a.position == b.position ? 0 : 1);
+            }
+        });
+
+        ByteBuffer buffer = null;
+        int runStart = 0;
+        for (int i = 1; i <= batch.size(); i++) {
+            long start = batch.get(runStart).position;
+            if (i < batch.size()) {
+                long position = batch.get(i).position;
+                long end = batch.get(i - 1).position + recordLength;
+                if (position <= end + maxGap && position + recordLength - start <= maxReadSize) {
+                    continue;
+                }
+            }
+
+            // Requests [runStart, i) form one run.
+            int length = (int) (batch.get(i - 1).position + recordLength - start);
+            if (buffer == null || buffer.capacity() < length) {
+                buffer = ByteBuffer.allocate(Math.max(length, recordLength));
+            }
+            // through Buffer, ByteBuffer.clear() and limit(int) return ByteBuffer only since Java 9
+            ((Buffer) buffer).clear();
+            ((Buffer) buffer).limit(length);
+
+            Throwable error = null;
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+            } catch (Throwable e) {
+                error = e;
+            }
+
+            int available = buffer.position();
+            for (int j = runStart; j < i; j++) {
+                Request done = batch.get(j);
+                int offset = (int) (done.position - start);
+                if (error != null) {
+                    done.error = error;
+                } else if (offset + recordLength <= available) {
+                    System.arraycopy(buffer.array(), offset, done.target, 0, recordLength);
+                    done.found = true;
+                }
+                done.done = true;
+                LockSupport.unpark(done.thread);
+            }
+
+            runStart = i;
+        }
+    }
+
+    /**
+     * Record read requested by a waiting thread.
+     */
+    private static class Request {
+        final long position;
+        final byte[] target;
+        final Thread thread = Thread.currentThread();
+
+        boolean found = false;
+        Throwable error = null;
+        volatile boolean done = false;
+
+        Request(long position, byte[] target) {
+            this.position = position;
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,569 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.exceptions.DbfDataTruncateException;
+import com.socialexplorer.fastDBF4j.exceptions.InvalidDbfFileException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * A set of DBF files with the same columns, e.g. one file per county, scanned as one table.
+ * <p>
+ * Headers are read the first time they are needed, one file at a time. Files must have the same columns
+ * (see {@link DbfTransfer#concat}), unless schemas are unified: then the dataset has the union of the columns of all
+ * files (by name, with the largest length) and records of other layouts are converted as by {@link DbfSchemaMigration}.
+ * <p>
+ * Files are scanned in parallel, one task per file, on a pool of threads. Each task reads its file in large blocks
+ * through a handle of its own, and at most {@link #getMaxOpenFiles()} files are open at the same time, also when
+ * the tasks run on a larger executor.
+ * <ul>
+ *     <li>{@link #scan(DbfDatasetHandler)} calls the handler on the threads of the pool. Records of one file are
+ *         passed in order, records of different files are interleaved.</li>
+ *     <li>{@link #scanOrdered(DbfDatasetHandler)} calls the handler on the calling thread with all records in order,
+ *         file by file, while the following files are read ahead in parallel.</li>
+ * </ul>
+ * Records flagged as deleted are passed like any other record.
+ */
+public class DbfDataset {
+    /**
+     * Default number of files that can be open at the same time.
+     */
+    public static final int DEFAULT_MAX_OPEN_FILES = 64;
+
+    /**
+     * Number of blocks a file is read ahead of the ordered scan.
+     */
+    private static final int READ_AHEAD_BLOCKS = 2;
+
+    /**
+     * Marks the end of the blocks of a file in the ordered scan.
+     */
+    private static final byte[] END_OF_FILE = new byte[0];
+
+    private final List<String> filePaths;
+
+    private boolean tryToReadCpg = false;
+    private boolean unifySchemas = false;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+
+    /**
+     * Header of the records passed to handlers, null until headers are read.
+     */
+    private DbfHeader header = null;
+
+    /**
+     * Header length and record length of each file.
+     */
+    private int[] headerLengths = null;
+    private int[] recordLengths = null;
+
+    /**
+     * Conversion of the records of each file into the layout of the dataset, null for files that have the same layout.
+     */
+    private DbfSchemaMigration[] migrations = null;
+
+    /**
+     * @param filePaths Paths of the files, in order.
+     * @exception IllegalArgumentException If there are no files.
+     */
+    public DbfDataset(List<String> filePaths) {
+        if (filePaths.isEmpty()) {
+            throw new IllegalArgumentException("Dataset must have at least one file.");
+        }
+        this.filePaths = Collections.unmodifiableList(new ArrayList<String>(filePaths));
+    }
+
+    /**
+     * Create a dataset of all .dbf files in a folder, sorted by name.
+     *
+     * @param directory Path of the folder.
+     * @return New dataset.
+     * @exception IllegalArgumentException If the folder has no .dbf files.
+     * @throws IOException If the folder can not be listed.
+     */
+    public static DbfDataset fromDirectory(String directory) throws IOException {
+        List<String> filePaths = new ArrayList<String>();
+        DirectoryStream<Path> paths = Files.newDirectoryStream(Paths.get(directory));
+        try {
+            for (Path path : paths) {
+                if (path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".dbf") && Files.isRegularFile(path)) {
+                    filePaths.add(path.toString());
+                }
+            }
+        } finally {
+            paths.close();
+        }
+
+        if (filePaths.isEmpty()) {
+            throw new IllegalArgumentException("Folder " + directory + " has no DBF files.");
+        }
+        Collections.sort(filePaths);
+        return new DbfDataset(filePaths);
+    }
+
+    /**
+     * Create a dataset of all files that match a glob pattern, sorted by path. The pattern can have wildcards in
+     * any path segment, e.g. "/data/acs2022/*&#47;tract_*.dbf"; "**" matches any number of folders.
+     *
+     * @param glob Glob pattern with / as the separator, see {@link java.nio.file.FileSystem#getPathMatcher(String)}.
+     * @return New dataset.
+     * @exception IllegalArgumentException If no file matches the pattern.
+     * @throws IOException If a folder can not be listed.
+     */
+    public static DbfDataset fromGlob(String glob) throws IOException {
+        // Walk the folder before the first segment with a wildcard, and match paths relative to it.
+        String[] segments = glob.replace(File.separatorChar, '/').split("/", -1);
+        int firstWildcard = 0;
+        while (firstWildcard < segments.length && !hasWildcard(segments[firstWildcard])) {
+            firstWildcard++;
+        }
+        if (firstWildcard == segments.length) {
+            // No wildcards, a single file.
+            return new DbfDataset(Collections.singletonList(glob));
+        }
+
+        StringBuilder base = new StringBuilder();
+        StringBuilder relativePattern = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            StringBuilder part = i < firstWildcard ? base : relativePattern;
+            if (part.length() > 0 || (i > 0 && i != firstWildcard)) {
+                part.append('/');
+            }
+            part.append(segments[i]);
+        }
+        Path basePath = Paths.get(firstWildcard == 0 ? "." : (base.length() == 0 ? "/" : base.toString()));
+        int depth = relativePattern.indexOf("**") >= 0 ? Integer.MAX_VALUE : segments.length - firstWildcard;
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relativePattern);
+
+        List<String> filePaths = new ArrayList<String>();
+        Stream<Path> paths = Files.walk(basePath, depth);
+        try {
+            Iterator<Path> iterator = paths.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                if (Files.isRegularFile(path) && matcher.matches(basePath.relativize(path))) {
+                    filePaths.add(path.toString());
+                }
+            }
+        } finally {
+            paths.close();
+        }
+
+        if (filePaths.isEmpty()) {
+            throw new IllegalArgumentException("No files match " + glob + ".");
+        }
+        Collections.sort(filePaths);
+        return new DbfDataset(filePaths);
+    }
+
+    private static boolean hasWildcard(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('[') >= 0 || segment.indexOf('{') >= 0;
+    }
+
+    /**
+     * @return Paths of the files, in order.
+     */
+    public List<String> getFilePaths() {
+        return filePaths;
+    }
+
+    /**
+     * Header of the records passed to handlers: the header of the first file, or the unified header.
+     * Reads the headers of all files the first time it is called.
+     *
+     * @return Header of the dataset.
+     * @exception IllegalArgumentException If the files do not have the same columns, or their schemas can not be unified.
+     * @throws IOException If an I/O error occurs.
+     * @throws InvalidDbfFileException If a file is not a valid DBF file.
+     */
+    public synchronized DbfHeader getHeader() throws IOException, InvalidDbfFileException {
+        if (header == null) {
+            readHeaders();
+        }
+        return header;
+    }
+
+    public boolean getTryToReadCpg() {
+        return tryToReadCpg;
+    }
+
+    /**
+     * @param tryToReadCpg True if the encoding of the files should be read from their .cpg files, see
+     *                     {@link DbfFile#DbfFile(String, String, boolean)}. Must be set before headers are read.
+     */
+    public synchronized void setTryToReadCpg(boolean tryToReadCpg) {
+        checkHeadersNotRead();
+        this.tryToReadCpg = tryToReadCpg;
+    }
+
+    public boolean getUnifySchemas() {
+        return unifySchemas;
+    }
+
+    /**
+     * @param unifySchemas True if files can have different columns, false if they must all have the same columns.
+     *                     Must be set before headers are read.
+     */
+    public synchronized void setUnifySchemas(boolean unifySchemas) {
+        checkHeadersNotRead();
+        this.unifySchemas = unifySchemas;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of files scanned at the same time.
+     * @exception IllegalArgumentException If the thread count is not positive.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive.");
+        }
+        this.threadCount = threadCount;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /**
+     * @param maxOpenFiles Maximum number of files open at the same time by one scan.
+     * @exception IllegalArgumentException If the number of files is not positive.
+     */
+    public void setMaxOpenFiles(int maxOpenFiles) {
+        if (maxOpenFiles <= 0) {
+            throw new IllegalArgumentException("Number of open files must be positive.");
+        }
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * Scan all records of all files on a pool of {@link #getThreadCount()} threads.
+     *
+     * @param handler Receives the records, called by several threads at once. Records of one file are passed in order.
+     * @return Number of records scanned.
+     * @throws IOException If an I/O error occurs, or thrown by the handler. The scan stops at the first error.
+     * @throws InvalidDbfFileException If a file is not a valid DBF file.
+     */
+    public long scan(DbfDatasetHandler handler) throws IOException, InvalidDbfFileException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, Math.min(maxOpenFiles, filePaths.size())));
+        try {
+            return scan(handler, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Scan all records of all files on the given executor, e.g. one shared by several scans.
+     * The executor bounds the number of files scanned at the same time, but at most {@link #getMaxOpenFiles()} are open.
+     *
+     * @param handler Receives the records, called by several threads at once. Records of one file are passed in order.
+     * @param executor Runs one task per file.
+     * @return Number of records scanned.
+     * @throws IOException If an I/O error occurs, or thrown by the handler. The scan stops at the first error.
+     * @throws InvalidDbfFileException If a file is not a valid DBF file.
+     */
+    public long scan(final DbfDatasetHandler handler, ExecutorService executor) throws IOException, InvalidDbfFileException {
+        final DbfHeader header = getHeader();
+        final Semaphore openFiles = new Semaphore(maxOpenFiles);
+
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        try {
+            for (int i = 0; i < filePaths.size(); i++) {
+                final int fileIndex = i;
+                futures.add(executor.submit(new Callable<Long>() {
+                    public Long call() throws IOException, InterruptedException {
+                        openFiles.acquire();
+                        try {
+                            DbfRecord record = new DbfRecord(header);
+                            DbfBlockReader reader = openFile(fileIndex);
+                            try {
+                                long recordIndex = 0;
+                                int records;
+                                while ((records = reader.next()) > 0) {
+                                    deliver(fileIndex, reader.getBuffer(), records, recordIndex, record, handler);
+                                    recordIndex += records;
+                                }
+                                return recordIndex;
+                            } finally {
+                                reader.close();
+                            }
+                        } finally {
+                            openFiles.release();
+                        }
+                    }
+                }));
+            }
+
+            long recordCount = 0;
+            for (Future<Long> future : futures) {
+                recordCount += future.get();
+            }
+            return recordCount;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Scan was interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // Stop the remaining files after an error, nothing is left to cancel after a successful scan.
+            for (Future<Long> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Scan all records of all files in order: all records of the first file, then all records of the second file...
+     * The handler is called on the calling thread, while the next {@link #getThreadCount()} files
+     * (at most {@link #getMaxOpenFiles()}) are read ahead on a pool of threads.
+     *
+     * @param handler Receives the records in order.
+     * @return Number of records scanned.
+     * @throws IOException If an I/O error occurs, or thrown by the handler. The scan stops at the first error.
+     * @throws InvalidDbfFileException If a file is not a valid DBF file.
+     */
+    public long scanOrdered(DbfDatasetHandler handler) throws IOException, InvalidDbfFileException {
+        DbfHeader header = getHeader();
+        int window = Math.min(threadCount, Math.min(maxOpenFiles, filePaths.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(window);
+
+        ReadAhead[] readAheads = new ReadAhead[filePaths.size()];
+        try {
+            for (int i = 0; i < window; i++) {
+                readAheads[i] = new ReadAhead(i);
+                executor.submit(readAheads[i]);
+            }
+
+            DbfRecord record = new DbfRecord(header);
+            long recordCount = 0;
+            for (int i = 0; i < readAheads.length; i++) {
+                ReadAhead readAhead = readAheads[i];
+                long recordIndex = 0;
+                byte[] block;
+                while ((block = readAhead.blocks.take()) != END_OF_FILE) {
+                    int records = block.length / recordLengths[i];
+                    deliver(i, block, records, recordIndex, record, handler);
+                    recordIndex += records;
+                }
+                if (readAhead.error != null) {
+                    throw readAhead.error;
+                }
+                readAheads[i] = null;
+                recordCount += recordIndex;
+
+                // The file is closed, start reading the next one.
+                if (i + window < readAheads.length) {
+                    readAheads[i + window] = new ReadAhead(i + window);
+                    executor.submit(readAheads[i + window]);
+                }
+            }
+            return recordCount;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Scan was interrupted.");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the blocks of one file into a queue, for the ordered scan.
+     */
+    private class ReadAhead implements Runnable {
+        final int fileIndex;
+        final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(READ_AHEAD_BLOCKS + 1);
+        volatile IOException error = null;
+
+        ReadAhead(int fileIndex) {
+            this.fileIndex = fileIndex;
+        }
+
+        public void run() {
+            try {
+                DbfBlockReader reader = openFile(fileIndex);
+                try {
+                    int records;
+                    while ((records = reader.next()) > 0) {
+                        blocks.put(Arrays.copyOf(reader.getBuffer(), records * recordLengths[fileIndex]));
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                // The scan was stopped.
+                return;
+            } catch (Throwable e) {
+                // Always end the queue, the scan waits for it.
+                error = new IOException("Reading " + filePaths.get(fileIndex) + " failed.", e);
+            }
+
+            try {
+                blocks.put(END_OF_FILE);
+            } catch (InterruptedException e) {
+                // The scan was stopped.
+            }
+        }
+    }
+
+    /**
+     * Open a reader for all records of a file.
+     */
+    private DbfBlockReader openFile(int fileIndex) throws IOException {
+        String filePath = filePaths.get(fileIndex);
+        long recordCount = Math.max(0, (new File(filePath).length() - headerLengths[fileIndex]) / recordLengths[fileIndex]);
+        return new DbfBlockReader(filePath, headerLengths[fileIndex], recordCount, recordLengths[fileIndex],
+                header.getConfiguration().getIoBufferSize());
+    }
+
+    /**
+     * Pass records of a block of a file to the handler, converted into the layout of the dataset.
+     */
+    private void deliver(int fileIndex, byte[] block, int records, long firstRecordIndex, DbfRecord record,
+                         DbfDatasetHandler handler) throws IOException {
+        DbfSchemaMigration migration = migrations[fileIndex];
+        int recordLength = recordLengths[fileIndex];
+
+        for (int i = 0; i < records; i++) {
+            if (migration == null) {
+                System.arraycopy(block, i * recordLength, record.getData(), 0, recordLength);
+            } else {
+                try {
+                    migration.transform(block, i * recordLength, record.getData(), 0);
+                } catch (DbfDataTruncateException e) {
+                    // Unified columns are never narrower than the columns of a file.
+                    throw new IllegalStateException(e);
+                }
+            }
+            record.setRecordIndex(firstRecordIndex + i);
+            handler.handle(fileIndex, record);
+        }
+    }
+
+    private void checkHeadersNotRead() {
+        if (header != null) {
+            throw new IllegalStateException("Headers of the dataset are already read.");
+        }
+    }
+
+    /**
+     * Read the headers of all files, check or unify their columns and prepare the conversions.
+     */
+    private void readHeaders() throws IOException, InvalidDbfFileException {
+        DbfHeader[] headers = new DbfHeader[filePaths.size()];
+        for (int i = 0; i < headers.length; i++) {
+            DbfFile file = new DbfFile(filePaths.get(i), "r", tryToReadCpg);
+            file.open();
+            try {
+                headers[i] = file.getHeader();
+            } finally {
+                file.close();
+            }
+        }
+
+        DbfHeader datasetHeader = headers[0];
+        DbfSchemaMigration[] fileMigrations = new DbfSchemaMigration[headers.length];
+
+        if (!unifySchemas) {
+            for (int i = 1; i < headers.length; i++) {
+                DbfTransfer.checkCompatible(headers[0], filePaths.get(0), headers[i], filePaths.get(i));
+            }
+        } else {
+            // Union of the columns by name, in order of first appearance, with the largest length.
+            List<DbfColumn> columns = new ArrayList<DbfColumn>();
+            Map<String, Integer> columnIndex = new HashMap<String, Integer>();
+            for (int i = 0; i < headers.length; i++) {
+                String encoding = headers[i].getConfiguration().getEncodingName();
+                if (!encoding.equalsIgnoreCase(headers[0].getConfiguration().getEncodingName())) {
+                    throw new IllegalArgumentException("Files " + filePaths.get(i) + " and " + filePaths.get(0)
+                            + " have different encodings, " + encoding + " and " + headers[0].getConfiguration().getEncodingName() + ".");
+                }
+
+                for (int j = 0; j < headers[i].getColumnCount(); j++) {
+                    DbfColumn column = headers[i].get(j);
+                    Integer index = columnIndex.get(column.getName());
+                    if (index == null) {
+                        columnIndex.put(column.getName(), columns.size());
+                        columns.add(column);
+                    } else if (columns.get(index).getColumnType() != column.getColumnType()
+                            || columns.get(index).getDecimalCount() != column.getDecimalCount()) {
+                        throw new IllegalArgumentException("Column '" + column.getName() + "' of file " + filePaths.get(i)
+                                + " has a different type or decimal count than in the other files.");
+                    } else if (column.getLength() > columns.get(index).getLength()) {
+                        columns.set(index, column);
+                    }
+                }
+            }
+
+            datasetHeader = new DbfSchemaMigration(headers[0], columns).getTargetHeader();
+            for (int i = 0; i < headers.length; i++) {
+                if (!hasLayout(headers[i], datasetHeader)) {
+                    fileMigrations[i] = new DbfSchemaMigration(headers[i], columns);
+                }
+            }
+        }
+
+        headerLengths = new int[headers.length];
+        recordLengths = new int[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            headerLengths[i] = headers[i].headerLength();
+            recordLengths[i] = headers[i].getRecordLength();
+        }
+        migrations = fileMigrations;
+        header = datasetHeader;
+    }
+
+    /**
+     * @return true if records of a file have the layout of the dataset and can be passed as they are.
+     */
+    private static boolean hasLayout(DbfHeader file, DbfHeader dataset) {
+        if (file.getColumnCount() != dataset.getColumnCount() || file.getRecordLength() != dataset.getRecordLength()) {
+            return false;
+        }
+        for (int i = 0; i < file.getColumnCount(); i++) {
+            DbfColumn a = file.get(i);
+            DbfColumn b = dataset.get(i);
+            if (!a.getName().equals(b.getName()) || a.getColumnType() != b.getColumnType() || a.getLength() != b.getLength()
+                    || a.getDecimalCount() != b.getDecimalCount() || a.getDataAddress() != b.getDataAddress()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
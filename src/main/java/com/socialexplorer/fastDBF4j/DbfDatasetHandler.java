@@ -0,0 +1,16 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.io.IOException;
+
+/**
+ * Receives records scanned by {@link DbfDataset}.
+ */
+public interface DbfDatasetHandler {
+    /**
+     * @param fileIndex Index of the file of the record in {@link DbfDataset#getFilePaths()}.
+     * @param record Record in the layout of {@link DbfDataset#getHeader()}, its record index is the index in its file.
+     *               The record object is reused for the next call, copy the values you want to keep.
+     * @throws IOException Thrown by the handler to stop the scan, it is passed on to the caller.
+     */
+    void handle(int fileIndex, DbfRecord record) throws IOException;
+}
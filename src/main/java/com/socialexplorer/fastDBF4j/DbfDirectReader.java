@@ -0,0 +1,299 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Scans the records of a file once with direct I/O (O_DIRECT), so that the scan does not go through the page cache
+ * and does not evict pages that other processes keep hot. Meant for batch jobs that read large files exactly once.
+ * <p>
+ * Direct I/O only allows reads of whole file system blocks, at aligned positions, into aligned memory. The reader
+ * reads aligned blocks into an aligned direct buffer, starting at the file system block that holds the end of the
+ * header, and copies whole records from it into a block of records on the heap; a record that straddles two
+ * buffers is completed from the next read.
+ * <p>
+ * Direct I/O needs ExtendedOpenOption.DIRECT (Java 10 and later) and a file system that supports it, e.g. ext4 or
+ * xfs on Linux. Where it is not available, the reader falls back to ordinary reads through the page cache,
+ * see {@link #isDirect()}.
+ * <pre>
+ *     DbfDirectReader reader = dbfFile.scanDirect();
+ *     try {
+ *         DbfRecord record = new DbfRecord(dbfFile.getHeader());
+ *         while (reader.next(record)) {
+ *             total += record.getDouble(populationColumn);
+ *         }
+ *     } finally {
+ *         reader.close();
+ *     }
+ * </pre>
+ * The reader uses its own file handle, so it does not change the position of the DbfFile it was created from.
+ * A reader must not be shared by threads.
+ */
+public class DbfDirectReader {
+    /**
+     * Alignment used when the block size of the file system is not known.
+     */
+    public static final int DEFAULT_ALIGNMENT = 4096;
+
+    /**
+     * ExtendedOpenOption.DIRECT, null if the runtime does not have it.
+     */
+    private static final OpenOption DIRECT = directOption();
+
+    private final FileChannel channel;
+    private final boolean direct;
+    private final DbfMetrics metrics;
+    private final int recordLength;
+    private final int recordsPerBlock;
+    private final byte[] block;
+
+    /**
+     * Aligned buffer of the last read, positioned at the first byte not yet copied to a block.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Position of the next read, always aligned.
+     */
+    private long filePosition;
+
+    /**
+     * Number of header bytes at the start of the first read.
+     */
+    private int skip;
+
+    private long recordsLeft;
+    private long recordIndex = 0;
+    private int blockRecords = 0;
+    private int position = 0;
+
+    /**
+     * Scan all records of a file, reading blocks of the I/O buffer size of its configuration.
+     *
+     * @param source Opened DBF file.
+     * @exception IllegalStateException If the file is not opened.
+     * @throws IOException If the file can not be opened for reading.
+     */
+    public DbfDirectReader(DbfFile source) throws IOException {
+        this(source, source.getHeader().getConfiguration().getIoBufferSize());
+    }
+
+    /**
+     * Scan all records of a file.
+     *
+     * @param source Opened DBF file.
+     * @param bufferSize Size of a read in bytes, rounded up to whole file system blocks.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception IllegalArgumentException If the buffer size is not positive.
+     * @throws IOException If the file can not be opened for reading.
+     */
+    public DbfDirectReader(DbfFile source, int bufferSize) throws IOException {
+        if (source.dbfFile == null) {
+            throw new IllegalStateException("Source file is not opened.");
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive.");
+        }
+
+        DbfHeader header = source.getHeader();
+        this.recordLength = header.getRecordLength();
+        this.recordsLeft = source.countRecordsInFile();
+        this.metrics = header.getConfiguration().getMetrics();
+
+        Path path = Paths.get(source.getFilePath());
+        FileChannel directChannel = null;
+        if (DIRECT != null) {
+            try {
+                directChannel = FileChannel.open(path, StandardOpenOption.READ, DIRECT);
+            } catch (IOException e) {
+                // The file system does not support direct I/O, e.g. tmpfs.
+            } catch (UnsupportedOperationException e) {
+                // The platform does not support direct I/O.
+            }
+        }
+        this.direct = directChannel != null;
+        this.channel = direct ? directChannel : FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            int alignment = direct ? blockSize(path) : DEFAULT_ALIGNMENT;
+            int size = (int) Math.min(1 << 30, ((long) bufferSize + alignment - 1) / alignment * alignment);
+            this.buffer = direct ? allocateAligned(size, alignment) : ByteBuffer.allocateDirect(size);
+            // Buffer methods are called through Buffer, ByteBuffer only overrides them since Java 9
+            ((Buffer) buffer).limit(0);
+
+            // The header is rarely a multiple of the block size, so the first read starts before the first record.
+            this.filePosition = header.headerLength() / alignment * alignment;
+            this.skip = (int) (header.headerLength() - filePosition);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        this.recordsPerBlock = Math.max(1, buffer.capacity() / recordLength);
+        this.block = new byte[recordsPerBlock * recordLength];
+    }
+
+    /**
+     * @return True if the file is read with direct I/O, false if direct I/O is not available and reads go through the page cache.
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @param fillRecord Record to fill, must have the same structure as the header of the file.
+     * @return true if a record was read, false at the end of the file.
+     * @exception IllegalStateException If the reader is closed, or the record does not match the header.
+     * @throws IOException If an I/O error occurs.
+     */
+    public boolean next(DbfRecord fillRecord) throws IOException {
+        if (fillRecord.getHeader().getRecordLength() != recordLength) {
+            throw new IllegalStateException("Record parameter does not have the same size as the header specifies.");
+        }
+
+        if (position == blockRecords) {
+            if (nextBlock() == 0) {
+                return false;
+            }
+            position = 0;
+        }
+
+        System.arraycopy(block, position * recordLength, fillRecord.getData(), 0, recordLength);
+        fillRecord.setRecordIndex(recordIndex - blockRecords + position);
+        position++;
+        return true;
+    }
+
+    /**
+     * Move to the next block of records. Records of the current block that were not read with next() are skipped.
+     *
+     * @return Number of records in the block, 0 at the end of the file.
+     * @exception IllegalStateException If the reader is closed.
+     * @throws IOException If an I/O error occurs.
+     */
+    public int nextBlock() throws IOException {
+        if (!channel.isOpen()) {
+            throw new IllegalStateException("Reader is closed.");
+        }
+
+        int records = (int) Math.min(recordsPerBlock, recordsLeft);
+        int length = records * recordLength;
+        int offset = 0;
+        while (offset < length) {
+            if (!buffer.hasRemaining()) {
+                fill();
+            }
+            int count = Math.min(buffer.remaining(), length - offset);
+            buffer.get(block, offset, count);
+            offset += count;
+        }
+
+        recordsLeft -= records;
+        recordIndex += records;
+        blockRecords = records;
+        position = records;
+        return records;
+    }
+
+    /**
+     * @return Buffer holding the records of the current block, starting at offset 0. Valid until the next call to nextBlock().
+     */
+    public byte[] getBlock() {
+        return block;
+    }
+
+    /**
+     * @return Index of the first record of the current block.
+     */
+    public long getBlockRecordIndex() {
+        return recordIndex - blockRecords;
+    }
+
+    /**
+     * Close the file.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Read the next aligned part of the file into the buffer. Only the last read of the file can be short,
+     * so the position of the next read stays aligned.
+     */
+    private void fill() throws IOException {
+        do {
+            ((Buffer) buffer).clear();
+            int count = channel.read(buffer, filePosition);
+            if (count <= 0) {
+                throw new EOFException("File ended before all records were read.");
+            }
+            if (metrics != null) metrics.bytesRead(count);
+
+            filePosition += count;
+            ((Buffer) buffer).flip();
+
+            int skipped = Math.min(skip, count);
+            ((Buffer) buffer).position(skipped);
+            skip -= skipped;
+        } while (!buffer.hasRemaining());
+    }
+
+    /**
+     * Allocate a direct buffer whose address and capacity are multiples of alignment (ByteBuffer.alignedSlice, Java 9).
+     */
+    private static ByteBuffer allocateAligned(int size, int alignment) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size + alignment);
+        try {
+            Method alignedSlice = ByteBuffer.class.getMethod("alignedSlice", int.class);
+            return (ByteBuffer) alignedSlice.invoke(buffer, alignment);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("Aligned buffers are not supported.", e);
+        }
+    }
+
+    /**
+     * Block size of the file system of the file (FileStore.getBlockSize, Java 10), the alignment that direct I/O requires.
+     */
+    private static int blockSize(Path path) throws IOException {
+        FileStore store = Files.getFileStore(path);
+        try {
+            Method getBlockSize = FileStore.class.getMethod("getBlockSize");
+            long blockSize = (Long) getBlockSize.invoke(store);
+            if (blockSize > 0 && blockSize <= (1 << 20) && Long.bitCount(blockSize) == 1) {
+                return (int) blockSize;
+            }
+        } catch (Exception e) {
+            // Block size is not known.
+        }
+        return DEFAULT_ALIGNMENT;
+    }
+
+    /**
+     * Look up ExtendedOpenOption.DIRECT, which was added in Java 10.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static OpenOption directOption() {
+        try {
+            Class type = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            return (OpenOption) Enum.valueOf(type, "DIRECT");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a field of a class to a column with another name, see {@link DbfMapper}.
+ * <pre>
+ *     public class Tract {
+ *         &#64;DbfField("GEOID10")
+ *         private String geoId;
+ *         private long population;
+ *     }
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface DbfField {
+    /**
+     * @return Name of the column. Note that this is case sensitive.
+     */
+    String value();
+}
@@ -1,5 +1,6 @@
 package com.socialexplorer.fastDBF4j;
 
+import com.socialexplorer.fastDBF4j.exceptions.DbfDataTruncateException;
 import com.socialexplorer.fastDBF4j.exceptions.InvalidDbfFileException;
 import com.socialexplorer.fastDBF4j.util.Configuration;
 import com.socialexplorer.fastDBF4j.util.FileReader;
@@ -11,8 +12,11 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -44,7 +48,7 @@ public class DbfFile {
      * recordsReadCount is used to keep track of record index. With a seek enabled stream,
      * we can always calculate index using stream position.
      */
-    protected int recordsReadCount = 0;
+    protected long recordsReadCount = 0;
     /**
      * The file can be read in forward direction only.
      * Keep isForwardOnly handy so we don't call functions on every read.
@@ -60,8 +64,24 @@ public class DbfFile {
      */
     protected String fileAccess = "";
 
+    /**
+     * Column statistics maintained while records are written, null if statistics are not used.
+     */
+    protected DbfStatistics statistics = null;
+
+    /**
+     * Write-ahead journal, null if journal mode is not enabled.
+     */
+    protected DbfJournal journal = null;
+
     private Configuration configuration;
 
+    /**
+     * Largest gap between two requested records, in bytes, that readMany() reads through
+     * rather than starting a new read.
+     */
+    protected static final int READ_MANY_MAX_GAP = 64 * 1024;
+
     /**
      * Initialize DBF file.
      * @param filePath Path to the file.
@@ -142,20 +162,25 @@ public class DbfFile {
 
     }
 
+    /**
+     * Null values are set per file (see {@link Configuration#setNullValue}), so files with different
+     * null conventions can be processed at the same time.
+     * @param numberNullValue Value written for null NUMBER fields and read as null, or null for blank fields.
+     */
     public void setNumberNullValue(String numberNullValue) {
-        DbfColumn.DbfColumnType.NUMBER.setNullValue(numberNullValue);
+        configuration.setNullValue(DbfColumn.DbfColumnType.NUMBER, numberNullValue);
     }
 
     public void setDateNullValue(String dateNullValue) {
-        DbfColumn.DbfColumnType.DATE.setNullValue(dateNullValue);
+        configuration.setNullValue(DbfColumn.DbfColumnType.DATE, dateNullValue);
     }
 
     public void setBooleanNullValue(String booleanNullValue) {
-        DbfColumn.DbfColumnType.BOOLEAN.setNullValue(booleanNullValue);
+        configuration.setNullValue(DbfColumn.DbfColumnType.BOOLEAN, booleanNullValue);
     }
 
     public void setStringNullValue(String stringNullValue) {
-        DbfColumn.DbfColumnType.CHARACTER.setNullValue(stringNullValue);
+        configuration.setNullValue(DbfColumn.DbfColumnType.CHARACTER, stringNullValue);
     }
 
     private String checkIfCpgExistsInSameFolder(String filePath) {
@@ -215,16 +240,27 @@ public class DbfFile {
         isForwardOnly = false; // RandomAccessFile can seek TODO check if this is needed
 
         dbfFile = new FileReader(new RandomAccessFile(filePath, fileAccess));
+        DbfMetrics metrics = configuration.getMetrics();
+        dbfFile.setMetrics(metrics);
 
         // read the header
         try {
+            long start = metrics != null ? System.nanoTime() : 0;
             header.read(dbfFile);
             headerWritten = true;
+            if (metrics != null) {
+                metrics.headerRead(System.nanoTime() - start);
+            }
         } catch (EOFException e) {
             // could not read the header because file is empty
             header = new DbfHeader(configuration);
             headerWritten = false;
         }
+
+        // Finish updates that were committed to the journal before a crash.
+        if (headerWritten && !isReadOnly) {
+            DbfJournal.recover(this);
+        }
     }
 
     /**
@@ -233,11 +269,23 @@ public class DbfFile {
      * @throws IOException  if an I/O error occurs.
      */
     public void close() throws IOException {
+        // Commit pending records and remove the journal, the file is complete without it.
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+
         // Try to update the header if it has changed.
         if (header.getIsDirty()) {
             writeHeader();
         }
 
+        // Save statistics once the file is completely written, the sidecar remembers its length.
+        if (statistics != null && statistics.getIsDirty() && dbfFile != null && !isReadOnly) {
+            statistics.save(filePath);
+        }
+        statistics = null;
+
         // Create an empty header.
         header = new DbfHeader(configuration);
         headerWritten = false;
@@ -298,15 +346,21 @@ public class DbfFile {
         }
 
         // read next record...
+        DbfMetrics metrics = configuration.getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
         boolean readSuccess = fillRecord.read(dbfFile);
 
         if (readSuccess) {
+            if (metrics != null) {
+                metrics.recordsRead(1, System.nanoTime() - start);
+            }
+
             if (isForwardOnly) {
                 // zero based index! set before incrementing count.
                 fillRecord.setRecordIndex(recordsReadCount);
                 recordsReadCount++;
             } else {
-                fillRecord.setRecordIndex(((int) ((dbfFile.getFilePointer() - header.headerLength()) / header.getRecordLength())) - 1);
+                fillRecord.setRecordIndex((dbfFile.getFilePointer() - header.headerLength()) / header.getRecordLength() - 1);
             }
         }
 
@@ -331,6 +385,54 @@ public class DbfFile {
         }
     }
 
+    /**
+     * Read as many whole records as fit into the buffer, starting at the current position. This is the fastest way
+     * to scan a file, records are read with one call and can be decoded a column at a time with {@link DbfBatchDecoder}.
+     *
+     * @param buffer Buffer that receives the records, starting at offset 0.
+     * @return Number of records read, 0 at the end of the file.
+     * @exception IllegalStateException If the file reader/writer is null.
+     * @exception IllegalArgumentException If the buffer can not hold a single record.
+     * @throws IOException If an I/O error occurs.
+     */
+    public int readNextBlock(byte[] buffer) throws IOException {
+        if (dbfFile == null) {
+            throw new IllegalStateException("Read stream is null, either you have opened a stream that can not be " +
+                                "read from (a write-only stream) or you have not opened a stream at all.");
+        }
+
+        int recordLength = header.getRecordLength();
+        int maxBytes = (buffer.length / recordLength) * recordLength;
+        if (maxBytes == 0) {
+            throw new IllegalArgumentException("Buffer can not hold a single record.");
+        }
+
+        DbfMetrics metrics = configuration.getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        int bytesRead = 0;
+        while (bytesRead < maxBytes) {
+            int count = dbfFile.read(buffer, bytesRead, maxBytes - bytesRead);
+            if (count < 0) {
+                break;
+            }
+            bytesRead += count;
+        }
+
+        // Do not consume a partial record (end of file marker), so the position stays on a record boundary.
+        int records = bytesRead / recordLength;
+        int partialBytes = bytesRead - records * recordLength;
+        if (partialBytes > 0 && !isForwardOnly) {
+            dbfFile.seek(dbfFile.getFilePointer() - partialBytes);
+        }
+
+        recordsReadCount += records;
+        if (metrics != null && records > 0) {
+            metrics.recordsRead(records, System.nanoTime() - start);
+        }
+        return records;
+    }
+
     /**
      * Reads a record specified by index into fillRecord object. You can use this method
      * to read in and process records without creating and discarding record objects.
@@ -346,7 +448,7 @@ public class DbfFile {
      * @exception IllegalStateException If the DBF reader/writer is null.
      * @exception IllegalStateException If the size of the record does not match the size written in header.
      */
-    public boolean read(int index, DbfRecord fillRecord) throws IOException {
+    public boolean read(long index, DbfRecord fillRecord) throws IOException {
         // check if we can fill this record with data. it must match record size specified by header and number of columns.
         // we are not checking whether it comes from another DBF file or not, we just need the same structure. Allow flexibility but be safe.
         if (fillRecord.getHeader() != header && (fillRecord.getHeader().getColumnCount() != header.getColumnCount() || fillRecord.getHeader().getRecordLength() != header.getRecordLength()))
@@ -360,9 +462,19 @@ public class DbfFile {
                                 "read from (a write-only stream) or you have not opened a stream at all.");
 
 
+        // Records waiting for commit are newer than the ones in the file.
+        DbfMetrics metrics = configuration.getMetrics();
+        if (journal != null && index >= 0 && journal.read(index, fillRecord.getData())) {
+            fillRecord.setRecordIndex(index);
+            if (metrics != null) {
+                metrics.cacheHit();
+            }
+            return true;
+        }
+
         // Move to the specified record, note that an exception will be thrown is stream is not seekable!
         // This is ok, since we provide a function to check whether the stream is seekable.
-        long seekToPosition = header.headerLength() + (index * header.getRecordLength());
+        long seekToPosition = header.headerLength() + index * header.getRecordLength();
 
         // check whether requested record exists. Subtract 1 from file length (there is a terminating character 1A at the end of the file)
         // so if we hit end of file, there are no more records, so return false;
@@ -371,12 +483,16 @@ public class DbfFile {
         }
 
         // move to record and read
+        long start = metrics != null ? System.nanoTime() : 0;
         dbfFile.seek(seekToPosition);
 
         // read the record
         boolean readRecord = fillRecord.read(dbfFile);
         if (readRecord) {
             fillRecord.setRecordIndex(index);
+            if (metrics != null) {
+                metrics.recordsRead(1, System.nanoTime() - start);
+            }
         }
 
         return readRecord;
@@ -391,7 +507,7 @@ public class DbfFile {
      * @throws UnsupportedEncodingException If the encoding is not valid or is not supported.
      * @throws IOException If an I/O error occurs.
      */
-    public DbfRecord read(int index) throws IOException {
+    public DbfRecord read(long index) throws IOException {
         // create a new record and fill it.
         DbfRecord record = new DbfRecord(header);
 
@@ -403,6 +519,163 @@ public class DbfFile {
         }
     }
 
+    /**
+     * Read many records by index, in original order. See {@link #readMany(long[], boolean, DbfRecordHandler)}.
+     *
+     * @param indices Zero based record indices, in any order, duplicates allowed.
+     * @param handler Receives the records.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void readMany(int[] indices, DbfRecordHandler handler) throws IOException {
+        readMany(indices, false, handler);
+    }
+
+    /**
+     * Read many records by index. See {@link #readMany(long[], boolean, DbfRecordHandler)}, which also takes
+     * indices of records past Integer.MAX_VALUE.
+     *
+     * @param indices Zero based record indices, in any order, duplicates allowed.
+     * @param fileOrder true to receive records in the order they are stored in the file,
+     *                  false to receive them in the order of the indices array.
+     * @param handler Receives each record with the position of its index in the indices array.
+     *                Records that do not exist are passed as null.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void readMany(int[] indices, boolean fileOrder, DbfRecordHandler handler) throws IOException {
+        long[] longIndices = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            longIndices[i] = indices[i];
+        }
+        readMany(longIndices, fileOrder, handler);
+    }
+
+    /**
+     * Read many records by index, in original order. See {@link #readMany(long[], boolean, DbfRecordHandler)}.
+     *
+     * @param indices Zero based record indices, in any order, duplicates allowed.
+     * @param handler Receives the records.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void readMany(long[] indices, DbfRecordHandler handler) throws IOException {
+        readMany(indices, false, handler);
+    }
+
+    /**
+     * Read many records by index, much faster than calling read(long, DbfRecord) for each of them.
+     * Indices are sorted, and records that are close to each other are read together in large contiguous reads
+     * (up to the I/O buffer size, reading through gaps of up to READ_MANY_MAX_GAP bytes), so random access
+     * turns into a mostly sequential pass over the file.
+     * <p>
+     * Delivering records in original order keeps all requested records in memory until the pass ends
+     * (indices.length * record length bytes). File order needs no extra memory.
+     * <p>
+     * In journal mode, records waiting in the journal are committed first, so the pass reads their new images
+     * and records appended since the last commit, as read(long, DbfRecord) does.
+     *
+     * @param indices Zero based record indices, in any order, duplicates allowed.
+     * @param fileOrder true to receive records in the order they are stored in the file,
+     *                  false to receive them in the order of the indices array.
+     * @param handler Receives each record with the position of its index in the indices array.
+     *                Records that do not exist are passed as null.
+     * @exception IllegalStateException If the DBF reader/writer is null.
+     * @exception IllegalArgumentException If records in original order do not fit into one array.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void readMany(long[] indices, boolean fileOrder, DbfRecordHandler handler) throws IOException {
+        if (dbfFile == null) {
+            throw new IllegalStateException("DBF reader/writer is null, either you have opened a stream that can not be " +
+                                "read from (a write-only stream) or you have not opened a stream at all.");
+        }
+
+        // The pass reads the file directly, so images waiting in the journal must be in it.
+        commit();
+
+        int recordLength = header.getRecordLength();
+        long recordCount = countRecordsInFile();
+        int maxRunRecords = Math.max(1, configuration.getIoBufferSize() / recordLength);
+        int maxGapRecords = READ_MANY_MAX_GAP / recordLength;
+
+        // Sort (index, position) pairs packed in longs, primitive sort needs no objects. Record indices of existing
+        // records are below 2^32 (see DbfHeader.MAX_RECORD_COUNT) and positions below 2^31, so they fit into 63 bits.
+        // Indices of records that do not exist are marked negative, and sorted first.
+        long[] order = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            order[i] = indices[i] >= 0 && indices[i] < recordCount ? (indices[i] << 31) | i : Long.MIN_VALUE | i;
+        }
+        Arrays.sort(order);
+
+        if (!fileOrder && (long) indices.length * recordLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many records to keep in memory, read them in file order.");
+        }
+
+        DbfMetrics metrics = configuration.getMetrics();
+        DbfRecord record = new DbfRecord(header);
+        byte[] results = fileOrder ? null : new byte[indices.length * recordLength];
+        boolean[] found = fileOrder ? null : new boolean[indices.length];
+        byte[] buffer = new byte[maxRunRecords * recordLength];
+
+        int runStart = 0;
+        while (runStart < order.length) {
+            // Records that do not exist.
+            if (order[runStart] < 0) {
+                if (fileOrder) {
+                    handler.handle((int) (order[runStart] & Integer.MAX_VALUE), null);
+                }
+                runStart++;
+                continue;
+            }
+
+            long first = order[runStart] >> 31;
+
+            // Extend the run while the next index is close enough and fits into the buffer.
+            int runEnd = runStart + 1;
+            long last = first;
+            while (runEnd < order.length) {
+                long next = order[runEnd] >> 31;
+                if (next - last > maxGapRecords + 1 || next - first >= maxRunRecords) {
+                    break;
+                }
+                last = next;
+                runEnd++;
+            }
+
+            long start = metrics != null ? System.nanoTime() : 0;
+            dbfFile.seek(header.headerLength() + first * recordLength);
+            dbfFile.readFully(buffer, 0, (int) (last - first + 1) * recordLength);
+            if (metrics != null) {
+                metrics.recordsRead(runEnd - runStart, System.nanoTime() - start);
+            }
+
+            for (int i = runStart; i < runEnd; i++) {
+                long index = order[i] >> 31;
+                int position = (int) (order[i] & Integer.MAX_VALUE);
+                int offset = (int) (index - first) * recordLength;
+                if (fileOrder) {
+                    System.arraycopy(buffer, offset, record.getData(), 0, recordLength);
+                    record.setRecordIndex(index);
+                    handler.handle(position, record);
+                } else {
+                    System.arraycopy(buffer, offset, results, position * recordLength, recordLength);
+                    found[position] = true;
+                }
+            }
+
+            runStart = runEnd;
+        }
+
+        if (!fileOrder) {
+            for (int i = 0; i < indices.length; i++) {
+                if (found[i]) {
+                    System.arraycopy(results, i * recordLength, record.getData(), 0, recordLength);
+                    record.setRecordIndex(indices[i]);
+                    handler.handle(i, record);
+                } else {
+                    handler.handle(i, null);
+                }
+            }
+        }
+    }
+
     /***
      * @param rowIndex Index of the row.
      * @param columnIndex Index of the column.
@@ -410,14 +683,14 @@ public class DbfFile {
      * @return true if reading was successful, false otherwise
      * @throws IOException If an I/O error occurs.
      */
-    public boolean readValue(int rowIndex, int columnIndex, StringBuilder result) throws IOException {
+    public boolean readValue(long rowIndex, int columnIndex, StringBuilder result) throws IOException {
         result.delete(0, result.length());
 
         DbfColumn column = header.get(columnIndex);
 
         // move to the specified record, note that an exception will be thrown is stream is not seekable!
         // This is ok, since we provide a function to check whether the stream is seekable.
-        long nSeekToPosition = header.headerLength() + (rowIndex * header.getRecordLength()) + column.getDataAddress();
+        long nSeekToPosition = header.headerLength() + rowIndex * header.getRecordLength() + column.getDataAddress();
 
         // check whether requested record exists. Subtract 1 from file length (there is a terminating character 1A at the end of the file)
         // so if we hit end of file, there are no more records, so return false;
@@ -459,18 +732,35 @@ public class DbfFile {
                 /* Calculate number of records in file. Do not rely on header's RecordCount property since client can change that value.
                    Also note that some DBF files do not have ending 0x1A byte, so we subtract 1 and round off,
                    instead of just cast since cast would just drop decimals. */
-                int nNumRecords = (int) Math.round(((double) (dbfFile.length() - header.headerLength() - 1) / header.getRecordLength()));
+                long nNumRecords = Math.round(((double) (dbfFile.length() - header.headerLength() - 1) / header.getRecordLength()));
 
                 if (nNumRecords < 0) {
                     nNumRecords = 0;
                 }
 
+                if (journal != null) {
+                    // New records can still be waiting for commit, and the commit sets the record count.
+                    nNumRecords = Math.max(nNumRecords, journal.getPendingRecordCount());
+                    record.setRecordIndex(nNumRecords);
+                    update(record);
+                    header.setRecordCount(Math.max(header.getRecordCount(), nNumRecords + 1));
+                    return;
+                }
+
                 record.setRecordIndex(nNumRecords);
                 update(record);
                 header.setRecordCount(header.getRecordCount() + 1);
             } else {
                 // we can not position this stream, just write out the new record.
+                DbfMetrics metrics = configuration.getMetrics();
+                long start = metrics != null ? System.nanoTime() : 0;
                 record.write(dbfFile);
+                if (metrics != null) {
+                    metrics.recordsWritten(1, System.nanoTime() - start);
+                }
+                if (statistics != null) {
+                    statistics.add(header.getRecordCount(), record.getData(), 0);
+                }
                 header.setRecordCount(header.getRecordCount() + 1);
             }
         } else {
@@ -542,19 +832,484 @@ public class DbfFile {
 
         // Move to the specified record, note that an exception will be thrown if stream is not seekable!
         // This is ok, since we provide a function to check whether the stream is seekable.
-        long nSeekToPosition = (long) header.headerLength() + ((long) record.getRecordIndex() * (long) header.getRecordLength());
+        long nSeekToPosition = header.headerLength() + record.getRecordIndex() * header.getRecordLength();
 
         //check whether we can seek to this position. Subtract 1 from file length (there is a terminating character 1A at the end of the file)
         //so if we hit end of file, there are no more records, so return false;
-        if (dbfFile.length() < nSeekToPosition) {
+        long endOfRecords = dbfFile.length();
+        if (journal != null) {
+            endOfRecords = Math.max(endOfRecords, header.headerLength() + journal.getPendingRecordCount() * header.getRecordLength());
+        }
+        if (endOfRecords < nSeekToPosition) {
             throw new IndexOutOfBoundsException("Invalid record position. Unable to save record.");
         }
 
+        // In journal mode the record is written to the file when its batch is committed.
+        if (journal != null) {
+            journal.add(record.getRecordIndex(), record.getData());
+            return;
+        }
+
         // move to record start
+        DbfMetrics metrics = configuration.getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
         dbfFile.seek(nSeekToPosition);
 
         // write
         record.write(dbfFile);
+        if (metrics != null) {
+            metrics.recordsWritten(1, System.nanoTime() - start);
+        }
+
+        if (statistics != null) {
+            statistics.add(record.getRecordIndex(), record.getData(), 0);
+        }
+    }
+
+    /**
+     * Enable journal mode: records written by write() and update() are logged to a write-ahead journal in batches,
+     * so updates survive a crash without syncing every record. See {@link DbfJournal} for details.
+     * Define all columns before enabling the journal, the header is written if it was not written yet.
+     * The journal is removed when the file is closed.
+     *
+     * @return Journal of the file, use it to change batch and checkpoint sizes.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception UnsupportedOperationException If the file is read-only.
+     * @throws IOException If the journal file can not be created.
+     */
+    public DbfJournal enableJournal() throws IOException {
+        if (dbfFile == null) {
+            throw new IllegalStateException("File is not opened.");
+        }
+        if (isReadOnly()) {
+            throw new UnsupportedOperationException("Trying to write to a read-only file.");
+        }
+
+        if (journal == null) {
+            if (!headerWritten) {
+                writeHeader();
+            }
+            journal = new DbfJournal(this);
+        }
+        return journal;
+    }
+
+    /**
+     * Commit records waiting in the journal: log them durably and write them to the file.
+     * Does nothing if journal mode is not enabled.
+     *
+     * @throws IOException If an I/O error occurs.
+     */
+    public void commit() throws IOException {
+        if (journal != null) {
+            journal.commit();
+        }
+    }
+
+    /**
+     * Commit records waiting in the journal and empty it. Called by operations that write the file around the journal
+     * (pack, column updates, the concurrent appender): replaying older record images after a crash would otherwise
+     * undo them, and records waiting for commit would be written over their result.
+     * Does nothing if journal mode is not enabled.
+     * @throws IOException If an I/O error occurs.
+     */
+    protected void checkpointJournal() throws IOException {
+        if (journal != null) {
+            journal.commit();
+            journal.checkpoint();
+        }
+    }
+
+    /**
+     * @return Journal of the file, or null if journal mode is not enabled.
+     */
+    public DbfJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Physically remove records flagged as deleted, rewriting the live records contiguously.
+     * The file is packed in place. See {@link #pack(boolean, int[])} for details.
+     *
+     * @return Number of deleted records that were removed.
+     * @throws IOException If an I/O error occurs.
+     */
+    public long pack() throws IOException {
+        return pack(false, null);
+    }
+
+    /**
+     * Physically remove records flagged as deleted (see {@link DbfRecord#setIsDeleted(boolean)}), rewriting the
+     * live records contiguously and updating the record count in the header. Records are moved in large blocks
+     * (see {@link Configuration#getIoBufferSize()}) so the whole operation is one sequential pass over the file.
+     *
+     * When packing in place, live records are shifted towards the start of the file and the file is truncated.
+     * This is the fastest option but a crash in the middle of packing leaves a corrupt file. When useTempFile is true,
+     * live records are written to a temporary file in the same folder which then atomically replaces the original,
+     * so the original file stays intact until packing completes.
+     *
+     * After packing the file is positioned at the first record. Record indexes held by the client are no longer valid,
+     * use indexMap to translate them. Column statistics, if used, are rebuilt for the new layout.
+     *
+     * @param useTempFile True to pack into a temporary file and rename it over the original, false to pack in place.
+     * @param indexMap Optional (can be null) array that receives the old to new record index mapping: indexMap[oldIndex]
+     *                 is set to the new index of the record or -1 if the record was removed. Must be large
+     *                 enough to hold all records in the file. A Java array holds at most Integer.MAX_VALUE elements
+     *                 (so new indexes always fit into an int), files with more records must be packed without an index map.
+     * @return Number of deleted records that were removed.
+     * @exception UnsupportedOperationException If the file is read-only.
+     * @exception IllegalStateException If the file is not opened or the header was never written.
+     * @exception IllegalArgumentException If indexMap is too small to hold all records.
+     * @throws IOException If an I/O error occurs.
+     */
+    public long pack(boolean useTempFile, int[] indexMap) throws IOException {
+        if (isReadOnly()) {
+            throw new UnsupportedOperationException("Trying to write to a read-only file.");
+        }
+
+        if (dbfFile == null || !headerWritten) {
+            throw new IllegalStateException("File is not opened or has no header, there is nothing to pack.");
+        }
+
+        // Records move, so committed images in the journal would be replayed at their old indexes.
+        checkpointJournal();
+
+        int recordLength = header.getRecordLength();
+        long headerLength = header.headerLength();
+
+        long recordCount = countRecordsInFile();
+
+        if (indexMap != null && indexMap.length < recordCount) {
+            throw new IllegalArgumentException("Index map can hold " + indexMap.length + " records, but the file has "
+                    + recordCount + " records.");
+        }
+
+        // Buffer holds a whole number of records.
+        int recordsPerBlock = Math.max(1, configuration.getIoBufferSize() / recordLength);
+        byte[] buffer = new byte[recordsPerBlock * recordLength];
+
+        FileReader target = dbfFile;
+        File tempFile = null;
+        if (useTempFile) {
+            File originalFile = new File(filePath).getAbsoluteFile();
+            tempFile = File.createTempFile(originalFile.getName(), ".pack", originalFile.getParentFile());
+            target = new FileReader(new RandomAccessFile(tempFile, "rw"));
+            target.setMetrics(configuration.getMetrics());
+
+            // Copy the header as is, record count is updated once packing is done.
+            target.write(readRawHeader());
+        }
+
+        DbfMetrics metrics = configuration.getMetrics();
+        long liveCount = 0;
+        try {
+            long readPosition = headerLength;
+            long writePosition = headerLength;
+            long oldIndex = 0;
+
+            while (oldIndex < recordCount) {
+                int blockRecords = (int) Math.min(recordsPerBlock, recordCount - oldIndex);
+                int blockBytes = blockRecords * recordLength;
+
+                long start = metrics != null ? System.nanoTime() : 0;
+                dbfFile.seek(readPosition);
+                dbfFile.readFully(buffer, 0, blockBytes);
+                readPosition += blockBytes;
+                if (metrics != null) {
+                    metrics.recordsRead(blockRecords, System.nanoTime() - start);
+                }
+
+                // Compact live records to the start of the buffer.
+                int liveBytes = 0;
+                for (int offset = 0; offset < blockBytes; offset += recordLength, oldIndex++) {
+                    if (buffer[offset] == '*') {
+                        if (indexMap != null) {
+                            indexMap[(int) oldIndex] = -1;
+                        }
+                        continue;
+                    }
+
+                    if (indexMap != null) {
+                        indexMap[(int) oldIndex] = (int) liveCount;
+                    }
+                    if (liveBytes != offset) {
+                        System.arraycopy(buffer, offset, buffer, liveBytes, recordLength);
+                    }
+                    liveBytes += recordLength;
+                    liveCount++;
+                }
+
+                // Write position never passes read position, so packing in place does not overwrite unread records.
+                if (liveBytes > 0) {
+                    start = metrics != null ? System.nanoTime() : 0;
+                    target.seek(writePosition);
+                    target.write(buffer, 0, liveBytes);
+                    writePosition += liveBytes;
+                    if (metrics != null) {
+                        metrics.recordsWritten(liveBytes / recordLength, System.nanoTime() - start);
+                    }
+                }
+            }
+
+            // End of file marker.
+            target.seek(writePosition);
+            target.write(0x1A);
+            target.setLength(writePosition + 1);
+
+            header.setRecordCount(liveCount);
+            header.writeRecordCount(target);
+        } catch (IOException e) {
+            if (tempFile != null) {
+                target.close();
+                tempFile.delete();
+            }
+            throw e;
+        }
+
+        if (tempFile != null) {
+            target.close();
+            dbfFile.close();
+            dbfFile = null;
+            boolean moved = false;
+            try {
+                try {
+                    Files.move(tempFile.toPath(), Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile.toPath(), Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING);
+                }
+                moved = true;
+            } finally {
+                // If the move failed, the original file is unchanged and stays opened.
+                if (!moved) {
+                    tempFile.delete();
+                    header.setRecordCount(recordCount);
+                }
+
+                // Header layout did not change, so there is no need to read it again.
+                dbfFile = new FileReader(new RandomAccessFile(filePath, fileAccess));
+                dbfFile.setMetrics(configuration.getMetrics());
+            }
+        }
+
+        // Records moved to other blocks, so statistics of the old layout would prune the wrong blocks.
+        if (statistics != null) {
+            statistics = DbfStatistics.build(this, statistics.getBlockSize());
+            statistics.save(filePath);
+        }
+
+        dbfFile.seek(headerLength);
+        recordsReadCount = 0;
+
+        return recordCount - liveCount;
+    }
+
+    /**
+     * Write all records of this file into a new file with a different set of columns. Use this method to add, remove,
+     * reorder or resize columns of an existing file, since the header of an opened file can not be modified.
+     * See {@link DbfSchemaMigration} for details on how columns are matched.
+     *
+     * @param targetColumns Columns of the new file, in order. Columns are matched to columns of this file by name.
+     * @param targetFilePath Path of the new file. If the file exists, it is overwritten. It can not be this file.
+     * @return Number of records written.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception IllegalArgumentException If the target file is this file.
+     * @throws IOException If an I/O error occurs.
+     * @throws DbfDataTruncateException If a narrowed numeric column holds a value that does not fit.
+     */
+    public long migrateSchema(List<DbfColumn> targetColumns, String targetFilePath) throws IOException, DbfDataTruncateException {
+        if (dbfFile == null) {
+            throw new IllegalStateException("File is not opened.");
+        }
+
+        return new DbfSchemaMigration(header, targetColumns).migrate(this, targetFilePath);
+    }
+
+    /**
+     * Set a numeric column (NUMBER, FLOAT or INTEGER) of consecutive records from an array, writing only
+     * the bytes of the column. Much faster than update() for each record, see {@link DbfColumnUpdate}.
+     *
+     * @param columnIndex Index of the column.
+     * @param firstRecord Index of the record that gets values[0].
+     * @param values New values, NaN for a blank (missing) value. Values are rounded half up to the decimal count of the column.
+     * @return Number of updated records.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception UnsupportedOperationException If the file is read-only.
+     * @exception IllegalArgumentException If the column is not numeric, the records are not all in the file,
+     *                                     or a value for an INTEGER column is not an integer.
+     * @throws DbfDataTruncateException If a value does not fit into the column. Records before it are updated.
+     * @throws IOException If an I/O error occurs.
+     */
+    public long updateColumn(int columnIndex, long firstRecord, double[] values) throws IOException, DbfDataTruncateException {
+        return new DbfColumnUpdate.FromArray(this, columnIndex, firstRecord, values).run(firstRecord, values.length);
+    }
+
+    /**
+     * Set a column of all records to values computed by a function, writing only the bytes of the column.
+     * Much faster than update() for each record, see {@link DbfColumnUpdate}.
+     *
+     * @param columnIndex Index of the column.
+     * @param function Computes the new value from the current record. Values are set with the rules of
+     *                 {@link DbfRecord#set(int, String)}.
+     * @return Number of updated records.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception UnsupportedOperationException If the file is read-only.
+     * @throws DbfDataTruncateException If a value does not fit into the column. Records before it are updated.
+     * @throws IOException If an I/O error occurs.
+     */
+    public long updateColumn(int columnIndex, DbfValueFunction function) throws IOException, DbfDataTruncateException {
+        if (dbfFile == null) {
+            throw new IllegalStateException("File is not opened.");
+        }
+
+        return new DbfColumnUpdate.FromFunction(this, columnIndex, function).run(0, countRecordsInFile());
+    }
+
+    /**
+     * Write all records of this file, sorted ascending by the given columns, into a new file.
+     * Files larger than memory are sorted on disk, see {@link DbfSorter} for details and more options.
+     *
+     * @param targetFilePath Path of the sorted file. If the file exists, it is overwritten.
+     * @param columnNames Key column names, most significant first.
+     * @return Number of records written.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception IllegalArgumentException If a column does not exist.
+     * @throws IOException If an I/O error occurs.
+     */
+    public long sort(String targetFilePath, String... columnNames) throws IOException {
+        if (dbfFile == null) {
+            throw new IllegalStateException("File is not opened.");
+        }
+
+        return new DbfSorter(new DbfRecordComparator(header, columnNames)).sort(this, targetFilePath);
+    }
+
+    /**
+     * Split this file into files of recordsPerFile records. Record data is copied by the kernel, records are not
+     * decoded. See {@link DbfTransfer} for details, and for concatenating files.
+     *
+     * @param recordsPerFile Number of records of each new file, the last file gets the rest.
+     * @param targetFilePathFormat Format of the paths of the new files, with the zero based number of the file
+     *                             as the only argument, e.g. "tracts_%03d.dbf". Existing files are overwritten.
+     * @return Paths of the new files, in order.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception IllegalArgumentException If the number of records is not positive.
+     * @throws IOException If an I/O error occurs.
+     */
+    public List<String> split(long recordsPerFile, String targetFilePathFormat) throws IOException {
+        return DbfTransfer.split(this, recordsPerFile, targetFilePathFormat);
+    }
+
+    /**
+     * Start a scan of all records that reads blocks ahead on a background thread, overlapping reading with decoding.
+     * See {@link DbfPrefetchReader}.
+     *
+     * @return Reader positioned before the first record. It must be closed.
+     * @exception IllegalStateException If the file is not opened.
+     * @throws IOException If the file can not be opened for reading.
+     */
+    public DbfPrefetchReader prefetch() throws IOException {
+        return new DbfPrefetchReader(this);
+    }
+
+    /**
+     * Start a scan of all records with direct I/O, which does not go through the page cache.
+     * See {@link DbfDirectReader}.
+     *
+     * @return Reader positioned before the first record. It must be closed.
+     * @exception IllegalStateException If the file is not opened.
+     * @throws IOException If the file can not be opened for reading.
+     */
+    public DbfDirectReader scanDirect() throws IOException {
+        return new DbfDirectReader(this);
+    }
+
+    /**
+     * Compute column statistics in one scan of the file and save them to the sidecar file
+     * (see {@link DbfStatistics}). Statistics are then maintained by write() and update() methods,
+     * and saved again when the file is closed.
+     *
+     * @param blockSize Number of records in a zone map block, see {@link DbfStatistics#DEFAULT_BLOCK_SIZE}.
+     * @return Statistics of the file.
+     * @exception IllegalStateException If the file is not opened.
+     * @throws IOException If an I/O error occurs.
+     */
+    public DbfStatistics buildStatistics(int blockSize) throws IOException {
+        statistics = DbfStatistics.build(this, blockSize);
+        if (!isReadOnly) {
+            statistics.save(filePath);
+        }
+        return statistics;
+    }
+
+    /**
+     * Load column statistics from the sidecar file. Loaded statistics are maintained by write() and update() methods,
+     * and saved again when the file is closed.
+     *
+     * @return Statistics of the file, or null if there is no sidecar file or it is stale.
+     * @exception IllegalStateException If the file is not opened.
+     * @throws IOException If an I/O error occurs.
+     */
+    public DbfStatistics loadStatistics() throws IOException {
+        if (dbfFile == null) {
+            throw new IllegalStateException("File is not opened.");
+        }
+
+        statistics = DbfStatistics.load(filePath, header);
+        return statistics;
+    }
+
+    /**
+     * @return Column statistics that are maintained for this file, or null if statistics are not used.
+     */
+    public DbfStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Report I/O and decode measurements of this file (and records created with its header) to the given metrics.
+     * Metrics are disabled by default, see {@link DbfMetrics}.
+     *
+     * @param metrics Receives measurements, null to disable metrics.
+     */
+    public void setMetrics(DbfMetrics metrics) {
+        configuration.setMetrics(metrics);
+        if (dbfFile != null) {
+            dbfFile.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * @return Metrics that receive measurements of this file, or null if metrics are disabled.
+     */
+    public DbfMetrics getMetrics() {
+        return configuration.getMetrics();
+    }
+
+    /**
+     * Read the header exactly as it is stored in the file. Use this to copy the header to a new file
+     * without losing information that DbfHeader does not keep (language driver, reserved bytes).
+     * The file pointer is left at the first record.
+     *
+     * @return Header bytes.
+     * @throws IOException If an I/O error occurs.
+     */
+    protected byte[] readRawHeader() throws IOException {
+        byte[] headerBytes = new byte[header.headerLength()];
+        dbfFile.seek(0);
+        dbfFile.readFully(headerBytes, 0, headerBytes.length);
+        return headerBytes;
+    }
+
+    /**
+     * Count whole records physically present in the file. Unlike the record count in the header, this can not be
+     * stale. Trailing 0x1A byte (if any) does not make up a whole record so it is ignored.
+     *
+     * @return Number of whole records in the file.
+     * @throws IOException If an I/O error occurs.
+     */
+    protected long countRecordsInFile() throws IOException {
+        long recordCount = (dbfFile.length() - header.headerLength()) / header.getRecordLength();
+        return recordCount < 0 ? 0 : recordCount;
     }
 
     /**
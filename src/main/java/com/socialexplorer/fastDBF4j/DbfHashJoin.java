@@ -0,0 +1,830 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.util.ByteUtils;
+import com.socialexplorer.fastDBF4j.util.Configuration;
+import com.socialexplorer.fastDBF4j.util.FileReader;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Inner join of two DBF files on key columns (hash join), written into a new DBF file.
+ *
+ * Joined records hold all columns of the left file followed by the columns of the right file, except the right
+ * key columns (they are equal to the left key columns). Column names must be unique across both files.
+ *
+ * The hash table is built from the smaller file, on raw bytes of its key columns, and the larger file is streamed
+ * to probe it. Probing is split into record ranges processed on a thread pool. If the build side does not fit into
+ * the memory budget, both files are first partitioned by key hash into temporary files, and matching partitions
+ * are joined in memory one by one (grace hash join), several partitions at a time on the thread pool.
+ *
+ * A partition that still does not fit is partitioned again with another hash. If that does not split it either
+ * (a key shared by many records), it is joined in chunks of build records, probing the partition once per chunk.
+ *
+ * Key columns are matched pairwise and must have the same type (and decimal count for numbers), but can have
+ * different lengths: character keys are compared left aligned, numeric keys right aligned, padded with blanks.
+ * Records flagged as deleted are skipped. As in SQL, records with a blank or null key column match nothing,
+ * unless {@link #setMatchNullKeys(boolean)} is set.
+ */
+public class DbfHashJoin {
+    /**
+     * Default amount of memory used for hash tables: 256 MB.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+    /**
+     * Estimated bookkeeping bytes per build row (hash, chain links, hash table slots).
+     */
+    private static final int ROW_OVERHEAD = 28;
+
+    /**
+     * Largest array the hash table allocates.
+     */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Maximum number of times a partition is partitioned again before it is joined in chunks.
+     */
+    private static final int MAX_PARTITION_LEVEL = 4;
+
+    /**
+     * Maximum number of partitions a file is split into at once.
+     */
+    private static final int MAX_PARTITION_COUNT = 4096;
+
+    private final DbfFile left;
+    private final DbfFile right;
+    private final DbfHeader joinedHeader;
+
+    /**
+     * Key column offsets and lengths of each side, and width of each key column after normalization.
+     */
+    private final int[] leftKeyAddresses;
+    private final int[] leftKeyLengths;
+    private final int[] rightKeyAddresses;
+    private final int[] rightKeyLengths;
+    private final int[] keyWidths;
+    private final boolean[] keyRightAligned;
+    private final DbfColumn.DbfColumnType[] keyTypes;
+    private final byte[][] leftKeyNullValues;
+    private final byte[][] rightKeyNullValues;
+    private final int keyWidth;
+
+    /**
+     * Right columns that are copied to joined records (all but key columns).
+     */
+    private final int[] rightPayloadAddresses;
+    private final int[] rightPayloadLengths;
+
+    /**
+     * Number of bytes each side contributes to a joined record.
+     */
+    private final int leftWidth;
+    private final int rightWidth;
+
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private File tempDirectory = null;
+    private boolean matchNullKeys = false;
+
+    /**
+     * @param left Opened left file.
+     * @param leftKeyColumns Key column names of the left file.
+     * @param right Opened right file.
+     * @param rightKeyColumns Key column names of the right file, matched pairwise with left key columns.
+     * @exception IllegalArgumentException If key columns do not exist or do not match, column names are not unique
+     *                                     or files use different encodings.
+     */
+    public DbfHashJoin(DbfFile left, String[] leftKeyColumns, DbfFile right, String[] rightKeyColumns) {
+        if (leftKeyColumns.length == 0 || leftKeyColumns.length != rightKeyColumns.length) {
+            throw new IllegalArgumentException("Both files must have the same number of key columns, at least one.");
+        }
+
+        DbfHeader leftHeader = left.getHeader();
+        DbfHeader rightHeader = right.getHeader();
+        String encodingName = leftHeader.getConfiguration().getEncodingName();
+        if (!encodingName.equals(rightHeader.getConfiguration().getEncodingName())) {
+            throw new IllegalArgumentException("Files use different encodings and can not be joined.");
+        }
+
+        this.left = left;
+        this.right = right;
+
+        int count = leftKeyColumns.length;
+        leftKeyAddresses = new int[count];
+        leftKeyLengths = new int[count];
+        rightKeyAddresses = new int[count];
+        rightKeyLengths = new int[count];
+        keyWidths = new int[count];
+        keyRightAligned = new boolean[count];
+        keyTypes = new DbfColumn.DbfColumnType[count];
+        leftKeyNullValues = new byte[count][];
+        rightKeyNullValues = new byte[count][];
+
+        int width = 0;
+        boolean[] isRightKey = new boolean[rightHeader.getColumnCount()];
+        for (int i = 0; i < count; i++) {
+            DbfColumn leftColumn = getColumn(leftHeader, leftKeyColumns[i]);
+            DbfColumn rightColumn = getColumn(rightHeader, rightKeyColumns[i]);
+
+            if (leftColumn.getColumnType() != rightColumn.getColumnType() || leftColumn.getDecimalCount() != rightColumn.getDecimalCount()) {
+                throw new IllegalArgumentException("Key columns '" + leftColumn.getName() + "' and '" + rightColumn.getName()
+                        + "' have different types or decimal counts.");
+            }
+
+            leftKeyAddresses[i] = leftColumn.getDataAddress();
+            leftKeyLengths[i] = leftColumn.getLength();
+            rightKeyAddresses[i] = rightColumn.getDataAddress();
+            rightKeyLengths[i] = rightColumn.getLength();
+            keyWidths[i] = Math.max(leftColumn.getLength(), rightColumn.getLength());
+            keyRightAligned[i] = leftColumn.getColumnType() == DbfColumn.DbfColumnType.NUMBER
+                    || leftColumn.getColumnType() == DbfColumn.DbfColumnType.FLOAT;
+            keyTypes[i] = leftColumn.getColumnType();
+            leftKeyNullValues[i] = getNullValue(leftHeader, leftColumn);
+            rightKeyNullValues[i] = getNullValue(rightHeader, rightColumn);
+            width += keyWidths[i];
+            isRightKey[rightHeader.findColumn(rightColumn.getName())] = true;
+        }
+        keyWidth = width;
+
+        Configuration configuration = new Configuration();
+        configuration.setEncodingName(encodingName);
+        configuration.setShouldTryToSetEncodingFromLanguageDriver(false);
+        configuration.setIoBufferSize(leftHeader.getConfiguration().getIoBufferSize());
+        configuration.setNullValues(leftHeader.getConfiguration());
+        joinedHeader = new DbfHeader(configuration);
+
+        // Keep the code page of the left file, so the joined file is read with the same encoding.
+        joinedHeader.setLanguageDriverId(leftHeader.getLanguageDriverId());
+
+        for (int i = 0; i < leftHeader.getColumnCount(); i++) {
+            addColumn(leftHeader.get(i));
+        }
+
+        List<DbfColumn> payload = new ArrayList<DbfColumn>();
+        for (int i = 0; i < rightHeader.getColumnCount(); i++) {
+            if (!isRightKey[i]) {
+                payload.add(rightHeader.get(i));
+                addColumn(rightHeader.get(i));
+            }
+        }
+
+        rightPayloadAddresses = new int[payload.size()];
+        rightPayloadLengths = new int[payload.size()];
+        int payloadWidth = 0;
+        for (int i = 0; i < payload.size(); i++) {
+            rightPayloadAddresses[i] = payload.get(i).getDataAddress();
+            rightPayloadLengths[i] = payload.get(i).getLength();
+            payloadWidth += payload.get(i).getLength();
+        }
+
+        leftWidth = leftHeader.getRecordLength() - 1;
+        rightWidth = payloadWidth;
+    }
+
+    private static DbfColumn getColumn(DbfHeader header, String columnName) {
+        DbfColumn column = header.getColumn(columnName);
+        if (column == null) {
+            throw new IllegalArgumentException("Column '" + columnName + "' does not exist.");
+        }
+        return column;
+    }
+
+    private static byte[] getNullValue(DbfHeader header, DbfColumn column) {
+        if (column.getColumnType() == DbfColumn.DbfColumnType.INTEGER || column.getColumnType().isVisualFoxPro()) {
+            return null;
+        }
+        try {
+            return header.getConfiguration().getNullValueBytes(column.getColumnType());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void addColumn(DbfColumn column) {
+        if (joinedHeader.findColumn(column.getName()) > -1) {
+            throw new IllegalArgumentException("Column '" + column.getName() + "' exists in both files. " +
+                    "Column names must be unique across both files.");
+        }
+        joinedHeader.addColumn(new DbfColumn(column.getName(), column.getColumnType(), column.getLength(), column.getDecimalCount()));
+    }
+
+    /**
+     * @return Header of the joined file.
+     */
+    public DbfHeader getJoinedHeader() {
+        return joinedHeader;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @param memoryBudget Memory used for hash tables, in bytes.
+     * @exception IllegalArgumentException If the memory budget is not positive.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive.");
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of threads used for probing.
+     * @exception IllegalArgumentException If the thread count is not positive.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive.");
+        }
+        this.threadCount = threadCount;
+    }
+
+    public File getTempDirectory() {
+        return tempDirectory;
+    }
+
+    /**
+     * @param tempDirectory Folder for temporary files, or null to use the folder of the target file.
+     */
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    public boolean getMatchNullKeys() {
+        return matchNullKeys;
+    }
+
+    /**
+     * @param matchNullKeys true to match records whose key columns are blank or hold the null value of their type
+     *                      with each other, like all other equal keys. By default such records match nothing.
+     */
+    public void setMatchNullKeys(boolean matchNullKeys) {
+        this.matchNullKeys = matchNullKeys;
+    }
+
+    /**
+     * Join the files and write the joined records into the target file. If the target file exists, it is overwritten.
+     * Both files are read through separate file handles, so their positions do not change.
+     *
+     * @param targetFilePath Path of the joined file.
+     * @return Number of joined records written.
+     * @exception IllegalStateException If either file is not opened.
+     * @throws IOException If an I/O error occurs or joining is interrupted.
+     */
+    public long join(String targetFilePath) throws IOException {
+        if (left.dbfFile == null || right.dbfFile == null) {
+            throw new IllegalStateException("Both files must be opened.");
+        }
+
+        File targetFile = new File(targetFilePath).getAbsoluteFile();
+        File workDirectory = tempDirectory != null ? tempDirectory : targetFile.getParentFile();
+
+        long leftCount = left.countRecordsInFile();
+        long rightCount = right.countRecordsInFile();
+
+        // Build from the side that takes less memory.
+        final boolean buildIsLeft = leftCount * (keyWidth + leftWidth) < rightCount * (keyWidth + rightWidth);
+        DbfFile build = buildIsLeft ? left : right;
+        DbfFile probe = buildIsLeft ? right : left;
+        long buildCount = buildIsLeft ? leftCount : rightCount;
+        long probeCount = buildIsLeft ? rightCount : leftCount;
+        long buildBytes = buildCount * (keyWidth + (buildIsLeft ? leftWidth : rightWidth) + ROW_OVERHEAD);
+
+        final List<File> temporaryFiles = new ArrayList<File>();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            final List<File> segments = new ArrayList<File>();
+
+            if (buildBytes <= memoryBudget && buildBytes <= MAX_ARRAY_SIZE) {
+                // Build once, probe ranges of the probe file in parallel.
+                final BuildTable table = buildTable(RecordRange.of(build), buildIsLeft);
+                long rangeSize = Math.max(1, (probeCount + threadCount - 1) / threadCount);
+                for (long start = 0; start < probeCount; start += rangeSize) {
+                    final RecordRange range = RecordRange.of(probe, start, Math.min(rangeSize, probeCount - start));
+                    final File segment = createTempFile(workDirectory, ".join", temporaryFiles);
+                    segments.add(segment);
+                    futures.add(executor.submit(new Callable<Long>() {
+                        public Long call() throws IOException {
+                            OutputStream output = openSegment(segment);
+                            try {
+                                return probeTable(table, range, !buildIsLeft, output);
+                            } finally {
+                                output.close();
+                            }
+                        }
+                    }));
+                }
+            } else {
+                // Grace hash join: partition both sides by key hash, so each build partition fits into memory.
+                // Several partitions are joined at the same time, so they split the memory budget.
+                int partitionCount = partitionCount(buildBytes);
+                final List<File> buildPartitions = partition(RecordRange.of(build), buildIsLeft, partitionCount, 0, workDirectory, temporaryFiles);
+                final List<File> probePartitions = partition(RecordRange.of(probe), !buildIsLeft, partitionCount, 0, workDirectory, temporaryFiles);
+                final File partitionDirectory = workDirectory;
+
+                for (int i = 0; i < partitionCount; i++) {
+                    final File buildPartition = buildPartitions.get(i);
+                    final File probePartition = probePartitions.get(i);
+                    final File segment = createTempFile(workDirectory, ".join", temporaryFiles);
+                    segments.add(segment);
+                    futures.add(executor.submit(new Callable<Long>() {
+                        public Long call() throws IOException {
+                            OutputStream output = openSegment(segment);
+                            try {
+                                return joinPartition(buildPartition, probePartition, buildIsLeft, 1, partitionDirectory, output);
+                            } finally {
+                                output.close();
+                            }
+                        }
+                    }));
+                }
+            }
+
+            long joinedCount = 0;
+            for (Future<Long> future : futures) {
+                joinedCount += future.get();
+            }
+
+            writeTarget(targetFile, segments, joinedCount);
+            return joinedCount;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Join was interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            for (File file : temporaryFiles) {
+                file.delete();
+            }
+        }
+    }
+
+    private static File createTempFile(File directory, String suffix, List<File> temporaryFiles) throws IOException {
+        File file = File.createTempFile("dbfjoin", suffix, directory);
+        temporaryFiles.add(file);
+        return file;
+    }
+
+    private OutputStream openSegment(File segment) throws IOException {
+        int bufferSize = Math.max(left.getHeader().getConfiguration().getIoBufferSize(), joinedHeader.getRecordLength());
+        return new BufferedOutputStream(new FileOutputStream(segment), bufferSize);
+    }
+
+    private int getRecordLength(boolean isLeft) {
+        return (isLeft ? left : right).getHeader().getRecordLength();
+    }
+
+    /**
+     * @return Estimated memory taken by a build row in the hash table.
+     */
+    private long getRowBytes(boolean isLeft) {
+        return keyWidth + (isLeft ? leftWidth : rightWidth) + ROW_OVERHEAD;
+    }
+
+    /**
+     * @return Memory a hash table of one partition may take. Several partitions are joined at the same time,
+     *         so they split the memory budget.
+     */
+    private long getPartitionBudget() {
+        return Math.min(MAX_ARRAY_SIZE, Math.max(1, memoryBudget / threadCount));
+    }
+
+    /**
+     * @return Number of partitions that build rows of the given size are split into, so each partition fits.
+     */
+    private int partitionCount(long buildBytes) {
+        return (int) Math.min(MAX_PARTITION_COUNT, Math.max(2, buildBytes / getPartitionBudget() + 1));
+    }
+
+    /**
+     * Join a build partition with its probe partition. A build partition that does not fit into its share
+     * of the memory budget is partitioned again with the hash of the next level. If that does not make it smaller,
+     * because its keys are equal or have equal hashes, it is joined in chunks of build rows that fit, and the probe
+     * partition is read once per chunk.
+     *
+     * @return Number of joined records written.
+     */
+    private long joinPartition(File buildPartition, File probePartition, boolean buildIsLeft, int level,
+                               File workDirectory, OutputStream output) throws IOException {
+        int buildRecordLength = getRecordLength(buildIsLeft);
+        int probeRecordLength = getRecordLength(!buildIsLeft);
+        long buildCount = buildPartition.length() / buildRecordLength;
+        long rowBytes = getRowBytes(buildIsLeft);
+        long budget = getPartitionBudget();
+
+        if (buildCount * rowBytes <= budget) {
+            BuildTable table = buildTable(RecordRange.of(buildPartition, buildRecordLength), buildIsLeft);
+            return probeTable(table, RecordRange.of(probePartition, probeRecordLength), !buildIsLeft, output);
+        }
+
+        if (level <= MAX_PARTITION_LEVEL) {
+            List<File> partitionFiles = new ArrayList<File>();
+            try {
+                int partitionCount = partitionCount(buildCount * rowBytes);
+                List<File> buildPartitions = partition(RecordRange.of(buildPartition, buildRecordLength), buildIsLeft,
+                        partitionCount, level, workDirectory, partitionFiles);
+
+                long largest = 0;
+                for (File partition : buildPartitions) {
+                    largest = Math.max(largest, partition.length() / buildRecordLength);
+                }
+
+                if (largest < buildCount) {
+                    List<File> probePartitions = partition(RecordRange.of(probePartition, probeRecordLength), !buildIsLeft,
+                            partitionCount, level, workDirectory, partitionFiles);
+
+                    long joinedCount = 0;
+                    for (int i = 0; i < partitionCount; i++) {
+                        joinedCount += joinPartition(buildPartitions.get(i), probePartitions.get(i), buildIsLeft, level + 1, workDirectory, output);
+                    }
+                    return joinedCount;
+                }
+            } finally {
+                for (File file : partitionFiles) {
+                    file.delete();
+                }
+            }
+        }
+
+        long chunkSize = Math.max(1, budget / rowBytes);
+        long joinedCount = 0;
+        for (long first = 0; first < buildCount; first += chunkSize) {
+            RecordRange chunk = new RecordRange(buildPartition.getPath(), first * buildRecordLength, Math.min(chunkSize, buildCount - first));
+            BuildTable table = buildTable(chunk, buildIsLeft);
+            joinedCount += probeTable(table, RecordRange.of(probePartition, probeRecordLength), !buildIsLeft, output);
+        }
+        return joinedCount;
+    }
+
+    /**
+     * Write header, joined record segments in order and end of file marker into the target file.
+     */
+    private void writeTarget(File targetFile, List<File> segments, long recordCount) throws IOException {
+        FileReader writer = new FileReader(new RandomAccessFile(targetFile, "rw"));
+        try {
+            writer.setLength(0);
+            joinedHeader.setRecordCount(recordCount);
+            joinedHeader.write(writer);
+
+            FileChannel target = writer.getChannel();
+            for (File segment : segments) {
+                FileInputStream input = new FileInputStream(segment);
+                try {
+                    FileChannel source = input.getChannel();
+                    long size = source.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += source.transferTo(position, size - position, target);
+                    }
+                } finally {
+                    input.close();
+                }
+            }
+
+            // End of file marker.
+            writer.seek(writer.length());
+            writer.write(0x1A);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Split records into partition files by the key hash of the given level. Partition files hold raw records.
+     * Records whose keys can not match are left out.
+     */
+    private List<File> partition(RecordRange range, boolean isLeft, int partitionCount, int level, File workDirectory,
+                                 List<File> temporaryFiles) throws IOException {
+        int recordLength = getRecordLength(isLeft);
+        int ioBufferSize = left.getHeader().getConfiguration().getIoBufferSize();
+        int bufferSize = (int) Math.max(recordLength, Math.min(ioBufferSize, getPartitionBudget() / partitionCount));
+
+        List<File> partitions = new ArrayList<File>(partitionCount);
+        OutputStream[] outputs = new OutputStream[partitionCount];
+        DbfBlockReader reader = range.open(recordLength, ioBufferSize);
+        try {
+            for (int i = 0; i < partitionCount; i++) {
+                File partition = createTempFile(workDirectory, ".part", temporaryFiles);
+                partitions.add(partition);
+                outputs[i] = new BufferedOutputStream(new FileOutputStream(partition), bufferSize);
+            }
+
+            byte[] key = new byte[keyWidth];
+            int records;
+            while ((records = reader.next()) > 0) {
+                byte[] buffer = reader.getBuffer();
+                for (int offset = 0; offset < records * recordLength; offset += recordLength) {
+                    if (buffer[offset] == '*' || isNullKey(buffer, offset, isLeft)) {
+                        continue;
+                    }
+
+                    extractKey(buffer, offset, isLeft, key);
+                    int partition = (int) ((partitionHash(key, level) & 0xffffffffL) % partitionCount);
+                    outputs[partition].write(buffer, offset, recordLength);
+                }
+            }
+        } finally {
+            reader.close();
+            for (OutputStream output : outputs) {
+                if (output != null) {
+                    output.close();
+                }
+            }
+        }
+
+        return partitions;
+    }
+
+    /**
+     * Load build side records into a hash table.
+     */
+    private BuildTable buildTable(RecordRange range, boolean isLeft) throws IOException {
+        int recordLength = getRecordLength(isLeft);
+        BuildTable table = new BuildTable((int) range.count, isLeft ? leftWidth : rightWidth);
+
+        DbfBlockReader reader = range.open(recordLength, left.getHeader().getConfiguration().getIoBufferSize());
+        try {
+            byte[] key = new byte[keyWidth];
+            int records;
+            while ((records = reader.next()) > 0) {
+                byte[] buffer = reader.getBuffer();
+                for (int offset = 0; offset < records * recordLength; offset += recordLength) {
+                    if (buffer[offset] == '*' || isNullKey(buffer, offset, isLeft)) {
+                        continue;
+                    }
+
+                    extractKey(buffer, offset, isLeft, key);
+                    int row = table.add(key);
+                    copySide(buffer, offset, isLeft, table.rows, row * table.rowWidth);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return table;
+    }
+
+    /**
+     * Stream probe side records, look them up in the hash table and write joined records to the output.
+     * @return Number of joined records written.
+     */
+    private long probeTable(BuildTable table, RecordRange range, boolean isLeft, OutputStream output) throws IOException {
+        int recordLength = getRecordLength(isLeft);
+        int joinedLength = joinedHeader.getRecordLength();
+        byte[] joined = new byte[joinedLength];
+        joined[0] = ' ';
+        int probeStart = isLeft ? 1 : 1 + leftWidth;
+        int buildStart = isLeft ? 1 + leftWidth : 1;
+
+        long joinedCount = 0;
+        DbfBlockReader reader = range.open(recordLength, left.getHeader().getConfiguration().getIoBufferSize());
+        try {
+            byte[] key = new byte[keyWidth];
+            int records;
+            while ((records = reader.next()) > 0) {
+                byte[] buffer = reader.getBuffer();
+                for (int offset = 0; offset < records * recordLength; offset += recordLength) {
+                    if (buffer[offset] == '*' || isNullKey(buffer, offset, isLeft)) {
+                        continue;
+                    }
+
+                    extractKey(buffer, offset, isLeft, key);
+                    boolean probeCopied = false;
+
+                    // Every build row in the chain of the key is a match.
+                    for (int row = table.find(key); row >= 0; row = table.next[row]) {
+                        if (!probeCopied) {
+                            copySide(buffer, offset, isLeft, joined, probeStart);
+                            probeCopied = true;
+                        }
+                        System.arraycopy(table.rows, row * table.rowWidth, joined, buildStart, table.rowWidth);
+                        output.write(joined);
+                        joinedCount++;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return joinedCount;
+    }
+
+    /**
+     * @return true if a key column of the record is blank or holds the null value of its type, so the record
+     *         matches nothing. Always false if null keys are matched.
+     */
+    private boolean isNullKey(byte[] record, int offset, boolean isLeft) throws UnsupportedEncodingException {
+        if (matchNullKeys) {
+            return false;
+        }
+
+        int[] addresses = isLeft ? leftKeyAddresses : rightKeyAddresses;
+        int[] lengths = isLeft ? leftKeyLengths : rightKeyLengths;
+        byte[][] nullValues = isLeft ? leftKeyNullValues : rightKeyNullValues;
+        for (int i = 0; i < addresses.length; i++) {
+            int address = offset + addresses[i];
+            if (keyTypes[i] == DbfColumn.DbfColumnType.INTEGER) {
+                continue;
+            }
+            if (keyTypes[i].isVisualFoxPro()) {
+                if (DbfColumn.isBinaryBlank(keyTypes[i], record, address)) {
+                    return true;
+                }
+            } else if (ByteUtils.isBlank(record, address, lengths[i])
+                    || (nullValues[i] != null && ByteUtils.equalsTrimmed(record, address, lengths[i], nullValues[i]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy key columns of a record into the key buffer, normalized to the common key column widths.
+     */
+    private void extractKey(byte[] record, int offset, boolean isLeft, byte[] key) {
+        int[] addresses = isLeft ? leftKeyAddresses : rightKeyAddresses;
+        int[] lengths = isLeft ? leftKeyLengths : rightKeyLengths;
+
+        int keyOffset = 0;
+        for (int i = 0; i < addresses.length; i++) {
+            int padding = keyWidths[i] - lengths[i];
+            int start = keyRightAligned[i] ? keyOffset + padding : keyOffset;
+            if (padding > 0) {
+                int paddingStart = keyRightAligned[i] ? keyOffset : keyOffset + lengths[i];
+                for (int j = paddingStart; j < paddingStart + padding; j++) {
+                    key[j] = ' ';
+                }
+            }
+            System.arraycopy(record, offset + addresses[i], key, start, lengths[i]);
+            keyOffset += keyWidths[i];
+        }
+    }
+
+    /**
+     * Copy the bytes a record contributes to the joined record: all data of a left record,
+     * or non-key columns of a right record.
+     */
+    private void copySide(byte[] record, int offset, boolean isLeft, byte[] target, int targetOffset) {
+        if (isLeft) {
+            System.arraycopy(record, offset + 1, target, targetOffset, leftWidth);
+        } else {
+            for (int i = 0; i < rightPayloadAddresses.length; i++) {
+                System.arraycopy(record, offset + rightPayloadAddresses[i], target, targetOffset, rightPayloadLengths[i]);
+                targetOffset += rightPayloadLengths[i];
+            }
+        }
+    }
+
+    private int hash(byte[] key) {
+        int hash = 1;
+        for (int i = 0; i < keyWidth; i++) {
+            hash = 31 * hash + key[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Hash of a key that picks its partition: FNV-1a, seeded by the partitioning level. It uses other bits than
+     * the hash table does, so partitions do not skew the table, and each level splits keys that shared
+     * a partition on the level before.
+     */
+    private int partitionHash(byte[] key, int level) {
+        int hash = 0x811C9DC5 ^ (level * 0x9E3779B9);
+        for (int i = 0; i < keyWidth; i++) {
+            hash = (hash ^ (key[i] & 0xff)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 15);
+    }
+
+    /**
+     * Open addressing hash table of build rows. Keys and row bytes are kept in flat arrays indexed by row number.
+     * A slot holds the first row of a distinct key, the rows with equal keys are chained to it in the order
+     * they were added, so duplicate keys do not lengthen the probe sequence.
+     */
+    private class BuildTable {
+        private final int rowWidth;
+        private final int[] slots;
+        private final int[] hashes;
+        private final int[] next;
+        private final int[] last;
+        private final byte[] keys;
+        private final byte[] rows;
+        private int rowCount = 0;
+
+        BuildTable(int capacity, int rowWidth) {
+            this.rowWidth = rowWidth;
+            int slotCount = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+            slots = new int[slotCount];
+            hashes = new int[capacity];
+            next = new int[capacity];
+            last = new int[capacity];
+            keys = new byte[capacity * keyWidth];
+            rows = new byte[capacity * rowWidth];
+        }
+
+        /**
+         * Add a row with the given key.
+         * @return Row number, row bytes are to be copied to rows at row number * row width.
+         */
+        int add(byte[] key) {
+            int row = rowCount++;
+            int hash = hash(key);
+            next[row] = -1;
+
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            while (slots[slot] != 0) {
+                int first = slots[slot] - 1;
+                if (hashes[first] == hash && keyEquals(first, key)) {
+                    next[last[first]] = row;
+                    last[first] = row;
+                    return row;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            hashes[row] = hash;
+            last[row] = row;
+            System.arraycopy(key, 0, keys, row * keyWidth, keyWidth);
+            slots[slot] = row + 1;
+            return row;
+        }
+
+        /**
+         * @return First row with the given key, the others follow in next, or -1 if there is none.
+         */
+        int find(byte[] key) {
+            int hash = hash(key);
+            int mask = slots.length - 1;
+            for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                int first = slots[slot] - 1;
+                if (hashes[first] == hash && keyEquals(first, key)) {
+                    return first;
+                }
+            }
+            return -1;
+        }
+
+        boolean keyEquals(int row, byte[] key) {
+            int start = row * keyWidth;
+            for (int i = 0; i < keyWidth; i++) {
+                if (keys[start + i] != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Range of whole records in a file: a DBF file or a partition file.
+     */
+    private static class RecordRange {
+        private final String path;
+        private final long offset;
+        private final long count;
+
+        private RecordRange(String path, long offset, long count) {
+            this.path = path;
+            this.offset = offset;
+            this.count = count;
+        }
+
+        static RecordRange of(DbfFile file) throws IOException {
+            return of(file, 0, file.countRecordsInFile());
+        }
+
+        static RecordRange of(DbfFile file, long firstRecord, long count) {
+            DbfHeader header = file.getHeader();
+            return new RecordRange(file.getFilePath(), header.headerLength() + firstRecord * header.getRecordLength(), count);
+        }
+
+        static RecordRange of(File partition, int recordLength) {
+            return new RecordRange(partition.getPath(), 0, partition.length() / recordLength);
+        }
+
+        DbfBlockReader open(int recordLength, int bufferSize) throws IOException {
+            return new DbfBlockReader(path, offset, count, recordLength, bufferSize);
+        }
+    }
+}
@@ -119,9 +119,39 @@ public class DbfHeader {
     public final int columnDescriptorSize = 32;
 
     /**
-     * type of the file, must be 03h
+     * Offset of the 32 bit record count from the start of the file.
      */
-    private final int fileType = 0x03;
+    public final int recordCountOffset = 4;
+
+    /**
+     * Largest record count that fits into the header, it is stored as a 32 bit unsigned number.
+     */
+    public static final long MAX_RECORD_COUNT = 0xFFFFFFFFL;
+
+    /**
+     * File type of dBASE III files without a memo file.
+     */
+    public static final int FILE_TYPE_DBASE = 0x03;
+
+    /**
+     * File type of Visual FoxPro files.
+     */
+    public static final int FILE_TYPE_VISUAL_FOXPRO = 0x30;
+
+    /**
+     * File type of Visual FoxPro files with autoincrement fields.
+     */
+    public static final int FILE_TYPE_VISUAL_FOXPRO_AUTOINCREMENT = 0x31;
+
+    /**
+     * Visual FoxPro files have a 263 byte database container backlink after the field descriptor terminator.
+     */
+    public static final int VISUAL_FOXPRO_BACKLINK_SIZE = 263;
+
+    /**
+     * type of the file, 03h or one of the Visual FoxPro types 30h and 31h
+     */
+    private int fileType = FILE_TYPE_DBASE;
 
     /**
      * Date the file was last updated.
@@ -170,6 +200,12 @@ public class DbfHeader {
      * @see #getEmptyDataRecord
      */
     private byte[] emptyRecord = null;
+
+    /**
+     * Codec of each column, created on first use and cleared when header columns change.
+     * @see #getCodec(int)
+     */
+    private DbfColumnCodec[] codecs = null;
     /**
      * Byte that contains information about the encoding used to write the DBF file. If this byte does not contain
      * valid data, windows-1252 will be used by default. Also, if the encoding is provided externally, e.g. through
@@ -211,6 +247,86 @@ public class DbfHeader {
         return headerLength;
     }
 
+    /**
+     * @return Type of the file, the first byte of the header (see FILE_TYPE_ constants).
+     */
+    public int getFileType() {
+        return fileType;
+    }
+
+    /**
+     * Set the type of the file. Adding a DOUBLE, CURRENCY or DATETIME column switches a dBASE header
+     * to Visual FoxPro, so this is only needed to write other columns to a Visual FoxPro file.
+     *
+     * @param fileType FILE_TYPE_DBASE, FILE_TYPE_VISUAL_FOXPRO or FILE_TYPE_VISUAL_FOXPRO_AUTOINCREMENT.
+     * @exception IllegalStateException If trying to modify header while it is locked.
+     * @exception IllegalArgumentException If the file type is not supported, or the header has columns
+     *                                     that can only be stored in Visual FoxPro files.
+     */
+    public void setFileType(int fileType) {
+        if (locked) {
+            throw new IllegalStateException("This header is locked and cannot be modified. " +
+                    "Modifying the header would result in a corrupt DBF file. " +
+                    "You can unlock the header by calling unlock() method.");
+        }
+        if (fileType != FILE_TYPE_DBASE && !isVisualFoxProFileType(fileType)) {
+            throw new IllegalArgumentException("Unsupported DBF file type " + fileType);
+        }
+        if (!isVisualFoxProFileType(fileType)) {
+            for (DbfColumn column : fields) {
+                if (column.getColumnType().isVisualFoxPro()) {
+                    throw new IllegalArgumentException("Column '" + column.getName() + "' can only be stored in a Visual FoxPro file.");
+                }
+            }
+        }
+
+        // the backlink is part of the header of Visual FoxPro files only
+        if (isVisualFoxPro() != isVisualFoxProFileType(fileType)) {
+            headerLength += isVisualFoxProFileType(fileType) ? VISUAL_FOXPRO_BACKLINK_SIZE : -VISUAL_FOXPRO_BACKLINK_SIZE;
+        }
+        this.fileType = fileType;
+        isDirty = true;
+    }
+
+    /**
+     * @return Language driver ID, the byte that identifies the code page of the file (see {@link DbfEncodings}).
+     */
+    public byte getLanguageDriverId() {
+        return languageDriverId;
+    }
+
+    /**
+     * Set the language driver ID, e.g. to copy it from the file that a new file is derived from,
+     * so that the new file is read with the same encoding.
+     *
+     * @param languageDriverId Language driver ID, 0 if the code page is not known.
+     * @exception IllegalStateException If trying to modify header while it is locked.
+     */
+    public void setLanguageDriverId(byte languageDriverId) {
+        if (locked) {
+            throw new IllegalStateException("This header is locked and cannot be modified. " +
+                    "Modifying the header would result in a corrupt DBF file. " +
+                    "You can unlock the header by calling unlock() method.");
+        }
+        this.languageDriverId = languageDriverId;
+        isDirty = true;
+    }
+
+    /**
+     * @return true if this is a Visual FoxPro file.
+     */
+    public boolean isVisualFoxPro() {
+        return isVisualFoxProFileType(fileType);
+    }
+
+    /**
+     * @param fileType Type of a file, the first byte of the header.
+     * @return true if the type is one of the Visual FoxPro types.
+     */
+    public static boolean isVisualFoxProFileType(int fileType) {
+        return fileType == FILE_TYPE_VISUAL_FOXPRO || fileType == FILE_TYPE_VISUAL_FOXPRO_AUTOINCREMENT;
+    }
+
     /**
      * Add a new column to the DBF header.
      *
@@ -232,6 +348,11 @@ public class DbfHeader {
         if (recordLength + newColumn.getLength() > 65535)
             throw new IllegalArgumentException("Unable to add new column. Adding this column puts the record length over the maximum (which is 65535 bytes).");
 
+        // binary Visual FoxPro types make this a Visual FoxPro file
+        if (newColumn.getColumnType().isVisualFoxPro() && !isVisualFoxPro()) {
+            setFileType(FILE_TYPE_VISUAL_FOXPRO);
+        }
+
         // add the column
         fields.add(newColumn);
 
@@ -242,6 +363,7 @@ public class DbfHeader {
 
         // clear empty record
         emptyRecord = null;
+        codecs = null;
 
         // set dirty bit
         isDirty = true;
@@ -301,6 +423,7 @@ public class DbfHeader {
 
         //clear the empty record
         emptyRecord = null;
+        codecs = null;
 
         //set dirty bit
         isDirty = true;
@@ -365,12 +488,39 @@ public class DbfHeader {
     protected byte[] getEmptyDataRecord() throws UnsupportedEncodingException {
         if (emptyRecord == null) { // create lazily
             String value = String.format("%1$" + recordLength + "s", " ");
-            emptyRecord = value.getBytes(configuration.getEncodingName());
+            byte[] record = value.getBytes(configuration.getEncodingName());
+            // the null flags of Visual FoxPro are bits, a new record has none set
+            for (DbfColumn column : fields) {
+                if (column.getColumnType() == DbfColumn.DbfColumnType.NULL_FLAGS) {
+                    Arrays.fill(record, column.getDataAddress(), column.getDataAddress() + column.getLength(), (byte) 0);
+                }
+            }
+            emptyRecord = record;
         }
 
         return emptyRecord;
     }
 
+    /**
+     * Returns the codec that reads and writes values of a column. Codecs are created once for all columns
+     * and shared by all records of this header.
+     *
+     * @param index Zero based index of the column.
+     * @return Codec of the column.
+     */
+    DbfColumnCodec getCodec(int index) {
+        DbfColumnCodec[] current = codecs;
+        if (current == null) {
+            // Build all codecs and publish the array at once, records can be used from several threads.
+            current = new DbfColumnCodec[fields.size()];
+            for (int i = 0; i < current.length; i++) {
+                current[i] = DbfColumnCodec.create(this, fields.get(i));
+            }
+            codecs = current;
+        }
+        return current[index];
+    }
+
     /**
      * @return Number of columns in this dbf header.
      */
@@ -400,6 +550,9 @@ public class DbfHeader {
      * @param value
      */
     public void setRecordCount(long value) {
+        if (value < 0 || value > MAX_RECORD_COUNT) {
+            throw new IllegalArgumentException("Record count must be between 0 and " + MAX_RECORD_COUNT + ".");
+        }
         numberOfRecords = value;
 
         // Set the dirty bit
@@ -444,9 +597,15 @@ public class DbfHeader {
      *
      * @param dbfFileWriter DBF file writer.
      * @throws IOException  if an I/O error occurs.
-     * @throws IllegalArgumentException If column name in selected encoding takes more than 10 bytes
+     * @throws IllegalArgumentException If column name in selected encoding takes more than 10 bytes,
+     *                                  or there are too many columns for the header length to fit in 2 bytes.
      */
     public void write(FileReader dbfFileWriter) throws IOException {
+        // header and record lengths are unsigned shorts, check before anything is written
+        if (headerLength > 65535) {
+            throw new IllegalArgumentException("Header length " + headerLength + " is over the maximum (which is 65535 bytes), there are too many columns.");
+        }
+
         // write the header
         // write the output file type.
         dbfFileWriter.writeByte((byte) fileType);
@@ -462,18 +621,22 @@ public class DbfHeader {
         dbfFileWriter.writeByte((byte) Integer.parseInt(sdf.format(updateDate)));
 
         // write the number of records in the datafile. (32 bit number, little-endian unsigned)
+        // The cast keeps the low 32 bits, which is the unsigned value since the count is at most MAX_RECORD_COUNT.
         dbfFileWriter.writeLittleEndianInt((int) numberOfRecords);
 
-        // write the length of the header structure - 2 byte short
+        // write the length of the header structure - 2 byte unsigned short, the cast keeps the low 16 bits
         dbfFileWriter.writeLittleEndianShort((short) headerLength);
 
-        // write the length of a record
+        // write the length of a record - 2 byte unsigned short, at most 65535 (checked by addColumn)
         dbfFileWriter.writeLittleEndianShort((short) recordLength);
 
-        // write the reserved bytes in the header
-        for (int i = 0; i < 20; i++) {
+        // write the reserved bytes in the header, with the language driver ID at offset 29
+        for (int i = 0; i < 17; i++) {
             dbfFileWriter.write((byte) 0);
         }
+        dbfFileWriter.write(languageDriverId);
+        dbfFileWriter.write((byte) 0);
+        dbfFileWriter.write((byte) 0);
 
         // write all of the header records
         byte[] byteReserved = new byte[14];  // these are initialized to 0 by default.
@@ -516,6 +679,11 @@ public class DbfHeader {
         // write the end of the field definitions marker
         dbfFileWriter.write((byte) 0x0D);
 
+        // Visual FoxPro files have an (empty) database container backlink
+        if (isVisualFoxPro()) {
+            dbfFileWriter.write(new byte[VISUAL_FOXPRO_BACKLINK_SIZE]);
+        }
+
         // Clear dirty bit.
         isDirty = false;
 
@@ -523,6 +691,23 @@ public class DbfHeader {
         locked = true; // We could actually postpone this until first record is written.
     }
 
+    /**
+     * Write only the record count to the header, leaving the rest of the header (column descriptors,
+     * language driver, reserved bytes) untouched. This is much cheaper than rewriting the whole header
+     * and is used after operations that only change the number of records.
+     * The file pointer is left right after the record count.
+     *
+     * @param dbfFileWriter DBF file writer.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeRecordCount(FileReader dbfFileWriter) throws IOException {
+        dbfFileWriter.seek(recordCountOffset);
+        dbfFileWriter.writeLittleEndianInt((int) numberOfRecords);
+
+        // Record count is the only thing that could have changed.
+        isDirty = false;
+    }
+
     /**
      * Read header data, make sure the stream is positioned at the start of the file to read the header otherwise you will get an exception.
      * When this function is done the position will be the first record.
@@ -533,10 +718,11 @@ public class DbfHeader {
      */
     public void read(FileReader dbfFile) throws IOException, InvalidDbfFileException {
         // Type of reader
-        int fileType = dbfFile.readByte();
-        if (fileType != 0x03) {
+        int fileType = dbfFile.readByte() & 0xFF;
+        if (fileType != FILE_TYPE_DBASE && !isVisualFoxProFileType(fileType)) {
             throw new InvalidDbfFileException("Unsupported DBF reader Type " + fileType);
         }
+        this.fileType = fileType;
 
         // Update date
         int year = (int) dbfFile.readByte();
@@ -553,9 +739,10 @@ public class DbfHeader {
         // Length of the header structure
         headerLength = dbfFile.readLittleEndianUnsignedShort();
 
-        // Length of a record
-        recordLength = dbfFile.readLittleEndianShort();
-        if (recordLength < 0) {
+        // Length of a record, unsigned: records of up to 65535 bytes are allowed by addColumn().
+        // A record holds at least the deleted flag, so 0 means the header is corrupt.
+        recordLength = dbfFile.readLittleEndianUnsignedShort();
+        if (recordLength == 0) {
             throw new CorruptedHeaderNegativeRecordLengthException(recordLength);
         }
 
@@ -569,14 +756,18 @@ public class DbfHeader {
         // Skip two reserved bytes (30. and 31. byte).
         dbfFile.skipBytes(2);
 
-        // Calculate the number of fields in the header
-        int nNumFields = (headerLength - fileDescriptorSize) / columnDescriptorSize;
+        // Calculate the number of fields in the header, Visual FoxPro headers end with the backlink
+        int backlinkSize = isVisualFoxPro() ? VISUAL_FOXPRO_BACKLINK_SIZE : 0;
+        int nNumFields = (headerLength - fileDescriptorSize - backlinkSize) / columnDescriptorSize;
 
         // Offset from start of record, start at 1 because that's the delete flag
         int dataOffset = 1;
 
         // Read all of the header records
         fields = new ArrayList<DbfColumn>(nNumFields);
+        codecs = null;
+        emptyRecord = null;
+        columnNameIndex = null;
         for (int i = 0; i < nNumFields; i++) {
             /**
              * read the field name.
@@ -598,21 +789,21 @@ public class DbfHeader {
             int fieldLength = 0;
             int nDecimals = 0;
             if (cDbaseType == 'C' || cDbaseType == 'c') {
-                //treat decimal count as high byte
-                fieldLength = dbfFile.readLittleEndianShort();
+                //treat decimal count as high byte, unsigned so fields of up to 65535 bytes can be read back
+                fieldLength = dbfFile.readLittleEndianUnsignedShort();
             } else {
                 //read field length as an unsigned byte.
-                fieldLength = (int) dbfFile.readByte();
+                fieldLength = dbfFile.readByte() & 0xFF;
 
                 //read decimal count as one byte
-                nDecimals = (int) dbfFile.readByte();
+                nDecimals = dbfFile.readByte() & 0xFF;
             }
 
             // read the reserved bytes
             dbfFile.skipBytes(14);
 
             // create and add field to collection
-            fields.add(new DbfColumn(sFieldName, DbfColumn.getDbaseType(cDbaseType), fieldLength, nDecimals, dataOffset));
+            fields.add(new DbfColumn(sFieldName, DbfColumn.getDbaseType(cDbaseType, fileType), fieldLength, nDecimals, dataOffset));
 
             // add up address information, you can not trust the address recorded in the DBF file...
             dataOffset += fieldLength;
@@ -0,0 +1,342 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of a DBF file, kept in a sidecar file (path of the DBF file + {@link #SIDECAR_EXTENSION}).
+ * Enable it with {@link DbfFile#enableJournal()}.
+ * <p>
+ * In journal mode, write() and update() do not write records to the DBF file right away. Record images are collected
+ * in a batch, and when the batch is full (or on {@link DbfFile#commit()} and close()) it is committed:
+ * - the batch is appended to the journal with a checksum and the journal is synced to disk, once for the whole batch;
+ * - the records and the record count are written to the DBF file.
+ * Once the journal grows over the checkpoint size, the DBF file is synced and the journal is emptied.
+ * <p>
+ * When a file with a journal is opened for writing, committed batches are replayed, so a crash at any point leaves
+ * the DBF file as it was after the last commit. A batch that was not completely written to the journal is discarded.
+ * Records written after the last commit are lost, they are the price of not syncing every record.
+ * <p>
+ * Records that are not committed yet are returned by {@link DbfFile#read(int, DbfRecord)}. Other read methods and
+ * bulk operations see only committed records, call commit() before using them. Operations that write the DBF file
+ * around the journal (pack, updateColumn, {@link DbfConcurrentAppender}) commit and checkpoint it first, so a replay
+ * never writes older record images over their result.
+ *
+ * Journal file format, little endian:
+ * - magic "DBFWAL01", record length (int);
+ * - batches: entry count (int), record count of the file (long), entries (record index (long), record bytes),
+ *   CRC32 of the batch up to here (int).
+ */
+public class DbfJournal {
+    /**
+     * Extension of the journal file, appended to the path of the DBF file.
+     */
+    public static final String SIDECAR_EXTENSION = ".wal";
+
+    /**
+     * Default number of records in a batch.
+     */
+    public static final int DEFAULT_GROUP_COMMIT_RECORDS = 1000;
+
+    /**
+     * Default size of the journal that triggers a checkpoint.
+     */
+    public static final long DEFAULT_CHECKPOINT_SIZE = 64L * 1024 * 1024;
+
+    private static final byte[] MAGIC = "DBFWAL01".getBytes(StandardCharsets.US_ASCII);
+    private static final int FILE_HEADER_SIZE = 12;
+    private static final int BATCH_HEADER_SIZE = 12;
+
+    private final DbfFile file;
+    private final int recordLength;
+    private final String journalPath;
+    private final RandomAccessFile journal;
+    private final FileChannel channel;
+
+    private int groupCommitRecords = DEFAULT_GROUP_COMMIT_RECORDS;
+    private long checkpointSize = DEFAULT_CHECKPOINT_SIZE;
+
+    /**
+     * Batch being collected: batch header followed by entries.
+     */
+    private byte[] batch;
+    private int batchLength = BATCH_HEADER_SIZE;
+    private int entryCount = 0;
+
+    /**
+     * Offset of the latest image of each record in the batch.
+     */
+    private final Map<Long, Integer> pending = new HashMap<Long, Integer>();
+
+    /**
+     * One past the highest record index in the batch, 0 if the batch does not add records.
+     */
+    private long pendingRecordCount = 0;
+
+    /**
+     * Create an empty journal for the file, replacing an existing journal. Existing journals are replayed by
+     * {@link #recover(DbfFile)} when the file is opened.
+     */
+    DbfJournal(DbfFile file) throws IOException {
+        this.file = file;
+        this.recordLength = file.getHeader().getRecordLength();
+        this.journalPath = file.getFilePath() + SIDECAR_EXTENSION;
+        this.batch = new byte[BATCH_HEADER_SIZE + 16 * (8 + recordLength)];
+
+        journal = new RandomAccessFile(journalPath, "rw");
+        channel = journal.getChannel();
+
+        ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        fileHeader.put(MAGIC).putInt(recordLength);
+        // flip through Buffer, ByteBuffer.flip() only exists since Java 9 and fails on a Java 8 runtime
+        ((Buffer) fileHeader).flip();
+        channel.truncate(0);
+        channel.write(fileHeader, 0);
+        channel.force(true);
+    }
+
+    /**
+     * Add a record image to the batch, committing the batch if it is full.
+     */
+    void add(long recordIndex, byte[] data) throws IOException {
+        int entryLength = 8 + recordLength;
+        if (batchLength + entryLength > batch.length) {
+            batch = Arrays.copyOf(batch, Math.max(batch.length * 2, batchLength + entryLength));
+        }
+
+        ByteBuffer.wrap(batch, batchLength, 8).order(ByteOrder.LITTLE_ENDIAN).putLong(recordIndex);
+        System.arraycopy(data, 0, batch, batchLength + 8, recordLength);
+        pending.put(recordIndex, batchLength + 8);
+        pendingRecordCount = Math.max(pendingRecordCount, recordIndex + 1);
+        batchLength += entryLength;
+        entryCount++;
+
+        if (entryCount >= groupCommitRecords) {
+            commit();
+        }
+    }
+
+    /**
+     * Copy the pending image of a record, if there is one.
+     * @return true if the record is in the batch.
+     */
+    boolean read(long recordIndex, byte[] target) {
+        Integer offset = pending.get(recordIndex);
+        if (offset == null) {
+            return false;
+        }
+        System.arraycopy(batch, offset, target, 0, recordLength);
+        return true;
+    }
+
+    /**
+     * @return One past the highest record index in the batch, 0 if the batch is empty.
+     */
+    long getPendingRecordCount() {
+        return pendingRecordCount;
+    }
+
+    /**
+     * @return Number of records waiting for commit.
+     */
+    public int getPendingCount() {
+        return entryCount;
+    }
+
+    /**
+     * Write the batch to the journal, sync the journal, then write the records to the DBF file.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void commit() throws IOException {
+        if (entryCount == 0) {
+            return;
+        }
+
+        DbfHeader header = file.getHeader();
+        if (pendingRecordCount > header.getRecordCount()) {
+            header.setRecordCount(pendingRecordCount);
+        }
+
+        ByteBuffer.wrap(batch, 0, BATCH_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN).putInt(entryCount).putLong(header.getRecordCount());
+        CRC32 crc = new CRC32();
+        crc.update(batch, 0, batchLength);
+        ByteBuffer checksum = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        checksum.putInt((int) crc.getValue());
+        ((Buffer) checksum).flip();
+
+        long position = channel.size();
+        writeFully(ByteBuffer.wrap(batch, 0, batchLength), position);
+        writeFully(checksum, position + batchLength);
+        channel.force(false);
+
+        apply(file, recordLength, batch, entryCount);
+        header.writeRecordCount(file.dbfFile);
+
+        batchLength = BATCH_HEADER_SIZE;
+        entryCount = 0;
+        pending.clear();
+        pendingRecordCount = 0;
+
+        if (channel.size() >= checkpointSize) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Sync the DBF file and empty the journal. Committed records are then safe without the journal.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void checkpoint() throws IOException {
+        file.dbfFile.getChannel().force(true);
+        channel.truncate(FILE_HEADER_SIZE);
+        channel.force(true);
+    }
+
+    /**
+     * Commit, checkpoint and delete the journal file.
+     */
+    void close() throws IOException {
+        commit();
+        checkpoint();
+        journal.close();
+        new File(journalPath).delete();
+    }
+
+    /**
+     * Write the entries of a batch to the DBF file.
+     */
+    private static void apply(DbfFile file, int recordLength, byte[] entries, int count) throws IOException {
+        DbfHeader header = file.getHeader();
+        DbfStatistics statistics = file.getStatistics();
+        ByteBuffer view = ByteBuffer.wrap(entries).order(ByteOrder.LITTLE_ENDIAN);
+
+        int offset = BATCH_HEADER_SIZE;
+        for (int i = 0; i < count; i++, offset += 8 + recordLength) {
+            long recordIndex = view.getLong(offset);
+            file.dbfFile.seek(header.headerLength() + recordIndex * recordLength);
+            file.dbfFile.write(entries, offset + 8, recordLength);
+            if (statistics != null) {
+                statistics.add(recordIndex, entries, offset + 8);
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Replay the journal of a file opened for writing, if there is one, and delete it.
+     *
+     * @param file DBF file opened for writing, with its header read.
+     * @return Number of replayed batches, -1 if there is no journal.
+     * @throws IOException If an I/O error occurs or the journal belongs to a file with a different record length.
+     */
+    static int recover(DbfFile file) throws IOException {
+        File journalFile = new File(file.getFilePath() + SIDECAR_EXTENSION);
+        if (!journalFile.exists()) {
+            return -1;
+        }
+
+        DbfHeader header = file.getHeader();
+        int recordLength = header.getRecordLength();
+        int batches = 0;
+
+        RandomAccessFile journal = new RandomAccessFile(journalFile, "r");
+        try {
+            long length = journal.length();
+            if (length >= FILE_HEADER_SIZE) {
+                byte[] magic = new byte[MAGIC.length];
+                journal.readFully(magic);
+                int journalRecordLength = Integer.reverseBytes(journal.readInt());
+                if (!Arrays.equals(magic, MAGIC) || journalRecordLength != recordLength) {
+                    throw new IOException("Journal " + journalFile + " does not belong to this file.");
+                }
+
+                long position = FILE_HEADER_SIZE;
+                while (position + BATCH_HEADER_SIZE + 4 <= length) {
+                    journal.seek(position);
+                    int count = Integer.reverseBytes(journal.readInt());
+                    long batchLength = BATCH_HEADER_SIZE + (long) count * (8 + recordLength);
+                    if (count <= 0 || position + batchLength + 4 > length) {
+                        break; // Torn batch at the end of the journal.
+                    }
+
+                    byte[] entries = new byte[(int) batchLength];
+                    journal.seek(position);
+                    journal.readFully(entries);
+                    int checksum = Integer.reverseBytes(journal.readInt());
+                    CRC32 crc = new CRC32();
+                    crc.update(entries, 0, entries.length);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+
+                    apply(file, recordLength, entries, count);
+                    long recordCount = ByteBuffer.wrap(entries, 4, 8).order(ByteOrder.LITTLE_ENDIAN).getLong();
+                    if (recordCount > header.getRecordCount()) {
+                        header.setRecordCount(recordCount);
+                    }
+
+                    batches++;
+                    position += batchLength + 4;
+                }
+
+                if (batches > 0) {
+                    header.writeRecordCount(file.dbfFile);
+                    file.dbfFile.getChannel().force(true);
+                }
+            }
+        } catch (EOFException e) {
+            // Journal ends within a batch, the batch was never committed.
+        } finally {
+            journal.close();
+        }
+
+        if (!journalFile.delete()) {
+            throw new IOException("Journal " + journalFile + " could not be deleted after replay.");
+        }
+        return batches;
+    }
+
+    public int getGroupCommitRecords() {
+        return groupCommitRecords;
+    }
+
+    /**
+     * @param groupCommitRecords Number of records in a batch. The journal is synced once per batch.
+     */
+    public void setGroupCommitRecords(int groupCommitRecords) {
+        if (groupCommitRecords <= 0) {
+            throw new IllegalArgumentException("Number of records in a batch must be positive.");
+        }
+        this.groupCommitRecords = groupCommitRecords;
+    }
+
+    public long getCheckpointSize() {
+        return checkpointSize;
+    }
+
+    /**
+     * @param checkpointSize Size of the journal in bytes that triggers a checkpoint.
+     */
+    public void setCheckpointSize(long checkpointSize) {
+        if (checkpointSize <= 0) {
+            throw new IllegalArgumentException("Checkpoint size must be positive.");
+        }
+        this.checkpointSize = checkpointSize;
+    }
+}
@@ -0,0 +1,807 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.exceptions.DbfDataTruncateException;
+
+import java.io.IOException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Maps records to objects and objects to records, without the get(), parse and set loop.
+ * <p>
+ * Fields of the class are bound to columns by name with {@link DbfHeader#findColumn(String)}: the column named like the
+ * field, or like the field in upper case, or the column given by {@link DbfField}. Fields without a column are not
+ * bound, neither are static, transient and final fields.
+ * <p>
+ * All work is done when the mapper is created. Fields are accessed through their public getter and setter if the
+ * class has both, otherwise directly. Accessors of public classes are generated with LambdaMetafactory, so the JIT
+ * can inline them like hand-written code; other classes are accessed through method handles. Values are decoded
+ * with the typed getters of the record, so numbers do not go through strings.
+ * <pre>
+ *     DbfMapper&lt;Tract&gt; mapper = DbfMapper.create(Tract.class, dbfFile.getHeader());
+ *     mapper.readAll(dbfFile, new DbfObjectHandler&lt;Tract&gt;() {
+ *         public void handle(Tract tract) {
+ *             total += tract.getPopulation();
+ *         }
+ *     });
+ * </pre>
+ * Supported field types:
+ * <ul>
+ *     <li>String: any column, the value of {@link DbfRecord#get(int)} without surrounding blanks.</li>
+ *     <li>int, long, Integer and Long: INTEGER, or NUMBER without decimals.</li>
+ *     <li>double and Double: NUMBER, FLOAT, INTEGER, DOUBLE or CURRENCY. Values are rounded to the decimals of the column when written.</li>
+ *     <li>boolean and Boolean: BOOLEAN.</li>
+ *     <li>Date: DATE or DATETIME.</li>
+ * </ul>
+ * Blank and null values are read as null into object fields, as NaN into double fields and as 0 or false into
+ * other primitive fields. Null fields are written as the null value of the column type.
+ * <p>
+ * A mapper can be shared by threads.
+ */
+public class DbfMapper<T> {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final Class<T> type;
+    private final DbfHeader header;
+    private final Supplier<Object> constructor;
+    private final Binding[] bindings;
+
+    private DbfMapper(Class<T> type, DbfHeader header, Supplier<Object> constructor, Binding[] bindings) {
+        this.type = type;
+        this.header = header;
+        this.constructor = constructor;
+        this.bindings = bindings;
+    }
+
+    /**
+     * Create a mapper between a class and the columns of a header.
+     *
+     * @param type Class of the objects. Objects are created with its constructor without parameters.
+     * @param header Header of the records.
+     * @return New mapper.
+     * @exception IllegalArgumentException If a column given by {@link DbfField} does not exist, a field can not be
+     *                                     bound to the type of its column, or a field is not accessible.
+     */
+    public static <T> DbfMapper<T> create(Class<T> type, DbfHeader header) {
+        List<Binding> bindings = new ArrayList<Binding>();
+        Set<String> names = new HashSet<String>();
+
+        for (Class<?> declaring = type; declaring != null && declaring != Object.class; declaring = declaring.getSuperclass()) {
+            for (Field field : declaring.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || Modifier.isFinal(modifiers)
+                        || field.isSynthetic() || !names.add(field.getName())) {
+                    // Fields hidden by a field of a subclass are not bound either.
+                    continue;
+                }
+
+                DbfField annotation = field.getAnnotation(DbfField.class);
+                int columnIndex;
+                if (annotation != null) {
+                    columnIndex = header.findColumn(annotation.value());
+                    if (columnIndex < 0) {
+                        throw new IllegalArgumentException("Column '" + annotation.value() + "' of field '" + field.getName() + "' does not exist.");
+                    }
+                } else {
+                    columnIndex = header.findColumn(field.getName());
+                    if (columnIndex < 0) {
+                        columnIndex = header.findColumn(field.getName().toUpperCase(Locale.ROOT));
+                    }
+                    if (columnIndex < 0) {
+                        continue;
+                    }
+                }
+
+                bindings.add(bind(type, field, columnIndex, header.get(columnIndex)));
+            }
+        }
+
+        return new DbfMapper<T>(type, header, constructor(type), bindings.toArray(new Binding[bindings.size()]));
+    }
+
+    /**
+     * Create an object with the values of a record.
+     *
+     * @param record Record with the structure of the header of this mapper.
+     * @return New object.
+     * @exception IllegalStateException If the record does not match the header, or the class has no constructor without parameters.
+     * @throws IOException If a value can not be decoded.
+     */
+    public T read(DbfRecord record) throws IOException {
+        if (constructor == null) {
+            throw new IllegalStateException("Class " + type.getName() + " has no constructor without parameters.");
+        }
+
+        T target = type.cast(constructor.get());
+        read(record, target);
+        return target;
+    }
+
+    /**
+     * Set the bound fields of an object to the values of a record.
+     *
+     * @param record Record with the structure of the header of this mapper.
+     * @param target Object to fill.
+     * @exception IllegalStateException If the record does not match the header.
+     * @throws IOException If a value can not be decoded.
+     */
+    public void read(DbfRecord record, T target) throws IOException {
+        checkRecord(record);
+        for (Binding binding : bindings) {
+            binding.read(record, target);
+        }
+    }
+
+    /**
+     * Set the values of a record to the bound fields of an object. Columns without a field are not changed.
+     *
+     * @param source Object to write.
+     * @param record Record with the structure of the header of this mapper.
+     * @exception IllegalStateException If the record does not match the header.
+     * @throws IOException If a value can not be encoded.
+     * @throws DbfDataTruncateException If a value does not fit into its column and the record does not allow truncation.
+     */
+    public void write(T source, DbfRecord record) throws IOException, DbfDataTruncateException {
+        checkRecord(record);
+        for (Binding binding : bindings) {
+            binding.write(source, record);
+        }
+    }
+
+    /**
+     * Read all records of a file that are not deleted into new objects. Records are read in large blocks through
+     * a handle of their own, so the position of the file does not change.
+     *
+     * @param file Opened DBF file with the header of this mapper.
+     * @param handler Receives the objects in file order.
+     * @return Number of objects passed to the handler.
+     * @exception IllegalStateException If the file is not opened or does not have the header of this mapper.
+     * @throws IOException If an I/O error occurs, or thrown by the handler.
+     */
+    public long readAll(DbfFile file, DbfObjectHandler<? super T> handler) throws IOException {
+        if (file.dbfFile == null) {
+            throw new IllegalStateException("File is not opened.");
+        }
+        if (file.getHeader() != header) {
+            throw new IllegalStateException("File does not have the header of the mapper.");
+        }
+
+        int recordLength = header.getRecordLength();
+        DbfRecord record = new DbfRecord(header);
+        long count = 0;
+
+        DbfBlockReader reader = DbfBlockReader.open(file, 0, file.countRecordsInFile());
+        try {
+            long recordIndex = 0;
+            int records;
+            while ((records = reader.next()) > 0) {
+                byte[] buffer = reader.getBuffer();
+                for (int offset = 0; offset < records * recordLength; offset += recordLength, recordIndex++) {
+                    if (buffer[offset] == '*') {
+                        continue;
+                    }
+                    System.arraycopy(buffer, offset, record.getData(), 0, recordLength);
+                    record.setRecordIndex(recordIndex);
+                    handler.handle(read(record));
+                    count++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Append objects to a file as new records.
+     *
+     * @param file DBF file opened for writing, with the header of this mapper.
+     * @param objects Objects to write.
+     * @return Number of records written.
+     * @exception IllegalStateException If the file does not have the header of this mapper.
+     * @throws IOException If an I/O error occurs.
+     * @throws DbfDataTruncateException If a value does not fit into its column.
+     */
+    public long writeAll(DbfFile file, Iterable<? extends T> objects) throws IOException, DbfDataTruncateException {
+        if (file.getHeader() != header) {
+            throw new IllegalStateException("File does not have the header of the mapper.");
+        }
+
+        DbfRecord record = new DbfRecord(header);
+        long count = 0;
+        for (T object : objects) {
+            write(object, record);
+            // Clearing resets the record index, so the next write appends again.
+            file.write(record, true);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return Class of the objects.
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * @return Header of the records.
+     */
+    public DbfHeader getHeader() {
+        return header;
+    }
+
+    private void checkRecord(DbfRecord record) {
+        if (record.getHeader() != header && record.getHeader().getRecordLength() != header.getRecordLength()) {
+            throw new IllegalStateException("Record parameter does not have the same size as the header specifies.");
+        }
+    }
+
+    /**
+     * Create the binding of a field to a column.
+     */
+    private static Binding bind(Class<?> type, Field field, int columnIndex, final DbfColumn dbfColumn) {
+        Class<?> fieldType = field.getType();
+        DbfColumn.DbfColumnType columnType = dbfColumn.getColumnType();
+        boolean integral = columnType == DbfColumn.DbfColumnType.INTEGER
+                || (columnType == DbfColumn.DbfColumnType.NUMBER && dbfColumn.getDecimalCount() == 0);
+        boolean numeric = integral || columnType == DbfColumn.DbfColumnType.NUMBER || columnType == DbfColumn.DbfColumnType.FLOAT
+                || columnType == DbfColumn.DbfColumnType.DOUBLE || columnType == DbfColumn.DbfColumnType.CURRENCY;
+
+        Accessor accessor = accessor(type, field);
+
+        if (fieldType == String.class) {
+            return new ObjectBinding(columnIndex, accessor) {
+                Object decode(DbfRecord record) throws IOException {
+                    String value = record.get(column).trim();
+                    return value.length() == 0 ? null : value;
+                }
+
+                void encode(DbfRecord record, Object value) throws IOException, DbfDataTruncateException {
+                    record.set(column, (String) value);
+                }
+            };
+        } else if ((fieldType == int.class || fieldType == long.class) && integral) {
+            return fieldType == int.class ? new IntBinding(columnIndex, accessor) : new LongBinding(columnIndex, accessor);
+        } else if ((fieldType == Integer.class || fieldType == Long.class) && integral) {
+            final boolean isInteger = fieldType == Integer.class;
+            return new ObjectBinding(columnIndex, accessor) {
+                Object decode(DbfRecord record) throws IOException {
+                    if (record.isNull(column)) {
+                        return null;
+                    }
+                    long value = record.getLong(column);
+                    if (isInteger) {
+                        return Integer.valueOf((int) value);
+                    }
+                    return Long.valueOf(value);
+                }
+
+                void encode(DbfRecord record, Object value) throws IOException, DbfDataTruncateException {
+                    record.set(column, value == null ? null : value.toString());
+                }
+            };
+        } else if (fieldType == double.class && numeric) {
+            return new DoubleBinding(columnIndex, accessor, dbfColumn);
+        } else if (fieldType == Double.class && numeric) {
+            return new ObjectBinding(columnIndex, accessor) {
+                Object decode(DbfRecord record) throws IOException {
+                    double value = record.getDouble(column);
+                    return Double.isNaN(value) ? null : Double.valueOf(value);
+                }
+
+                void encode(DbfRecord record, Object value) throws IOException, DbfDataTruncateException {
+                    setDouble(record, column, dbfColumn, value == null ? Double.NaN : (Double) value);
+                }
+            };
+        } else if (fieldType == boolean.class && columnType == DbfColumn.DbfColumnType.BOOLEAN) {
+            return new BooleanBinding(columnIndex, accessor);
+        } else if (fieldType == Boolean.class && columnType == DbfColumn.DbfColumnType.BOOLEAN) {
+            return new ObjectBinding(columnIndex, accessor) {
+                Object decode(DbfRecord record) throws IOException {
+                    return record.isNull(column) ? null : Boolean.valueOf(record.getBoolean(column));
+                }
+
+                void encode(DbfRecord record, Object value) throws IOException, DbfDataTruncateException {
+                    record.set(column, value == null ? null : ((Boolean) value ? "T" : "F"));
+                }
+            };
+        } else if (fieldType == Date.class
+                && (columnType == DbfColumn.DbfColumnType.DATE || columnType == DbfColumn.DbfColumnType.DATETIME)) {
+            return new ObjectBinding(columnIndex, accessor) {
+                Object decode(DbfRecord record) throws IOException {
+                    if (record.isNull(column)) {
+                        return null;
+                    }
+                    try {
+                        return record.getDateValue(column);
+                    } catch (ParseException e) {
+                        throw new IOException("Date could not be parsed from column '" + record.getColumn(column).getName() + "'.", e);
+                    }
+                }
+
+                void encode(DbfRecord record, Object value) throws IOException, DbfDataTruncateException {
+                    if (value == null) {
+                        record.set(column, null);
+                    } else {
+                        record.setDateValue(column, (Date) value);
+                    }
+                }
+            };
+        } else {
+            throw new IllegalArgumentException("Field '" + field.getName() + "' of type " + fieldType.getSimpleName()
+                    + " can not be bound to column '" + dbfColumn.getName() + "' of type " + columnType + ".");
+        }
+    }
+
+    /**
+     * Set a double value, rounded to the decimals of NUMBER, FLOAT and INTEGER columns. NaN is written as null.
+     */
+    private static void setDouble(DbfRecord record, int columnIndex, DbfColumn column, double value)
+            throws IOException, DbfDataTruncateException {
+        DbfColumn.DbfColumnType columnType = column.getColumnType();
+        if (columnType == DbfColumn.DbfColumnType.DOUBLE || columnType == DbfColumn.DbfColumnType.CURRENCY) {
+            record.setDouble(columnIndex, value);
+        } else if (Double.isNaN(value)) {
+            record.set(columnIndex, null);
+        } else if (columnType == DbfColumn.DbfColumnType.INTEGER || column.getDecimalCount() == 0) {
+            record.set(columnIndex, Long.toString(Math.round(value)));
+        } else {
+            record.set(columnIndex, BigDecimal.valueOf(value).setScale(column.getDecimalCount(), RoundingMode.HALF_UP).toPlainString());
+        }
+    }
+
+    /**
+     * Find the getter and setter of a field, or access the field directly if the class does not have public ones.
+     */
+    private static Accessor accessor(Class<?> type, Field field) {
+        String name = field.getName();
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        Class<?> fieldType = field.getType();
+
+        Method getter = fieldType == boolean.class ? findMethod(type, "is" + suffix, fieldType) : null;
+        if (getter == null) {
+            getter = findMethod(type, "get" + suffix, fieldType);
+        }
+        Method setter = findMethod(type, "set" + suffix, void.class, fieldType);
+
+        try {
+            if (getter != null && setter != null) {
+                boolean direct = Modifier.isPublic(type.getModifiers()) && isVisible(type);
+                return new Accessor(type, LOOKUP.unreflect(getter), LOOKUP.unreflect(setter), direct);
+            }
+
+            field.setAccessible(true);
+            return new Accessor(type, LOOKUP.unreflectGetter(field), LOOKUP.unreflectSetter(field), false);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Field '" + name + "' of " + type.getName() + " is not accessible.", e);
+        }
+    }
+
+    /**
+     * @return Public instance method of a public class, or null if there is none.
+     */
+    private static Method findMethod(Class<?> type, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            Method method = type.getMethod(name, parameterTypes);
+            if (method.getReturnType() == returnType && !Modifier.isStatic(method.getModifiers())
+                    && Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                return method;
+            }
+        } catch (NoSuchMethodException e) {
+            // No such method, the field is accessed directly.
+        }
+        return null;
+    }
+
+    /**
+     * @return Supplier that creates objects of the class, or null if it has no constructor without parameters.
+     */
+    private static Supplier<Object> constructor(Class<?> type) {
+        if (Modifier.isAbstract(type.getModifiers()) || (type.isMemberClass() && !Modifier.isStatic(type.getModifiers()))) {
+            return null;
+        }
+
+        Constructor<?> constructor;
+        try {
+            constructor = type.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+
+        try {
+            if (Modifier.isPublic(type.getModifiers()) && Modifier.isPublic(constructor.getModifiers()) && isVisible(type)) {
+                Object supplier = lambda(Supplier.class, "get", MethodType.methodType(Object.class),
+                        LOOKUP.unreflectConstructor(constructor), MethodType.methodType(type));
+                if (supplier != null) {
+                    return cast(supplier);
+                }
+            }
+
+            constructor.setAccessible(true);
+            final MethodHandle handle = LOOKUP.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+            return new Supplier<Object>() {
+                public Object get() {
+                    try {
+                        return handle.invokeExact();
+                    } catch (Throwable e) {
+                        throw unchecked(e);
+                    }
+                }
+            };
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Constructor of " + type.getName() + " is not accessible.", e);
+        }
+    }
+
+    /**
+     * Classes loaded by another class loader than this library, e.g. by a child class loader of an application
+     * server, can not be referenced by generated lambda classes.
+     */
+    private static boolean isVisible(Class<?> type) {
+        try {
+            return Class.forName(type.getName(), false, DbfMapper.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Generate an implementation of a functional interface that calls the target directly.
+     * @return Implementation of the interface, or null if it can not be generated.
+     */
+    private static Object lambda(Class<?> functionalInterface, String methodName, MethodType methodType,
+                                 MethodHandle target, MethodType instantiatedMethodType) {
+        try {
+            CallSite site = LambdaMetafactory.metafactory(LOOKUP, methodName, MethodType.methodType(functionalInterface),
+                    methodType, target, instantiatedMethodType);
+            return site.getTarget().invoke();
+        } catch (Throwable e) {
+            // The caller falls back to method handles, which are slower but work for any accessible member.
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <F> F cast(Object function) {
+        return (F) function;
+    }
+
+    private static RuntimeException unchecked(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+
+    /**
+     * Getter and setter of a field, as methods or field handles.
+     */
+    private static class Accessor {
+        final Class<?> type;
+        final MethodHandle getter;
+        final MethodHandle setter;
+        /**
+         * True if lambdas can be generated for the getter and setter.
+         */
+        final boolean direct;
+
+        Accessor(Class<?> type, MethodHandle getter, MethodHandle setter, boolean direct) {
+            this.type = type;
+            this.getter = getter;
+            this.setter = setter;
+            this.direct = direct;
+        }
+
+        /**
+         * Generate an implementation of a functional interface for the getter or setter.
+         * @return Implementation of the interface, or null if it has to be implemented with method handles.
+         */
+        Object lambda(Class<?> functionalInterface, String methodName, MethodType methodType, boolean getter, Class<?> valueType) {
+            if (!direct) {
+                return null;
+            }
+            return getter
+                    ? DbfMapper.lambda(functionalInterface, methodName, methodType, this.getter, MethodType.methodType(valueType, type))
+                    : DbfMapper.lambda(functionalInterface, methodName, methodType, setter, MethodType.methodType(void.class, type, valueType));
+        }
+
+        /**
+         * @return Getter that takes an Object and returns the given type.
+         */
+        MethodHandle getter(Class<?> returnType) {
+            return getter.asType(MethodType.methodType(returnType, Object.class));
+        }
+
+        /**
+         * @return Setter that takes an Object and a value of the given type.
+         */
+        MethodHandle setter(Class<?> valueType) {
+            return setter.asType(MethodType.methodType(void.class, Object.class, valueType));
+        }
+    }
+
+    /**
+     * Binding of a field to a column.
+     */
+    private abstract static class Binding {
+        protected final int column;
+
+        protected Binding(int column) {
+            this.column = column;
+        }
+
+        abstract void read(DbfRecord record, Object target) throws IOException;
+
+        abstract void write(Object source, DbfRecord record) throws IOException, DbfDataTruncateException;
+    }
+
+    private static class IntBinding extends Binding {
+        private final ToIntFunction<Object> getter;
+        private final ObjIntConsumer<Object> setter;
+
+        IntBinding(int column, Accessor accessor) {
+            super(column);
+
+            Object getter = accessor.lambda(ToIntFunction.class, "applyAsInt", MethodType.methodType(int.class, Object.class), true, int.class);
+            if (getter == null) {
+                final MethodHandle handle = accessor.getter(int.class);
+                getter = new ToIntFunction<Object>() {
+                    public int applyAsInt(Object object) {
+                        try {
+                            return (int) handle.invokeExact(object);
+                        } catch (Throwable e) {
+                            throw unchecked(e);
+                        }
+                    }
+                };
+            }
+            this.getter = cast(getter);
+
+            Object setter = accessor.lambda(ObjIntConsumer.class, "accept", MethodType.methodType(void.class, Object.class, int.class), false, int.class);
+            if (setter == null) {
+                final MethodHandle handle = accessor.setter(int.class);
+                setter = new ObjIntConsumer<Object>() {
+                    public void accept(Object object, int value) {
+                        try {
+                            handle.invokeExact(object, value);
+                        } catch (Throwable e) {
+                            throw unchecked(e);
+                        }
+                    }
+                };
+            }
+            this.setter = cast(setter);
+        }
+
+        void read(DbfRecord record, Object target) throws IOException {
+            setter.accept(target, record.isNull(column) ? 0 : (int) record.getLong(column));
+        }
+
+        void write(Object source, DbfRecord record) throws IOException, DbfDataTruncateException {
+            record.set(column, Integer.toString(getter.applyAsInt(source)));
+        }
+    }
+
+    private static class LongBinding extends Binding {
+        private final ToLongFunction<Object> getter;
+        private final ObjLongConsumer<Object> setter;
+
+        LongBinding(int column, Accessor accessor) {
+            super(column);
+
+            Object getter = accessor.lambda(ToLongFunction.class, "applyAsLong", MethodType.methodType(long.class, Object.class), true, long.class);
+            if (getter == null) {
+                final MethodHandle handle = accessor.getter(long.class);
+                getter = new ToLongFunction<Object>() {
+                    public long applyAsLong(Object object) {
+                        try {
+                            return (long) handle.invokeExact(object);
+                        } catch (Throwable e) {
+                            throw unchecked(e);
+                        }
+                    }
+                };
+            }
+            this.getter = cast(getter);
+
+            Object setter = accessor.lambda(ObjLongConsumer.class, "accept", MethodType.methodType(void.class, Object.class, long.class), false, long.class);
+            if (setter == null) {
+                final MethodHandle handle = accessor.setter(long.class);
+                setter = new ObjLongConsumer<Object>() {
+                    public void accept(Object object, long value) {
+                        try {
+                            handle.invokeExact(object, value);
+                        } catch (Throwable e) {
+                            throw unchecked(e);
+                        }
+                    }
+                };
+            }
+            this.setter = cast(setter);
+        }
+
+        void read(DbfRecord record, Object target) throws IOException {
+            setter.accept(target, record.isNull(column) ? 0 : record.getLong(column));
+        }
+
+        void write(Object source, DbfRecord record) throws IOException, DbfDataTruncateException {
+            record.set(column, Long.toString(getter.applyAsLong(source)));
+        }
+    }
+
+    private static class DoubleBinding extends Binding {
+        private final DbfColumn dbfColumn;
+        private final ToDoubleFunction<Object> getter;
+        private final ObjDoubleConsumer<Object> setter;
+
+        DoubleBinding(int column, Accessor accessor, DbfColumn dbfColumn) {
+            super(column);
+            this.dbfColumn = dbfColumn;
+
+            Object getter = accessor.lambda(ToDoubleFunction.class, "applyAsDouble", MethodType.methodType(double.class, Object.class), true, double.class);
+            if (getter == null) {
+                final MethodHandle handle = accessor.getter(double.class);
+                getter = new ToDoubleFunction<Object>() {
+                    public double applyAsDouble(Object object) {
+                        try {
+                            return (double) handle.invokeExact(object);
+                        } catch (Throwable e) {
+                            throw unchecked(e);
+                        }
+                    }
+                };
+            }
+            this.getter = cast(getter);
+
+            Object setter = accessor.lambda(ObjDoubleConsumer.class, "accept", MethodType.methodType(void.class, Object.class, double.class), false, double.class);
+            if (setter == null) {
+                final MethodHandle handle = accessor.setter(double.class);
+                setter = new ObjDoubleConsumer<Object>() {
+                    public void accept(Object object, double value) {
+                        try {
+                            handle.invokeExact(object, value);
+                        } catch (Throwable e) {
+                            throw unchecked(e);
+                        }
+                    }
+                };
+            }
+            this.setter = cast(setter);
+        }
+
+        void read(DbfRecord record, Object target) throws IOException {
+            setter.accept(target, record.getDouble(column));
+        }
+
+        void write(Object source, DbfRecord record) throws IOException, DbfDataTruncateException {
+            setDouble(record, column, dbfColumn, getter.applyAsDouble(source));
+        }
+    }
+
+    private static class BooleanBinding extends Binding {
+        private final Predicate<Object> getter;
+        private final BiConsumer<Object, Object> setter;
+
+        BooleanBinding(int column, Accessor accessor) {
+            super(column);
+
+            Object getter = accessor.lambda(Predicate.class, "test", MethodType.methodType(boolean.class, Object.class), true, boolean.class);
+            if (getter == null) {
+                final MethodHandle handle = accessor.getter(boolean.class);
+                getter = new Predicate<Object>() {
+                    public boolean test(Object object) {
+                        try {
+                            return (boolean) handle.invokeExact(object);
+                        } catch (Throwable e) {
+                            throw unchecked(e);
+                        }
+                    }
+                };
+            }
+            this.getter = cast(getter);
+            // Boolean values are boxed to a cached instance and unboxed by the setter.
+            this.setter = objectSetter(accessor, Boolean.class);
+        }
+
+        void read(DbfRecord record, Object target) throws IOException {
+            setter.accept(target, record.getBoolean(column));
+        }
+
+        void write(Object source, DbfRecord record) throws IOException, DbfDataTruncateException {
+            record.set(column, getter.test(source) ? "T" : "F");
+        }
+    }
+
+    /**
+     * Binding of a field of an object type, decoded and encoded by a subclass.
+     */
+    private abstract static class ObjectBinding extends Binding {
+        private final Function<Object, Object> getter;
+        private final BiConsumer<Object, Object> setter;
+
+        ObjectBinding(int column, Accessor accessor) {
+            super(column);
+
+            Class<?> valueType = accessor.getter.type().returnType();
+            Object getter = accessor.lambda(Function.class, "apply", MethodType.methodType(Object.class, Object.class), true, valueType);
+            if (getter == null) {
+                final MethodHandle handle = accessor.getter(Object.class);
+                getter = new Function<Object, Object>() {
+                    public Object apply(Object object) {
+                        try {
+                            return handle.invokeExact(object);
+                        } catch (Throwable e) {
+                            throw unchecked(e);
+                        }
+                    }
+                };
+            }
+            this.getter = cast(getter);
+            this.setter = objectSetter(accessor, valueType);
+        }
+
+        abstract Object decode(DbfRecord record) throws IOException;
+
+        abstract void encode(DbfRecord record, Object value) throws IOException, DbfDataTruncateException;
+
+        void read(DbfRecord record, Object target) throws IOException {
+            setter.accept(target, decode(record));
+        }
+
+        void write(Object source, DbfRecord record) throws IOException, DbfDataTruncateException {
+            encode(record, getter.apply(source));
+        }
+    }
+
+    /**
+     * @return Setter that takes the value as an object of the given type, unboxed if the field is primitive.
+     */
+    private static BiConsumer<Object, Object> objectSetter(Accessor accessor, Class<?> valueType) {
+        Object setter = accessor.lambda(BiConsumer.class, "accept", MethodType.methodType(void.class, Object.class, Object.class), false, valueType);
+        if (setter == null) {
+            final MethodHandle handle = accessor.setter(Object.class);
+            setter = new BiConsumer<Object, Object>() {
+                public void accept(Object object, Object value) {
+                    try {
+                        handle.invokeExact(object, value);
+                    } catch (Throwable e) {
+                        throw unchecked(e);
+                    }
+                }
+            };
+        }
+        return cast(setter);
+    }
+}
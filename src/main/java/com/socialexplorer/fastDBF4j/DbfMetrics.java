@@ -0,0 +1,51 @@
+package com.socialexplorer.fastDBF4j;
+
+/**
+ * Receives measurements of DBF file I/O and value decoding. Set an implementation with
+ * {@link DbfFile#setMetrics(DbfMetrics)}, see {@link DbfMetricsRecorder} for one that keeps counters and latency
+ * histograms, and {@link com.socialexplorer.fastDBF4j.jfr.DbfJfrMetrics} for one that emits JDK Flight Recorder events. Without metrics (the default), instrumented code paths cost one null check.
+ * <p>
+ * Methods are called on the threads that use the file, so implementations must be fast, and thread-safe if
+ * several files or readers share them. Durations are in nanoseconds.
+ */
+public interface DbfMetrics {
+    /**
+     * Header of a file has been read and parsed.
+     */
+    void headerRead(long nanos);
+
+    /**
+     * Records have been read with read(), readNext(), readNextBlock() or readMany(), or by pack() and column updates.
+     */
+    void recordsRead(int count, long nanos);
+
+    /**
+     * Records have been written with write() or update(), or by pack(), column updates and DbfConcurrentAppender.
+     */
+    void recordsWritten(int count, long nanos);
+
+    /**
+     * Bytes have been read from the file.
+     */
+    void bytesRead(long bytes);
+
+    /**
+     * Bytes have been written to the file.
+     */
+    void bytesWritten(long bytes);
+
+    /**
+     * File position has been moved.
+     */
+    void seek();
+
+    /**
+     * A record has been served from memory instead of the file (e.g. a record waiting in the journal).
+     */
+    void cacheHit();
+
+    /**
+     * A field value has been decoded from record bytes.
+     */
+    void valueDecoded(DbfColumn.DbfColumnType columnType, long nanos);
+}
@@ -0,0 +1,181 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics implementation that keeps counters and latency histograms in memory. It is thread-safe and can be shared
+ * by any number of files. Read the values periodically to export them, e.g. bind the getters to Micrometer
+ * FunctionCounters and Gauges. For JDK Flight Recorder, use {@link com.socialexplorer.fastDBF4j.jfr.DbfJfrMetrics}.
+ */
+public class DbfMetricsRecorder implements DbfMetrics {
+    private final Histogram headerReads = new Histogram();
+    private final Histogram recordReads = new Histogram();
+    private final Histogram recordWrites = new Histogram();
+    private final LongAdder recordsRead = new LongAdder();
+    private final LongAdder recordsWritten = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder seeks = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final Map<DbfColumn.DbfColumnType, Histogram> decodes;
+
+    public DbfMetricsRecorder() {
+        decodes = new EnumMap<DbfColumn.DbfColumnType, Histogram>(DbfColumn.DbfColumnType.class);
+        for (DbfColumn.DbfColumnType columnType : DbfColumn.DbfColumnType.values()) {
+            decodes.put(columnType, new Histogram());
+        }
+    }
+
+    public void headerRead(long nanos) {
+        headerReads.record(nanos);
+    }
+
+    public void recordsRead(int count, long nanos) {
+        recordsRead.add(count);
+        recordReads.record(nanos);
+    }
+
+    public void recordsWritten(int count, long nanos) {
+        recordsWritten.add(count);
+        recordWrites.record(nanos);
+    }
+
+    public void bytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public void seek() {
+        seeks.increment();
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void valueDecoded(DbfColumn.DbfColumnType columnType, long nanos) {
+        decodes.get(columnType).record(nanos);
+    }
+
+    /**
+     * @return Latency of header reads.
+     */
+    public Histogram getHeaderReads() {
+        return headerReads;
+    }
+
+    /**
+     * @return Latency of record read calls, one sample per call (a block read is one sample).
+     */
+    public Histogram getRecordReads() {
+        return recordReads;
+    }
+
+    /**
+     * @return Latency of record write calls.
+     */
+    public Histogram getRecordWrites() {
+        return recordWrites;
+    }
+
+    /**
+     * @param columnType Column type.
+     * @return Latency of decoding values of the column type.
+     */
+    public Histogram getDecodes(DbfColumn.DbfColumnType columnType) {
+        return decodes.get(columnType);
+    }
+
+    public long getRecordsRead() {
+        return recordsRead.sum();
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten.sum();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getSeeks() {
+        return seeks.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * Latency histogram with power of two buckets: bucket i counts durations in [2^(i-1), 2^i) nanoseconds,
+     * bucket 0 counts zero durations. Recording is lock-free and costs a few atomic adds.
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        /**
+         * @return Number of samples.
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return Sum of all durations.
+         */
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        /**
+         * @param index Bucket index, 0 to 63.
+         * @return Number of samples in the bucket.
+         */
+        public long getBucketCount(int index) {
+            return buckets.get(index);
+        }
+
+        /**
+         * @param quantile Quantile between 0 and 1, e.g. 0.99.
+         * @return Upper bound of the bucket that holds the quantile, within a factor of two of the actual value;
+         *         0 if there are no samples.
+         */
+        public long getQuantileNanos(double quantile) {
+            long total = 0;
+            for (int i = 0; i < 64; i++) {
+                total += buckets.get(i);
+            }
+
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.io.IOException;
+
+/**
+ * Receives objects read by {@link DbfMapper#readAll(DbfFile, DbfObjectHandler)}.
+ */
+public interface DbfObjectHandler<T> {
+    /**
+     * @param object New object with the values of the record.
+     * @throws IOException Thrown by the handler to stop reading, it is passed on to the caller.
+     */
+    void handle(T object) throws IOException;
+}
@@ -0,0 +1,266 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Scans the records of a file with reading and decoding overlapped. A background thread reads large blocks of
+ * records into a ring of reusable buffers, while the caller decodes the records of a block that is already read.
+ * With a queue depth of 2, the thread reads up to two blocks ahead of the block the caller is working on.
+ * <pre>
+ *     DbfPrefetchReader reader = dbfFile.prefetch();
+ *     try {
+ *         DbfRecord record = new DbfRecord(dbfFile.getHeader());
+ *         while (reader.next(record)) {
+ *             total += record.getDouble(populationColumn);
+ *         }
+ *     } finally {
+ *         reader.close();
+ *     }
+ * </pre>
+ * Blocks can also be decoded a column at a time, with {@link #nextBlock()} and {@link DbfBatchDecoder}.
+ * <p>
+ * The reader uses its own file handle, so it does not change the position of the DbfFile it was created from.
+ * A reader must not be shared by threads.
+ */
+public class DbfPrefetchReader {
+    /**
+     * Default number of blocks read ahead of the block being decoded.
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 2;
+
+    private final int recordLength;
+    private final DbfBlockReader reader;
+    private final Thread thread;
+
+    /**
+     * Buffers ready to be filled by the background thread.
+     */
+    private final BlockingQueue<Block> free;
+
+    /**
+     * Buffers filled by the background thread, in file order, followed by a block without records at the end.
+     */
+    private final BlockingQueue<Block> filled;
+
+    private volatile boolean closed = false;
+
+    private Block current = null;
+    private int position = 0;
+    private long recordIndex;
+    private boolean finished = false;
+
+    /**
+     * Scan all records of a file, in blocks of the I/O buffer size of its configuration.
+     *
+     * @param source Opened DBF file.
+     * @exception IllegalStateException If the file is not opened.
+     * @throws IOException If the file can not be opened for reading.
+     */
+    public DbfPrefetchReader(DbfFile source) throws IOException {
+        this(source, 0, source.getHeader().getConfiguration().getIoBufferSize(), DEFAULT_QUEUE_DEPTH);
+    }
+
+    /**
+     * Scan the records of a file from firstRecord to the end.
+     *
+     * @param source Opened DBF file.
+     * @param firstRecord Index of the first record.
+     * @param blockSize Size of a block in bytes, rounded down to whole records.
+     * @param queueDepth Number of blocks read ahead of the block being decoded.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception IllegalArgumentException If the first record is negative, or the block size or queue depth is not positive.
+     * @throws IOException If the file can not be opened for reading.
+     */
+    public DbfPrefetchReader(DbfFile source, long firstRecord, int blockSize, int queueDepth) throws IOException {
+        if (source.dbfFile == null) {
+            throw new IllegalStateException("Source file is not opened.");
+        }
+        if (firstRecord < 0) {
+            throw new IllegalArgumentException("First record can not be negative.");
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive.");
+        }
+        if (queueDepth <= 0) {
+            throw new IllegalArgumentException("Queue depth must be positive.");
+        }
+
+        DbfHeader header = source.getHeader();
+        this.recordLength = header.getRecordLength();
+        this.recordIndex = firstRecord;
+
+        long recordCount = Math.max(0, source.countRecordsInFile() - firstRecord);
+        this.reader = DbfBlockReader.open(source, firstRecord, recordCount, blockSize);
+
+        // One buffer is decoded while queueDepth buffers are read ahead. The reader's own buffer is one of them.
+        this.free = new ArrayBlockingQueue<Block>(queueDepth + 1);
+        this.filled = new ArrayBlockingQueue<Block>(queueDepth + 2);
+        free.add(new Block(reader.getBuffer()));
+        for (int i = 0; i < queueDepth; i++) {
+            free.add(new Block(new byte[reader.getBuffer().length]));
+        }
+
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                readAhead();
+            }
+        }, "DbfPrefetchReader " + source.getFilePath());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @param fillRecord Record to fill, must have the same structure as the header of the file.
+     * @return true if a record was read, false at the end of the file.
+     * @exception IllegalStateException If the reader is closed, or the record does not match the header.
+     * @throws IOException If an I/O error occurs in the background thread.
+     */
+    public boolean next(DbfRecord fillRecord) throws IOException {
+        if (fillRecord.getHeader().getRecordLength() != recordLength) {
+            throw new IllegalStateException("Record parameter does not have the same size as the header specifies.");
+        }
+
+        if (current == null || position == current.records) {
+            if (nextBlock() == 0) {
+                return false;
+            }
+            position = 0;
+        }
+
+        System.arraycopy(current.data, position * recordLength, fillRecord.getData(), 0, recordLength);
+        fillRecord.setRecordIndex(recordIndex - current.records + position);
+        position++;
+        return true;
+    }
+
+    /**
+     * Move to the next block of records. The buffer of the previous block is handed back to the background thread,
+     * so it must not be used any more. Records of the current block that were not read with next() are skipped.
+     *
+     * @return Number of records in the block, 0 at the end of the file.
+     * @exception IllegalStateException If the reader is closed.
+     * @throws IOException If an I/O error occurs in the background thread.
+     */
+    public int nextBlock() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Reader is closed.");
+        }
+        if (finished) {
+            return 0;
+        }
+
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+
+        Block block;
+        try {
+            block = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Waiting for the next block was interrupted.");
+        }
+
+        if (block.records == 0) {
+            finished = true;
+            if (block.error != null) {
+                throw new IOException("Reading records failed.", block.error);
+            }
+            return 0;
+        }
+
+        current = block;
+        position = block.records;
+        recordIndex += block.records;
+        return block.records;
+    }
+
+    /**
+     * @return Buffer holding the records of the current block, starting at offset 0. Valid until the next call to nextBlock().
+     */
+    public byte[] getBlock() {
+        return current == null ? null : current.data;
+    }
+
+    /**
+     * @return Index of the first record of the current block.
+     */
+    public long getBlockRecordIndex() {
+        return current == null ? recordIndex : recordIndex - current.records;
+    }
+
+    /**
+     * Stop the background thread and close the file.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Waiting for the prefetch thread was interrupted.");
+        }
+    }
+
+    /**
+     * Body of the background thread: fill free buffers in file order until the end of the records.
+     */
+    private void readAhead() {
+        Throwable error = null;
+        try {
+            while (!closed) {
+                Block block = free.take();
+                block.records = reader.next(block.data);
+                if (block.records == 0) {
+                    free.add(block);
+                    break;
+                }
+                filled.put(block);
+            }
+        } catch (InterruptedException e) {
+            // Closed while waiting for a free buffer.
+        } catch (Throwable e) {
+            error = e;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+
+        if (!closed) {
+            // The queue has room for the end marker, it holds at most all buffers.
+            Block end = new Block(null);
+            end.error = error;
+            filled.add(end);
+        }
+    }
+
+    /**
+     * Buffer of the ring.
+     */
+    private static class Block {
+        final byte[] data;
+        int records = 0;
+        Throwable error = null;
+
+        Block(byte[] data) {
+            this.data = data;
+        }
+    }
+}
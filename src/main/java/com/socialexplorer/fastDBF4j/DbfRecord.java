@@ -1,7 +1,6 @@
 package com.socialexplorer.fastDBF4j;
 
 import com.socialexplorer.fastDBF4j.exceptions.DbfDataTruncateException;
-import com.socialexplorer.fastDBF4j.util.ByteUtils;
 import com.socialexplorer.fastDBF4j.util.Configuration;
 import com.socialexplorer.fastDBF4j.util.FileReader;
 import org.apache.commons.lang.NotImplementedException;
@@ -9,7 +8,7 @@ import org.apache.commons.lang.NotImplementedException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 
 /***
@@ -34,7 +33,7 @@ public class DbfRecord {
     /***
      * Zero based record index. -1 when not set, new records for example.
      */
-    private int recordIndex = -1;
+    private long recordIndex = -1;
 
     /***
      * Empty Record array reference used to clear fields quickly (or entire record).
@@ -59,15 +58,6 @@ public class DbfRecord {
      */
     private boolean allowIntegerTruncate = false;
 
-    /***
-     * Array used to clear decimals, we can clear up to 40 decimals which is much more
-     * than is allowed under DBF spec anyway.
-     * Note: 48 is ASCII code for 0.
-     */
-    private static final byte[] DECIMAL_CLEAR = new byte[] {48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48,
-                                                                48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48,
-                                                                48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48, 48};
-
     /***
      *
      * @param header Dbf Header will be locked once a record is created since the record size
@@ -98,208 +88,19 @@ public class DbfRecord {
      * @throws DbfDataTruncateException If value length exceeds column length and string truncating is not allowed.
      */
     public void set(int colIndex, String value) throws DbfDataTruncateException, IOException {
-        DbfColumn column = header.get(colIndex);
-        DbfColumn.DbfColumnType columnType = column.getColumnType();
+        DbfColumnCodec codec = header.getCodec(colIndex);
 
         // if an empty value is passed, we just clear the data, and leave it blank.
         // note: tests have shown that testing for null and checking length is faster than comparing to "" empty str :)
         if (value == null) {
-            String nullValue = columnType.getNullValue();
-            if (nullValue == null) {
-                System.arraycopy(emptyRecord, column.getDataAddress(), data, column.getDataAddress(), column.getLength());
-            } else {
-                byte[] valueBytes = nullValue.getBytes(header.getConfiguration().getEncodingName());
-
-                if (valueBytes.length > column.getLength()) {
-                    throw new DbfDataTruncateException("Trying to write null value as: " + nullValue + " but it exceeds column length.");
-                }
-                // First clear the previous value, then set the new one.
-                System.arraycopy(emptyRecord, column.getDataAddress(), data, column.getDataAddress(), column.getLength());
-                System.arraycopy(valueBytes, 0, data, column.getDataAddress(), valueBytes.length);
-            }
+            codec.setNull(data);
         } else if (value.length() == 0) {
             // This is like NULL data, set it to empty. I looked at SAS DBF output when a null value exists
             // and empty data are output. we get the same result, so this looks good.
-            System.arraycopy(emptyRecord, column.getDataAddress(), data, column.getDataAddress(), column.getLength());
+            codec.clear(data);
         } else {
-            /**
-             * --------------------------------------------------------
-             * set value according to data type:
-             * CHARACTER, NUMBER, INTEGER, MEMO, BOOLEAN, DATE, BINARY
-             * --------------------------------------------------------
-             */
-            /**
-             * -----------------------
-             * CHARACTER
-             * -----------------------
-             */
-            if (columnType == DbfColumn.DbfColumnType.CHARACTER) {
-                int valueByteLength = value.getBytes(header.getConfiguration().getEncodingName()).length;
-
-                if (!allowStringTruncate && valueByteLength > column.getLength()) {
-                    throw new DbfDataTruncateException("Value exceeds column length. String truncation would occur " +
-                            "and AllowStringTruncate flag is set to false. " +
-                            "To suppress this exception change AllowStringTruncate to true.");
-                }
-
-                // First clear the previous value, then set the new one.
-                System.arraycopy(emptyRecord, column.getDataAddress(), data, column.getDataAddress(), column.getLength());
-
-                int trimmedValueLength = valueByteLength > column.getLength() ? column.getLength() : valueByteLength;
-                byte[] valueBytes = value.getBytes(header.getConfiguration().getEncodingName());
-
-                System.arraycopy(valueBytes, 0, data, column.getDataAddress(), trimmedValueLength);
-            }
-            /**
-             * -----------------------
-             * NUMBER
-             * -----------------------
-             */
-            else if (columnType == DbfColumn.DbfColumnType.NUMBER) {
-                if (column.getDecimalCount() == 0) {
-
-                    //integers
-                    //----------------------------------
-
-                    //throw an exception if integer overflow would occur
-                    if (!allowIntegerTruncate && value.length() > column.getLength()) {
-                        throw new DbfDataTruncateException("Value not set. Integer does not fit and would be truncated. " +
-                                "AllowIntegerTruncate is set to false. To suppress this exception set allowIntegerTruncate " +
-                                "to true, although that is not recommended.");
-                    }
-
-                    //clear all numbers, set to [space].
-                    //-----------------------------------------------------
-                    System.arraycopy(emptyRecord, 0, data, column.getDataAddress(), column.getLength());
-                    //Buffer.BlockCopy(emptyRecord, 0, data, ocol.getDataAddress(), ocol.Length());
-
-
-                    //set integer part, CAREFUL not to overflow buffer! (truncate instead)
-                    //-----------------------------------------------------------------------
-                    int nNumLen = value.length() > column.getLength() ? column.getLength() : value.length();
-                    byte[] valueBytes = value.substring(0, nNumLen).getBytes(header.getConfiguration().getEncodingName());
-
-                    System.arraycopy(valueBytes, 0, data, (column.getDataAddress() + column.getLength() - nNumLen), valueBytes.length);
-                } else {
-                    //break value down into integer and decimal portions
-                    int indexDecimal = value.indexOf('.'); //index where the decimal point occurs
-                    char[] cDec = null; //decimal portion of the number
-                    char[] cNum = null; //integer portion
-
-                    if (indexDecimal > -1) {
-                        cDec = value.substring(indexDecimal + 1).trim().toCharArray();
-                        cNum = value.substring(0, indexDecimal).toCharArray();
-
-                        //throw an exception if decimal overflow would occur
-                        if (!allowDecimalTruncate && cDec.length > column.getDecimalCount())
-                            throw new DbfDataTruncateException("Value not set. Decimal does not fit and would be truncated. " +
-                                    "AllowDecimalTruncate is set to false. " +
-                                    "To suppress this exception set AllowDecimalTruncate to true.");
-
-                    } else
-                        cNum = value.toCharArray();
-
-
-                    //throw an exception if integer overflow would occur
-                    if (!allowIntegerTruncate && cNum.length > column.getLength() - column.getDecimalCount() - 1)// -1 for the decimal point
-                        throw new DbfDataTruncateException("Value not set. Integer does not fit and would be truncated. " +
-                                "AllowIntegerTruncate is set to false. " +
-                                "To suppress this exception set AllowIntegerTruncate to true, although that is not recommended.");
-
-
-                    // Clear all decimals, set to 0.
-                    //-----------------------------------------------------
-                    System.arraycopy(DECIMAL_CLEAR, 0, data, (column.getDataAddress() + column.getLength() - column.getDecimalCount()), column.getDecimalCount());
-                    //clear all numbers, set to [space].
-                    System.arraycopy(emptyRecord, 0, data, column.getDataAddress(), (column.getLength() - column.getDecimalCount()));
-
-                    //set decimal numbers, CAREFUL not to overflow buffer! (truncate instead)
-                    if (indexDecimal > -1) {
-                        int decimalLength = cDec.length > column.getDecimalCount() ? column.getDecimalCount() : cDec.length;
-                        byte[] valueBytes = value.substring(value.indexOf('.') + 1, value.indexOf('.') + decimalLength + 1).getBytes(header.getConfiguration().getEncodingName());
-                        System.arraycopy(valueBytes, 0, data, (column.getDataAddress() + column.getLength() - column.getDecimalCount()), valueBytes.length);
-                    }
-
-                    //set integer part, CAREFUL not to overflow buffer! (truncate instead)
-                    //-----------------------------------------------------------------------
-                    int nNumLen = cNum.length > column.getLength() - column.getDecimalCount() - 1 ? (column.getLength() - column.getDecimalCount() - 1) : cNum.length;
-                    byte[] valueBytes = value.substring(0, nNumLen).getBytes(header.getConfiguration().getEncodingName());
-                    System.arraycopy(valueBytes, 0, data, (column.getDataAddress() + column.getLength() - column.getDecimalCount() - nNumLen - 1), valueBytes.length);
-
-                    //set decimal point
-                    //-----------------------------------------------------------------------
-                    data[column.getDataAddress() + column.getLength() - column.getDecimalCount() - 1] = (byte) '.';
-                }
-            }
-            /**
-             * -----------------------
-             * INTEGER
-             * -----------------------
-             */
-            else if (columnType == DbfColumn.DbfColumnType.INTEGER) {
-                // NOTE: INTEGER types are written as BINARY 4-byte LITTLE endian integers
-
-                int intValue = Integer.parseInt(value);
-                intValue = ByteUtils.swap(intValue); // to get little endian
-
-                byte[] valueBytes = ByteUtils.int2byte(intValue);
-                System.arraycopy(valueBytes, 0, data, column.getDataAddress(), 4);
-
-            }
-            /**
-             * -----------------------
-             * MEMO
-             * -----------------------
-             */
-            else if (columnType == DbfColumn.DbfColumnType.MEMO) {
-                // copy 10 digits TODO
-                throw new NotImplementedException("Memo data type functionality not implemented yet!");
-            }
-            /**
-             * -----------------------
-             * BOOLEAN
-             * -----------------------
-             */
-            else if (columnType == DbfColumn.DbfColumnType.BOOLEAN) {
-                if (value.toLowerCase().equals("true")   || value.toLowerCase().equals("1") ||
-                    value.toUpperCase().equals("T")      || value.toLowerCase().equals("yes") ||
-                    value.toUpperCase().equals("Y")) {
-                    data[column.getDataAddress()] = (byte) 'T';
-                }
-                else if (value.equals(" ") || value.equals("?")) {
-                    data[column.getDataAddress()] = (byte) '?';
-                }
-                else {
-                    data[column.getDataAddress()] = (byte) 'F';
-                }
-
-            }
-            /**
-             * -----------------------
-             * DATE
-             * -----------------------
-             */
-            else if (columnType == DbfColumn.DbfColumnType.DATE) {
-                // Try to parse out date value then set the value.
-                Date dateVal;
-                try {
-                    dateVal = SimpleDateFormat.getInstance().parse(value);
-                    setDateValue(colIndex, dateVal);
-                } catch(Exception e) {
-                    throw new IllegalArgumentException("Date could not be parsed from source string.");
-                }
-
-            }
-            /**
-             * -----------------------
-             * BINARY
-             * -----------------------
-             */
-            else if (columnType == DbfColumn.DbfColumnType.BINARY) {
-                throw new UnsupportedOperationException("Cannot use string source to set binary data. Use setBinaryValue() and getBinaryValue() functions instead.");
-            } else {
-                throw new UnsupportedOperationException("Unrecognized data type: " + columnType.toString());
-            }
+            // the codec of the column knows how to encode values of its type
+            codec.set(this, data, value);
         }
     }
 
@@ -310,64 +111,131 @@ public class DbfRecord {
      * @exception IOException If an I/O error occurs while trying to swap integer bytes from little to big endian.
      */
     public String get(int colIndex) throws IOException {
-        DbfColumn column = header.get(colIndex);
-        String val = "";
+        DbfColumnCodec codec = header.getCodec(colIndex);
+        DbfMetrics metrics = header.getConfiguration().getMetrics();
+        if (metrics == null) {
+            return codec.get(data);
+        }
 
-        // NOTE: integer types are written as BINARY - 4-byte little endian integers
-        if (column.getColumnType() == DbfColumn.DbfColumnType.INTEGER) {
-            byte[] intBytes = new byte[4];
-            System.arraycopy(data, column.getDataAddress(), intBytes, 0, 4);
+        long start = System.nanoTime();
+        String val = codec.get(data);
+        metrics.valueDecoded(codec.type, System.nanoTime() - start);
+        return val;
+    }
 
-            val = Integer.toString(ByteUtils.swap(ByteUtils.byte2int(intBytes))); // swap to get big endian
-        } else {
-            val = new String(data, column.getDataAddress(), column.getLength(), header.getConfiguration().getEncodingName());
+    /***
+     * Get value of a numeric column (NUMBER, FLOAT, INTEGER, DOUBLE or CURRENCY) without creating String objects.
+     * @param colIndex Index of the column.
+     * @return Value of the column, or NaN if the value is blank or null.
+     * @exception UnsupportedOperationException If the column is not numeric.
+     * @exception NumberFormatException If the value is not a number.
+     * @throws UnsupportedEncodingException If the set encoding is not supported or valid.
+     */
+    public double getDouble(int colIndex) throws UnsupportedEncodingException {
+        DbfColumnCodec codec = header.getCodec(colIndex);
+        DbfMetrics metrics = header.getConfiguration().getMetrics();
+        if (metrics == null) {
+            return codec.getDouble(data);
+        }
+
+        long start = System.nanoTime();
+        double value = codec.getDouble(data);
+        metrics.valueDecoded(codec.type, System.nanoTime() - start);
+        return value;
+    }
 
-            if (column.getColumnType().isNullValue(val)) val = "";
+    /***
+     * Get value of an integer column (NUMBER without decimals or INTEGER) without creating String objects.
+     * Check for blank or null values with {@link #isNull(int)} first.
+     * @param colIndex Index of the column.
+     * @return Value of the column.
+     * @exception UnsupportedOperationException If the column is not an integer column.
+     * @exception NumberFormatException If the value is blank or not an integer.
+     */
+    public long getLong(int colIndex) {
+        DbfColumnCodec codec = header.getCodec(colIndex);
+        DbfMetrics metrics = header.getConfiguration().getMetrics();
+        if (metrics == null) {
+            return codec.getLong(data);
         }
 
-        return val;
+        long start = System.nanoTime();
+        long value = codec.getLong(data);
+        metrics.valueDecoded(codec.type, System.nanoTime() - start);
+        return value;
     }
 
     /***
-     * Get date value.
+     * @param colIndex Index of the column.
+     * @return true if the value of the column is blank or equals the null value of the column type.
+     * @throws UnsupportedEncodingException If the set encoding is not supported or valid.
+     */
+    public boolean isNull(int colIndex) throws UnsupportedEncodingException {
+        return header.getCodec(colIndex).isNull(data);
+    }
+
+    /***
+     * Get the raw bytes of a column, e.g. of a BINARY column or the NULL_FLAGS system column of Visual FoxPro files.
+     * @param colIndex Index of the column.
+     * @return Copy of the bytes of the field.
+     */
+    public byte[] getBinaryValue(int colIndex) {
+        DbfColumn column = header.get(colIndex);
+        return Arrays.copyOfRange(data, column.getDataAddress(), column.getDataAddress() + column.getLength());
+    }
+
+    /***
+     * Get value of a BOOLEAN column without creating String objects.
+     * @param colIndex Index of the column.
+     * @return true if the value is T or Y, false otherwise, also if it is ? (not initialized) or blank.
+     * @exception UnsupportedOperationException If the column is not a boolean column.
+     */
+    public boolean getBoolean(int colIndex) {
+        return header.getCodec(colIndex).getBoolean(data);
+    }
+
+    /***
+     * Get date value of a DATE or DATETIME column.
      * @param columnIndex Index of the column.
-     * @return Date in column with index of the current record.
+     * @return Date in column with index of the current record, null if a DATETIME column is blank.
      * @throws UnsupportedEncodingException If the set encoding is not supported or valid.
      * @throws ParseException If trying to parse invalid date string.
      * @exception UnsupportedOperationException If trying to set date in a column that is not of date type
      */
     public Date getDateValue(int columnIndex) throws UnsupportedEncodingException, ParseException {
-        DbfColumn column = header.get(columnIndex);
-
-        if (column.getColumnType() == DbfColumn.DbfColumnType.DATE) {
-            String sDateVal = new String(data, column.getDataAddress(), column.getLength(), header.getConfiguration().getEncodingName());
-            SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
-            return format.parse(sDateVal);
-        } else {
-            throw new UnsupportedOperationException("Invalid data type. Column '" + column.getName() + "' is not a date column.");
+        DbfColumnCodec codec = header.getCodec(columnIndex);
+        DbfMetrics metrics = header.getConfiguration().getMetrics();
+        if (metrics == null) {
+            return codec.getDate(data);
         }
+
+        long start = System.nanoTime();
+        Date date = codec.getDate(data);
+        metrics.valueDecoded(codec.type, System.nanoTime() - start);
+        return date;
     }
 
     /**
-     * Set date value.
+     * Set date value of a DATE or DATETIME column.
      * @param nColIndex Index of the column in which to set the date.
      * @param value Date value as string.
      * @throws UnsupportedEncodingException If the set encoding is not supported or valid.
      * @exception UnsupportedOperationException If trying to set date in a column that is not of date type.
      */
     public void setDateValue(int nColIndex, Date value) throws UnsupportedEncodingException {
-        DbfColumn column = header.get(nColIndex);
-        DbfColumn.DbfColumnType columnType = column.getColumnType();
-
-        if (columnType == DbfColumn.DbfColumnType.DATE) {
-            // Format date and set value. Date format is: yyyyMMdd
-            String formattedValue = (new SimpleDateFormat("yyyyMMdd")).format(value);
-            byte[] bytes = formattedValue.substring(0, column.getLength()).getBytes(header.getConfiguration().getEncodingName());
+        header.getCodec(nColIndex).setDate(data, value);
+    }
 
-            System.arraycopy(bytes, 0, data, column.getDataAddress(), bytes.length);
-        } else {
-            throw new UnsupportedOperationException("Invalid data type. Column is of '" + column.getColumnType().toString() + "' type, not date.");
-        }
+    /***
+     * Set value of a DOUBLE or CURRENCY column without creating String objects.
+     * @param colIndex Index of the column.
+     * @param value Value of the column, NaN clears the field (it is read back as null).
+     * @exception UnsupportedOperationException If the column is not a DOUBLE or CURRENCY column.
+     * @exception IllegalArgumentException If the value does not fit into a CURRENCY column.
+     * @throws UnsupportedEncodingException If the set encoding is not supported or valid.
+     */
+    public void setDouble(int colIndex, double value) throws UnsupportedEncodingException {
+        header.getCodec(colIndex).setDouble(data, value);
     }
 
     /***
@@ -401,17 +269,17 @@ public class DbfRecord {
      /// count how many records were read, and that's exactly what CDbfFile does.
      * @return
      */
-    public int getRecordIndex() {
+    public long getRecordIndex() {
         return recordIndex;
     }
 
-    public void setRecordIndex(int recordIndex) {
+    public void setRecordIndex(long recordIndex) {
         this.recordIndex = recordIndex;
     }
 
     /***
      * Returns/sets flag indicating whether this record was tagged deleted.
-     * Use CDbf4File.Compress() function to rewrite dbf removing records flagged as deleted.
+     * Use DbfFile.pack() function to rewrite dbf removing records flagged as deleted.
      * @return
      */
     public boolean getIsDeleted() {
@@ -537,8 +405,15 @@ public class DbfRecord {
      * @throws IOException If an I/O error occurs.
      */
     protected boolean read(FileReader dbfFile) throws IOException {
-        if(dbfFile.read(data, 0, data.length) < data.length) {
-            return false;
+        // a single read may return less than asked for, which is likely for wide records (up to 65535 bytes),
+        // so keep reading until the record is complete or the file ends.
+        int bytesRead = 0;
+        while (bytesRead < data.length) {
+            int count = dbfFile.read(data, bytesRead, data.length - bytesRead);
+            if (count < 0) {
+                return false;
+            }
+            bytesRead += count;
         }
         return true;
     }
@@ -554,6 +429,13 @@ public class DbfRecord {
         return new String(data, column.getDataAddress(), column.getLength(), header.getConfiguration().getEncodingName());
     }
 
+    /**
+     * @return Raw record data, including the deleted flag. This is the internal buffer, not a copy.
+     */
+    byte[] getData() {
+        return data;
+    }
+
     public void setData(byte[] data) {
         this.data = data;
     }
@@ -0,0 +1,239 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.util.ByteUtils;
+
+import java.util.Comparator;
+
+/**
+ * Compares DBF records by one or more key columns, working directly on raw record bytes so no values are decoded
+ * into String objects. Used for sorting records, in memory or on disk (see {@link DbfSorter}).
+ *
+ * Column types are compared as follows:
+ * - NUMBER and FLOAT: numeric value, blank and invalid fields (e.g. the '*****' overflow marker) come first.
+ *   Plain decimal numbers are compared digit by digit, so identifiers of up to 20 digits keep their exact order;
+ *   numbers in scientific notation are compared as doubles.
+ * - INTEGER: 4 byte little endian integer value.
+ * - DOUBLE, CURRENCY and DATETIME (Visual FoxPro): 8 byte little endian value, blank fields come first.
+ * - all other types: unsigned byte by byte, which is the natural order for character data (trailing blanks
+ *   included) and dates (YYYYMMDD).
+ */
+public class DbfRecordComparator implements Comparator<DbfRecord> {
+    /**
+     * Offsets of key columns from the start of the record.
+     */
+    private final int[] addresses;
+
+    /**
+     * Lengths of key columns.
+     */
+    private final int[] lengths;
+
+    /**
+     * Types of key columns.
+     */
+    private final DbfColumn.DbfColumnType[] types;
+
+    /**
+     * -1 for descending key columns, 1 for ascending.
+     */
+    private final int[] directions;
+
+    /**
+     * Create a comparator that sorts records ascending by the given columns.
+     *
+     * @param header Header of the records being compared.
+     * @param columnNames Key column names, most significant first.
+     * @exception IllegalArgumentException If a column does not exist or no columns are given.
+     */
+    public DbfRecordComparator(DbfHeader header, String... columnNames) {
+        this(header, columnNames, new boolean[columnNames.length]);
+    }
+
+    /**
+     * Create a comparator that sorts records by the given columns.
+     *
+     * @param header Header of the records being compared.
+     * @param columnNames Key column names, most significant first.
+     * @param descending For each key column, true to sort descending, false to sort ascending.
+     * @exception IllegalArgumentException If a column does not exist, no columns are given or the number of
+     *                                     sort directions does not match the number of columns.
+     */
+    public DbfRecordComparator(DbfHeader header, String[] columnNames, boolean[] descending) {
+        if (columnNames.length == 0) {
+            throw new IllegalArgumentException("At least one key column is required.");
+        }
+        if (columnNames.length != descending.length) {
+            throw new IllegalArgumentException("Sort direction must be specified for every key column.");
+        }
+
+        addresses = new int[columnNames.length];
+        lengths = new int[columnNames.length];
+        types = new DbfColumn.DbfColumnType[columnNames.length];
+        directions = new int[columnNames.length];
+
+        for (int i = 0; i < columnNames.length; i++) {
+            DbfColumn column = header.getColumn(columnNames[i]);
+            if (column == null) {
+                throw new IllegalArgumentException("Column '" + columnNames[i] + "' does not exist.");
+            }
+
+            addresses[i] = column.getDataAddress();
+            lengths[i] = column.getLength();
+            types[i] = column.getColumnType();
+            directions[i] = descending[i] ? -1 : 1;
+        }
+    }
+
+    /**
+     * Compare two records stored in byte arrays.
+     *
+     * @param a Buffer holding the first record.
+     * @param aOffset Offset of the first record in the buffer.
+     * @param b Buffer holding the second record.
+     * @param bOffset Offset of the second record in the buffer.
+     * @return Negative number, zero or positive number if the first record is less than, equal to,
+     *         or greater than the second record.
+     */
+    public int compare(byte[] a, int aOffset, byte[] b, int bOffset) {
+        for (int i = 0; i < addresses.length; i++) {
+            int aField = aOffset + addresses[i];
+            int bField = bOffset + addresses[i];
+            int result;
+
+            if (types[i] == DbfColumn.DbfColumnType.NUMBER || types[i] == DbfColumn.DbfColumnType.FLOAT) {
+                result = compareNumbers(a, aField, b, bField, lengths[i]);
+            } else if (types[i] == DbfColumn.DbfColumnType.INTEGER) {
+                int aValue = ByteUtils.getLittleEndianInt(a, aField);
+                int bValue = ByteUtils.getLittleEndianInt(b, bField);
+                result = aValue < bValue ? -1 : (aValue == bValue ? 0 : 1);
+            } else if (types[i].isVisualFoxPro()) {
+                result = compareValues(DbfColumn.getBinaryNumber(types[i], a, aField), DbfColumn.getBinaryNumber(types[i], b, bField));
+            } else {
+                result = compareBytes(a, aField, b, bField, lengths[i]);
+            }
+
+            if (result != 0) {
+                return result * directions[i];
+            }
+        }
+
+        return 0;
+    }
+
+    public int compare(DbfRecord a, DbfRecord b) {
+        return compare(a.getData(), 0, b.getData(), 0);
+    }
+
+    private static int compareBytes(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            int result = (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareNumbers(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int aStart = trimStart(a, aOffset, aOffset + length);
+        int aEnd = trimEnd(a, aStart, aOffset + length);
+        int bStart = trimStart(b, bOffset, bOffset + length);
+        int bEnd = trimEnd(b, bStart, bOffset + length);
+
+        if (isPlainDecimal(a, aStart, aEnd) && isPlainDecimal(b, bStart, bEnd)) {
+            return compareDecimals(a, aStart, aEnd, b, bStart, bEnd);
+        }
+
+        // Blanks, invalid values and scientific notation. Doubles lose digits beyond 2^53, but such fields
+        // are rare outside of plain decimal numbers.
+        return compareValues(ByteUtils.parseDoubleOrNaN(a, aOffset, length), ByteUtils.parseDoubleOrNaN(b, bOffset, length));
+    }
+
+    /**
+     * Compare two plain decimal numbers exactly: sign, then the integer digits without leading zeros
+     * (more digits is larger), then the fraction digits without trailing zeros.
+     */
+    private static int compareDecimals(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+        boolean aNegative = a[aStart] == '-';
+        boolean bNegative = b[bStart] == '-';
+        if (a[aStart] == '-' || a[aStart] == '+') aStart++;
+        if (b[bStart] == '-' || b[bStart] == '+') bStart++;
+
+        int aPoint = indexOfPoint(a, aStart, aEnd);
+        int bPoint = indexOfPoint(b, bStart, bEnd);
+        while (aStart < aPoint && a[aStart] == '0') aStart++;
+        while (bStart < bPoint && b[bStart] == '0') bStart++;
+        while (aEnd > aPoint && (a[aEnd - 1] == '0' || a[aEnd - 1] == '.')) aEnd--;
+        while (bEnd > bPoint && (b[bEnd - 1] == '0' || b[bEnd - 1] == '.')) bEnd--;
+
+        // Negative zero equals zero.
+        if (aStart == aEnd) aNegative = false;
+        if (bStart == bEnd) bNegative = false;
+        if (aNegative != bNegative) {
+            return aNegative ? -1 : 1;
+        }
+
+        int result = (aPoint - aStart) - (bPoint - bStart);
+        if (result == 0) {
+            // Same number of integer digits, so the digits after the point line up as well.
+            int aLength = aEnd - aStart;
+            int bLength = bEnd - bStart;
+            result = compareBytes(a, aStart, b, bStart, Math.min(aLength, bLength));
+            if (result == 0) {
+                result = aLength - bLength;
+            }
+        }
+
+        return aNegative ? -result : result;
+    }
+
+    private static int compareValues(double aValue, double bValue) {
+        // Double.compare puts NaN (blank and invalid values) last, blanks should come first like empty strings.
+        boolean aBlank = Double.isNaN(aValue);
+        boolean bBlank = Double.isNaN(bValue);
+        if (aBlank || bBlank) {
+            return aBlank == bBlank ? 0 : (aBlank ? -1 : 1);
+        }
+
+        return Double.compare(aValue, bValue);
+    }
+
+    private static int trimStart(byte[] b, int start, int end) {
+        while (start < end && (b[start] == ' ' || b[start] == 0)) start++;
+        return start;
+    }
+
+    private static int trimEnd(byte[] b, int start, int end) {
+        while (end > start && (b[end - 1] == ' ' || b[end - 1] == 0)) end--;
+        return end;
+    }
+
+    /**
+     * @return true for an optional sign followed by digits with an optional decimal point, at least one digit.
+     */
+    private static boolean isPlainDecimal(byte[] b, int start, int end) {
+        int i = start;
+        if (i < end && (b[i] == '-' || b[i] == '+')) i++;
+        boolean point = false;
+        boolean digit = false;
+        for (; i < end; i++) {
+            if (b[i] >= '0' && b[i] <= '9') {
+                digit = true;
+            } else if (b[i] == '.' && !point) {
+                point = true;
+            } else {
+                return false;
+            }
+        }
+        return digit;
+    }
+
+    private static int indexOfPoint(byte[] b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (b[i] == '.') {
+                return i;
+            }
+        }
+        return end;
+    }
+}
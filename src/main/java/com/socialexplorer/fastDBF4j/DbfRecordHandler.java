@@ -0,0 +1,17 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.io.IOException;
+
+/**
+ * Receives records read by {@link DbfFile#readMany(long[], boolean, DbfRecordHandler)}.
+ */
+public interface DbfRecordHandler {
+    /**
+     * @param position Position of the record index in the requested index array. The (64-bit) index of the record
+     *                 itself is {@link DbfRecord#getRecordIndex()}.
+     * @param record Record that has been read, or null if there is no record with the requested index.
+     *               The record object is reused for the next call, copy the values you want to keep.
+     * @throws IOException Thrown by the handler to stop reading, it is passed on to the caller.
+     */
+    void handle(int position, DbfRecord record) throws IOException;
+}
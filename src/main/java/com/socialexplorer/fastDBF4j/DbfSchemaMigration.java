@@ -0,0 +1,257 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.exceptions.DbfDataTruncateException;
+import com.socialexplorer.fastDBF4j.util.Configuration;
+import com.socialexplorer.fastDBF4j.util.FileReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites a DBF file into a new file with a different set of columns. Columns can be added, removed, reordered
+ * and resized. Header of an existing DBF file can not be modified (it is locked, see {@link DbfHeader#addColumn(DbfColumn)}),
+ * since that would shift data of every record on disk, so the schema is changed by streaming all records into a new file.
+ *
+ * Target columns are matched to source columns by name. For each target column, the migration precomputes a byte
+ * range move from the source record, so transforming a record is just a few array copies:
+ * - column exists in source with same length: the field is copied as is.
+ * - column exists in source with different length: character data is copied left aligned and numeric data is copied
+ *   right aligned, padded with blanks or truncated. A narrower character column silently cuts off the end of longer
+ *   values, while a narrower numeric column fails with a DbfDataTruncateException if a value does not fit.
+ * - column does not exist in source: the field is filled from the empty record of the target header.
+ * Changing the type or decimal count of a column is not supported since it requires reformatting the data.
+ *
+ * Records are read and written in large blocks (see {@link Configuration#getIoBufferSize()}), so memory use does
+ * not depend on the size of the file.
+ */
+public class DbfSchemaMigration {
+    /**
+     * Header of the file being migrated.
+     */
+    private final DbfHeader sourceHeader;
+
+    /**
+     * Header of the migrated file.
+     */
+    private final DbfHeader targetHeader;
+
+    /**
+     * Byte range moves, three ints per move: source offset, target offset and length.
+     */
+    private final int[] moves;
+
+    /**
+     * Byte ranges of numeric fields that get narrower, two ints per range: source offset and number of leading bytes
+     * that are dropped. Dropped bytes must be blank otherwise the number would be truncated.
+     */
+    private final int[] truncatedRanges;
+
+    /**
+     * Precompute the migration from the source header to the given list of columns.
+     *
+     * @param sourceHeader Header of the file to be migrated.
+     * @param targetColumns Columns of the migrated file, in order. Column objects are not modified, copies are used.
+     * @exception IllegalArgumentException If a column changes type or decimal count, or the column list is empty.
+     * @throws IOException If the empty record of the target header can not be created.
+     */
+    public DbfSchemaMigration(DbfHeader sourceHeader, List<DbfColumn> targetColumns) throws IOException {
+        if (targetColumns == null || targetColumns.isEmpty()) {
+            throw new IllegalArgumentException("Target column list can not be empty.");
+        }
+
+        this.sourceHeader = sourceHeader;
+
+        Configuration configuration = new Configuration();
+        configuration.setEncodingName(sourceHeader.getConfiguration().getEncodingName());
+        configuration.setShouldTryToSetEncodingFromLanguageDriver(false);
+        configuration.setIoBufferSize(sourceHeader.getConfiguration().getIoBufferSize());
+        configuration.setNullValues(sourceHeader.getConfiguration());
+
+        targetHeader = new DbfHeader(configuration);
+
+        // Keep the code page of the source, so the migrated file is read with the same encoding.
+        targetHeader.setLanguageDriverId(sourceHeader.getLanguageDriverId());
+        for (DbfColumn column : targetColumns) {
+            // addColumn sets the data address, so never add the caller's column (it can belong to the source header).
+            targetHeader.addColumn(new DbfColumn(column.getName(), column.getColumnType(), column.getLength(), column.getDecimalCount()));
+        }
+
+        List<int[]> moveList = new ArrayList<int[]>();
+        List<int[]> truncatedList = new ArrayList<int[]>();
+
+        // Deleted flag.
+        moveList.add(new int[] {0, 0, 1});
+
+        for (int i = 0; i < targetHeader.getColumnCount(); i++) {
+            DbfColumn target = targetHeader.get(i);
+            DbfColumn source = sourceHeader.getColumn(target.getName());
+
+            if (source == null) {
+                // New column, stays blank.
+                continue;
+            }
+
+            if (source.getColumnType() != target.getColumnType() || source.getDecimalCount() != target.getDecimalCount()) {
+                throw new IllegalArgumentException("Column '" + target.getName() + "' changes type or decimal count. " +
+                        "Only adding, removing, reordering and resizing columns is supported.");
+            }
+
+            int length = Math.min(source.getLength(), target.getLength());
+            if (isRightAligned(target.getColumnType())) {
+                int dropped = source.getLength() - length;
+                moveList.add(new int[] {source.getDataAddress() + dropped, target.getDataAddress() + target.getLength() - length, length});
+                if (dropped > 0) {
+                    truncatedList.add(new int[] {source.getDataAddress(), dropped});
+                }
+            } else {
+                moveList.add(new int[] {source.getDataAddress(), target.getDataAddress(), length});
+            }
+        }
+
+        moves = flatten(moveList, 3);
+        truncatedRanges = flatten(truncatedList, 2);
+
+        // Create the empty record now, not in the middle of the migration.
+        targetHeader.getEmptyDataRecord();
+    }
+
+    private static boolean isRightAligned(DbfColumn.DbfColumnType type) {
+        return type == DbfColumn.DbfColumnType.NUMBER || type == DbfColumn.DbfColumnType.FLOAT;
+    }
+
+    private static int[] flatten(List<int[]> list, int width) {
+        int[] result = new int[list.size() * width];
+        for (int i = 0; i < list.size(); i++) {
+            System.arraycopy(list.get(i), 0, result, i * width, width);
+        }
+        return result;
+    }
+
+    /**
+     * @return Header of the migrated file. It is not locked, so the record count can be set before writing it.
+     */
+    public DbfHeader getTargetHeader() {
+        return targetHeader;
+    }
+
+    /**
+     * Transform one record from the source layout into the target layout.
+     *
+     * @param source Buffer holding the source record.
+     * @param sourceOffset Offset of the source record in the buffer.
+     * @param target Buffer that receives the target record.
+     * @param targetOffset Offset of the target record in the buffer.
+     * @throws IOException If the empty record of the target header can not be created.
+     * @throws DbfDataTruncateException If a narrowed numeric column holds a value that does not fit.
+     */
+    public void transform(byte[] source, int sourceOffset, byte[] target, int targetOffset) throws IOException, DbfDataTruncateException {
+        for (int i = 0; i < truncatedRanges.length; i += 2) {
+            int start = sourceOffset + truncatedRanges[i];
+            int end = start + truncatedRanges[i + 1];
+            for (int j = start; j < end; j++) {
+                if (source[j] != ' ') {
+                    throw new DbfDataTruncateException("Value of a resized numeric column does not fit into the new column length.");
+                }
+            }
+        }
+
+        byte[] emptyRecord = targetHeader.getEmptyDataRecord();
+        System.arraycopy(emptyRecord, 0, target, targetOffset, emptyRecord.length);
+
+        for (int i = 0; i < moves.length; i += 3) {
+            System.arraycopy(source, sourceOffset + moves[i], target, targetOffset + moves[i + 1], moves[i + 2]);
+        }
+    }
+
+    /**
+     * Stream all records of the source file into a new file with the target schema.
+     * Records are written to a temporary file in the folder of the target file, which replaces the target file
+     * once all records are written. If the migration fails, an existing target file is left as it was.
+     * Values of narrowed character columns are truncated without an error.
+     *
+     * @param source Opened source file. Its header must be the one this migration was created with.
+     *               Position of the source file is restored once the migration is done.
+     * @param targetFilePath Path of the migrated file.
+     * @return Number of records written.
+     * @exception IllegalArgumentException If the source file header is not the one this migration was created with,
+     *                                     or the target file is the source file.
+     * @exception IllegalStateException If the source file is not opened.
+     * @throws IOException If an I/O error occurs.
+     * @throws DbfDataTruncateException If a narrowed numeric column holds a value that does not fit.
+     */
+    public long migrate(DbfFile source, String targetFilePath) throws IOException, DbfDataTruncateException {
+        if (source.getHeader() != sourceHeader) {
+            throw new IllegalArgumentException("Source file header does not match the header this migration was created with.");
+        }
+
+        if (source.dbfFile == null) {
+            throw new IllegalStateException("Source file is not opened.");
+        }
+
+        // Truncating the target would destroy the records before they are read.
+        if (new File(targetFilePath).getCanonicalPath().equals(new File(source.getFilePath()).getCanonicalPath())) {
+            throw new IllegalArgumentException("Target file " + targetFilePath + " is also the source file.");
+        }
+
+        int sourceRecordLength = sourceHeader.getRecordLength();
+        int targetRecordLength = targetHeader.getRecordLength();
+        long recordCount = source.countRecordsInFile();
+
+        int bufferSize = sourceHeader.getConfiguration().getIoBufferSize();
+        int recordsPerBlock = Math.max(1, bufferSize / Math.max(sourceRecordLength, targetRecordLength));
+        byte[] sourceBuffer = new byte[recordsPerBlock * sourceRecordLength];
+        byte[] targetBuffer = new byte[recordsPerBlock * targetRecordLength];
+
+        File targetFile = new File(targetFilePath).getAbsoluteFile();
+        File tempFile = File.createTempFile(targetFile.getName(), ".migrate", targetFile.getParentFile());
+        boolean migrated = false;
+
+        FileReader reader = source.dbfFile;
+        long sourcePosition = reader.getFilePointer();
+        FileReader writer = new FileReader(new RandomAccessFile(tempFile, "rw"));
+        try {
+            targetHeader.setRecordCount(recordCount);
+            targetHeader.write(writer);
+
+            reader.seek(sourceHeader.headerLength());
+            long recordsLeft = recordCount;
+            while (recordsLeft > 0) {
+                int blockRecords = (int) Math.min(recordsPerBlock, recordsLeft);
+                reader.readFully(sourceBuffer, 0, blockRecords * sourceRecordLength);
+
+                for (int i = 0; i < blockRecords; i++) {
+                    transform(sourceBuffer, i * sourceRecordLength, targetBuffer, i * targetRecordLength);
+                }
+
+                writer.write(targetBuffer, 0, blockRecords * targetRecordLength);
+                recordsLeft -= blockRecords;
+            }
+
+            // End of file marker.
+            writer.write(0x1A);
+            writer.close();
+
+            try {
+                Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            migrated = true;
+        } finally {
+            // A failed migration leaves no partial file behind.
+            if (!migrated) {
+                writer.close();
+                tempFile.delete();
+            }
+            reader.seek(sourcePosition);
+        }
+
+        return recordCount;
+    }
+}
@@ -0,0 +1,379 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.util.Configuration;
+import com.socialexplorer.fastDBF4j.util.FileReader;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.*;
+
+/**
+ * Sorts DBF files that do not fit into memory (external merge sort).
+ *
+ * Records are read in blocks that fit into the memory budget, each block is sorted in memory and written to a
+ * temporary run file. Blocks are sorted and written on a pool of threads while the next block is being read.
+ * Sorted runs are then merged (k-way merge) into the target file. If there are too many runs to merge at once,
+ * runs are merged in several passes.
+ *
+ * Records are compared on raw bytes using {@link DbfRecordComparator}. The sort is stable, records with equal
+ * keys keep their original order. Records flagged as deleted are sorted like any other record,
+ * use {@link DbfFile#pack()} to remove them.
+ */
+public class DbfSorter {
+    /**
+     * Default amount of memory used for record buffers: 256 MB.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+    /**
+     * Smallest buffer used for reading a run while merging.
+     */
+    private static final int MIN_MERGE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest number of runs merged in one pass.
+     */
+    private static final int MAX_MERGE_FAN_IN = 1024;
+
+    private final DbfRecordComparator comparator;
+
+    /**
+     * Memory used for record buffers, in bytes.
+     */
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    /**
+     * Number of threads used for sorting runs.
+     */
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Folder for temporary run files. Null means the folder of the target file.
+     */
+    private File tempDirectory = null;
+
+    /**
+     * @param comparator Comparator that defines the order of records.
+     */
+    public DbfSorter(DbfRecordComparator comparator) {
+        this.comparator = comparator;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @param memoryBudget Memory used for record buffers, in bytes. Actual memory use is slightly higher since
+     *                     sorting needs 8 bytes of bookkeeping per record.
+     * @exception IllegalArgumentException If the memory budget is not positive.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive.");
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of threads used for sorting runs.
+     * @exception IllegalArgumentException If the thread count is not positive.
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive.");
+        }
+        this.threadCount = threadCount;
+    }
+
+    public File getTempDirectory() {
+        return tempDirectory;
+    }
+
+    /**
+     * @param tempDirectory Folder for temporary run files, or null to use the folder of the target file.
+     */
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Write all records of the source file, sorted, into the target file. If the target file exists, it is overwritten.
+     * Header of the target file is an exact copy of the source header with an updated record count.
+     *
+     * @param source Opened source file. Position of the source file is restored once sorting is done.
+     * @param targetFilePath Path of the sorted file.
+     * @return Number of records written.
+     * @exception IllegalStateException If the source file is not opened.
+     * @throws IOException If an I/O error occurs or sorting is interrupted.
+     */
+    public long sort(DbfFile source, String targetFilePath) throws IOException {
+        if (source.dbfFile == null) {
+            throw new IllegalStateException("Source file is not opened.");
+        }
+
+        File targetFile = new File(targetFilePath).getAbsoluteFile();
+        File runDirectory = tempDirectory != null ? tempDirectory : targetFile.getParentFile();
+        int recordLength = source.getHeader().getRecordLength();
+
+        FileReader reader = source.dbfFile;
+        long sourcePosition = reader.getFilePointer();
+
+        List<File> runs = new ArrayList<File>();
+        try {
+            byte[] header = source.readRawHeader();
+            long recordCount = source.countRecordsInFile();
+            runs.addAll(createRuns(reader, recordCount, recordLength, runDirectory));
+
+            // Merge runs in several passes if there are too many of them.
+            int fanIn = (int) Math.max(2, Math.min(MAX_MERGE_FAN_IN, memoryBudget / MIN_MERGE_BUFFER_SIZE));
+            while (runs.size() > fanIn) {
+                List<File> mergedRuns = new ArrayList<File>();
+                for (int i = 0; i < runs.size(); i += fanIn) {
+                    List<File> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                    File mergedRun = File.createTempFile("dbfsort", ".run", runDirectory);
+                    mergedRuns.add(mergedRun);
+
+                    OutputStream output = new BufferedOutputStream(new FileOutputStream(mergedRun), MIN_MERGE_BUFFER_SIZE);
+                    try {
+                        merge(group, recordLength, output);
+                    } finally {
+                        output.close();
+                    }
+                    deleteAll(group);
+                }
+                runs = mergedRuns;
+            }
+
+            // Header is copied as is, with the record count of the records actually sorted.
+            header[source.getHeader().recordCountOffset] = (byte) recordCount;
+            header[source.getHeader().recordCountOffset + 1] = (byte) (recordCount >> 8);
+            header[source.getHeader().recordCountOffset + 2] = (byte) (recordCount >> 16);
+            header[source.getHeader().recordCountOffset + 3] = (byte) (recordCount >> 24);
+
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(targetFile), MIN_MERGE_BUFFER_SIZE);
+            try {
+                output.write(header);
+                merge(runs, recordLength, output);
+
+                // End of file marker.
+                output.write(0x1A);
+            } finally {
+                output.close();
+            }
+
+            return recordCount;
+        } finally {
+            deleteAll(runs);
+            reader.seek(sourcePosition);
+        }
+    }
+
+    /**
+     * Read the source file in blocks that fit into the memory budget and sort each block into a run file.
+     * Blocks are sorted on the thread pool while the next block is being read.
+     */
+    private List<File> createRuns(FileReader reader, long recordCount, final int recordLength, final File runDirectory) throws IOException {
+        // At most threadCount blocks are held in memory at the same time, each with 8 bytes of bookkeeping per record.
+        final int recordsPerRun = (int) Math.max(1, Math.min(Integer.MAX_VALUE / recordLength,
+                memoryBudget / threadCount / (recordLength + 8)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        final Semaphore freeBlocks = new Semaphore(threadCount);
+        List<Future<File>> futures = new ArrayList<Future<File>>();
+        List<File> runs = new ArrayList<File>();
+
+        try {
+            long recordsLeft = recordCount;
+            while (recordsLeft > 0) {
+                final int blockRecords = (int) Math.min(recordsPerRun, recordsLeft);
+                recordsLeft -= blockRecords;
+
+                freeBlocks.acquire();
+                final byte[] block;
+                try {
+                    block = new byte[blockRecords * recordLength];
+                    reader.readFully(block, 0, block.length);
+                } catch (IOException e) {
+                    freeBlocks.release();
+                    throw e;
+                }
+
+                futures.add(executor.submit(new Callable<File>() {
+                    public File call() throws IOException {
+                        try {
+                            return sortRun(block, blockRecords, recordLength, runDirectory);
+                        } finally {
+                            freeBlocks.release();
+                        }
+                    }
+                }));
+            }
+
+            for (Future<File> future : futures) {
+                runs.add(future.get());
+            }
+
+            return runs;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Sorting was interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+
+            // On failure, clean up runs that were already written.
+            if (runs.size() != futures.size()) {
+                for (Future<File> future : futures) {
+                    try {
+                        future.get().delete();
+                    } catch (Exception e) {
+                        // Run was not written.
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort records in a block and write them to a new run file.
+     */
+    private File sortRun(byte[] block, int recordCount, int recordLength, File runDirectory) throws IOException {
+        int[] order = new int[recordCount];
+        for (int i = 0; i < recordCount; i++) {
+            order[i] = i * recordLength;
+        }
+        mergeSort(block, order, new int[recordCount], 0, recordCount);
+
+        File run = File.createTempFile("dbfsort", ".run", runDirectory);
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(run), MIN_MERGE_BUFFER_SIZE);
+        try {
+            for (int offset : order) {
+                output.write(block, offset, recordLength);
+            }
+        } finally {
+            output.close();
+        }
+
+        return run;
+    }
+
+    /**
+     * Stable merge sort of record offsets [from, to) in the block.
+     */
+    private void mergeSort(byte[] block, int[] order, int[] temp, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        mergeSort(block, order, temp, from, middle);
+        mergeSort(block, order, temp, middle, to);
+
+        // Halves are already in order.
+        if (comparator.compare(block, order[middle - 1], block, order[middle]) <= 0) {
+            return;
+        }
+
+        System.arraycopy(order, from, temp, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && comparator.compare(block, temp[left], block, temp[right]) <= 0)) {
+                order[i] = temp[left++];
+            } else {
+                order[i] = temp[right++];
+            }
+        }
+    }
+
+    /**
+     * Merge sorted run files into the output stream.
+     */
+    private void merge(List<File> runs, int recordLength, OutputStream output) throws IOException {
+        // Split the memory budget among runs.
+        int bufferSize = (int) Math.max(MIN_MERGE_BUFFER_SIZE, Math.min(Configuration.DEFAULT_IO_BUFFER_SIZE, memoryBudget / Math.max(1, runs.size())));
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+            public int compare(RunReader a, RunReader b) {
+                int result = comparator.compare(a.record, 0, b.record, 0);
+                // Earlier run wins on equal keys, this keeps the sort stable.
+                return result != 0 ? result : a.runIndex - b.runIndex;
+            }
+        });
+
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader runReader = new RunReader(runs.get(i), i, recordLength, bufferSize);
+                if (runReader.next()) {
+                    queue.add(runReader);
+                } else {
+                    runReader.close();
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                RunReader runReader = queue.poll();
+                output.write(runReader.record);
+
+                if (runReader.next()) {
+                    queue.add(runReader);
+                } else {
+                    runReader.close();
+                }
+            }
+        } finally {
+            for (RunReader runReader : queue) {
+                runReader.close();
+            }
+        }
+    }
+
+    private static void deleteAll(List<File> files) {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Reads records of one sorted run, one record at a time.
+     */
+    private static class RunReader {
+        private final DataInputStream input;
+        private final int runIndex;
+        private final byte[] record;
+
+        RunReader(File run, int runIndex, int recordLength, int bufferSize) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(run), bufferSize));
+            this.runIndex = runIndex;
+            this.record = new byte[recordLength];
+        }
+
+        /**
+         * @return true if the next record was read, false at the end of the run.
+         */
+        boolean next() throws IOException {
+            try {
+                input.readFully(record);
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        void close() throws IOException {
+            input.close();
+        }
+    }
+}
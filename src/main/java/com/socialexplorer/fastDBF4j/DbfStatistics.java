@@ -0,0 +1,648 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.util.ByteUtils;
+import com.socialexplorer.fastDBF4j.util.Configuration;
+import com.socialexplorer.fastDBF4j.util.HyperLogLog;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Per-column statistics of a DBF file: min/max, number of blank and null values, estimated number of distinct values
+ * (HyperLogLog sketch), and a zone map holding min/max of every block of records. Fields holding the configured
+ * null value of their column type (see {@link Configuration#setNullValue}) are counted as null, like blank fields.
+ *
+ * Since all records have the same length, block N simply holds records [N * blockSize, (N + 1) * blockSize).
+ * Range filtered scans use {@link #findBlocks(String, double, double)} to skip blocks that can not hold a matching
+ * value, and read only records of the remaining blocks.
+ *
+ * Numeric columns (NUMBER, FLOAT, INTEGER) keep numeric min/max. Other columns keep min/max of the first
+ * {@link #PREFIX_LENGTH} bytes of the field, compared byte by byte, which is enough to prune blocks.
+ *
+ * Statistics are saved in a sidecar file next to the DBF file (see {@link #getSidecarPath(String)}), along with
+ * the length and modification time of the DBF file, so stale statistics are detected when loading.
+ * Records flagged as deleted are not included.
+ *
+ * Statistics can also be maintained while records are written (see {@link DbfFile#buildStatistics(int)}). Min/max
+ * values then only widen and blank counts and distinct counts only grow, so after updates of existing records
+ * statistics are no longer exact, but they are still safe to use for pruning.
+ */
+public class DbfStatistics {
+    /**
+     * Extension appended to the DBF file path to get the sidecar file path.
+     */
+    public static final String SIDECAR_EXTENSION = ".stats";
+
+    /**
+     * Default number of records in a zone map block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 8192;
+
+    /**
+     * Number of leading bytes of non numeric fields kept as min/max.
+     */
+    public static final int PREFIX_LENGTH = 16;
+
+    /**
+     * Precision of distinct count sketches (4096 registers).
+     */
+    private static final int SKETCH_PRECISION = 12;
+
+    private static final int MAGIC = 0x44424653; // "DBFS"
+    private static final int VERSION = 1;
+
+    private final DbfHeader header;
+    private final int blockSize;
+    private final ColumnStatistics[] columns;
+
+    /**
+     * Number of records covered, highest record index added + 1.
+     */
+    private long recordCount = 0;
+
+    /**
+     * Number of zone map blocks allocated for each column.
+     */
+    private int blockCapacity = 16;
+
+    private boolean isDirty = false;
+
+    /**
+     * Create empty statistics.
+     *
+     * @param header Header of the DBF file.
+     * @param blockSize Number of records in a zone map block.
+     * @exception IllegalArgumentException If the block size is not positive.
+     */
+    public DbfStatistics(DbfHeader header, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive.");
+        }
+
+        this.header = header;
+        this.blockSize = blockSize;
+        this.columns = new ColumnStatistics[header.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new ColumnStatistics(header.get(i));
+        }
+    }
+
+    /**
+     * Compute statistics of all records in one sequential scan. The file is read through a separate file handle,
+     * so the position of the file does not change.
+     *
+     * @param file Opened DBF file.
+     * @param blockSize Number of records in a zone map block.
+     * @return Statistics of the file.
+     * @exception IllegalStateException If the file is not opened.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static DbfStatistics build(DbfFile file, int blockSize) throws IOException {
+        if (file.dbfFile == null) {
+            throw new IllegalStateException("File is not opened.");
+        }
+
+        DbfStatistics statistics = new DbfStatistics(file.getHeader(), blockSize);
+        int recordLength = file.getHeader().getRecordLength();
+        long recordCount = file.countRecordsInFile();
+
+        DbfBlockReader reader = DbfBlockReader.open(file, 0, recordCount);
+        try {
+            long recordIndex = 0;
+            int records;
+            while ((records = reader.next()) > 0) {
+                byte[] buffer = reader.getBuffer();
+                for (int offset = 0; offset < records * recordLength; offset += recordLength) {
+                    statistics.add(recordIndex++, buffer, offset);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Add a record to the statistics.
+     *
+     * @param recordIndex Zero based index of the record.
+     * @param record Buffer holding the record.
+     * @param offset Offset of the record in the buffer.
+     */
+    public void add(long recordIndex, byte[] record, int offset) {
+        int block = (int) (recordIndex / blockSize);
+        if (block >= blockCapacity) {
+            blockCapacity = Math.max(blockCapacity * 2, block + 1);
+            for (ColumnStatistics column : columns) {
+                column.growBlocks(blockCapacity);
+            }
+        }
+
+        recordCount = Math.max(recordCount, recordIndex + 1);
+        isDirty = true;
+
+        if (record[offset] == '*') {
+            return;
+        }
+
+        for (ColumnStatistics column : columns) {
+            column.add(block, record, offset + column.address);
+        }
+    }
+
+    /**
+     * Find blocks that can hold values of a numeric column within the given range.
+     *
+     * @param columnName Numeric column name.
+     * @param from Smallest value, inclusive. Use Double.NEGATIVE_INFINITY for no lower bound.
+     * @param to Largest value, inclusive. Use Double.POSITIVE_INFINITY for no upper bound.
+     * @return Block numbers in ascending order.
+     * @exception IllegalArgumentException If the column does not exist or is not numeric.
+     */
+    public int[] findBlocks(String columnName, double from, double to) {
+        ColumnStatistics column = getColumnStatistics(columnName);
+        if (!column.isNumeric) {
+            throw new IllegalArgumentException("Column '" + columnName + "' is not numeric.");
+        }
+
+        int[] blocks = new int[getBlockCount()];
+        int count = 0;
+        for (int block = 0; block < blocks.length; block++) {
+            if (column.blockHasValue[block] && column.blockMin[block] <= to && column.blockMax[block] >= from) {
+                blocks[count++] = block;
+            }
+        }
+
+        return Arrays.copyOf(blocks, count);
+    }
+
+    /**
+     * Find blocks that can hold values of a non numeric column within the given range, compared byte by byte.
+     *
+     * @param columnName Column name.
+     * @param from Smallest value, inclusive. Null for no lower bound.
+     * @param to Largest value, inclusive. Null for no upper bound.
+     * @return Block numbers in ascending order.
+     * @exception IllegalArgumentException If the column does not exist or is numeric.
+     * @throws UnsupportedEncodingException If the encoding of the file is not supported.
+     */
+    public int[] findBlocks(String columnName, String from, String to) throws UnsupportedEncodingException {
+        ColumnStatistics column = getColumnStatistics(columnName);
+        if (column.isNumeric) {
+            throw new IllegalArgumentException("Column '" + columnName + "' is numeric.");
+        }
+
+        byte[] fromPrefix = from == null ? null : column.toPrefix(from);
+        byte[] toPrefix = to == null ? null : column.toPrefix(to);
+
+        int[] blocks = new int[getBlockCount()];
+        int count = 0;
+        for (int block = 0; block < blocks.length; block++) {
+            if (!column.blockHasValue[block]) {
+                continue;
+            }
+            int start = block * column.prefixLength;
+            if (toPrefix != null && compare(column.blockMinPrefix, start, toPrefix, 0, column.prefixLength) > 0) {
+                continue;
+            }
+            if (fromPrefix != null && compare(column.blockMaxPrefix, start, fromPrefix, 0, column.prefixLength) < 0) {
+                continue;
+            }
+            blocks[count++] = block;
+        }
+
+        return Arrays.copyOf(blocks, count);
+    }
+
+    private static int compare(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            int result = (a[aOffset + i] & 0xff) - (b[bOffset + i] & 0xff);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private ColumnStatistics getColumnStatistics(String columnName) {
+        int index = header.findColumn(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("Column '" + columnName + "' does not exist.");
+        }
+        return columns[index];
+    }
+
+    /**
+     * @return Number of records in a zone map block.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return Number of zone map blocks.
+     */
+    public int getBlockCount() {
+        return (int) ((recordCount + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * @param block Block number.
+     * @return Index of the first record in the block.
+     */
+    public long getBlockFirstRecord(int block) {
+        return (long) block * blockSize;
+    }
+
+    /**
+     * @param block Block number.
+     * @return Number of records in the block.
+     */
+    public int getBlockRecordCount(int block) {
+        return (int) Math.min(blockSize, recordCount - getBlockFirstRecord(block));
+    }
+
+    /**
+     * @return Number of records covered by the statistics, including deleted records.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @param columnName Column name.
+     * @return Number of blank values in the column.
+     */
+    public long getNullCount(String columnName) {
+        return getColumnStatistics(columnName).nullCount;
+    }
+
+    /**
+     * @param columnName Column name.
+     * @return Estimated number of distinct non blank values in the column.
+     */
+    public long getDistinctCount(String columnName) {
+        return getColumnStatistics(columnName).sketch.estimate();
+    }
+
+    /**
+     * @param columnName Numeric column name.
+     * @return Smallest value, or NaN if the column has no values.
+     * @exception IllegalArgumentException If the column does not exist or is not numeric.
+     */
+    public double getMin(String columnName) {
+        return getNumericStatistics(columnName).min;
+    }
+
+    /**
+     * @param columnName Numeric column name.
+     * @return Largest value, or NaN if the column has no values.
+     * @exception IllegalArgumentException If the column does not exist or is not numeric.
+     */
+    public double getMax(String columnName) {
+        return getNumericStatistics(columnName).max;
+    }
+
+    private ColumnStatistics getNumericStatistics(String columnName) {
+        ColumnStatistics column = getColumnStatistics(columnName);
+        if (!column.isNumeric) {
+            throw new IllegalArgumentException("Column '" + columnName + "' is not numeric.");
+        }
+        return column;
+    }
+
+    /**
+     * @param columnName Column name.
+     * @return Leading bytes of the smallest value as string (up to {@link #PREFIX_LENGTH} bytes),
+     *         or null if the column has no values.
+     * @throws UnsupportedEncodingException If the encoding of the file is not supported.
+     */
+    public String getMinPrefix(String columnName) throws UnsupportedEncodingException {
+        ColumnStatistics column = getColumnStatistics(columnName);
+        return column.minPrefix == null ? null : new String(column.minPrefix, header.getConfiguration().getEncodingName());
+    }
+
+    /**
+     * @param columnName Column name.
+     * @return Leading bytes of the largest value as string (up to {@link #PREFIX_LENGTH} bytes),
+     *         or null if the column has no values.
+     * @throws UnsupportedEncodingException If the encoding of the file is not supported.
+     */
+    public String getMaxPrefix(String columnName) throws UnsupportedEncodingException {
+        ColumnStatistics column = getColumnStatistics(columnName);
+        return column.maxPrefix == null ? null : new String(column.maxPrefix, header.getConfiguration().getEncodingName());
+    }
+
+    /**
+     * @return true if statistics changed since they were built, loaded or saved.
+     */
+    public boolean getIsDirty() {
+        return isDirty;
+    }
+
+    /**
+     * @param dbfFilePath Path of the DBF file.
+     * @return Path of the statistics sidecar file.
+     */
+    public static String getSidecarPath(String dbfFilePath) {
+        return dbfFilePath + SIDECAR_EXTENSION;
+    }
+
+    /**
+     * Save statistics to the sidecar file of the given DBF file. Call this after the DBF file is written,
+     * since its length and modification time are saved to detect stale statistics.
+     *
+     * @param dbfFilePath Path of the DBF file.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void save(String dbfFilePath) throws IOException {
+        File dbfFile = new File(dbfFilePath);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getSidecarPath(dbfFilePath))));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(dbfFile.length());
+            output.writeLong(dbfFile.lastModified());
+            output.writeInt(blockSize);
+            output.writeLong(recordCount);
+            output.writeInt(columns.length);
+
+            int blockCount = getBlockCount();
+            for (ColumnStatistics column : columns) {
+                column.write(output, blockCount);
+            }
+        } finally {
+            output.close();
+        }
+
+        isDirty = false;
+    }
+
+    /**
+     * Load statistics from the sidecar file of the given DBF file.
+     *
+     * @param dbfFilePath Path of the DBF file.
+     * @param header Header of the DBF file.
+     * @return Statistics, or null if there is no sidecar file or it is stale (DBF file changed since the statistics
+     *         were saved, or columns do not match).
+     * @throws IOException If an I/O error occurs.
+     */
+    public static DbfStatistics load(String dbfFilePath, DbfHeader header) throws IOException {
+        File sidecar = new File(getSidecarPath(dbfFilePath));
+        if (!sidecar.exists()) {
+            return null;
+        }
+
+        File dbfFile = new File(dbfFilePath);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION
+                    || input.readLong() != dbfFile.length() || input.readLong() != dbfFile.lastModified()) {
+                return null;
+            }
+
+            DbfStatistics statistics = new DbfStatistics(header, input.readInt());
+            statistics.recordCount = input.readLong();
+            if (input.readInt() != header.getColumnCount()) {
+                return null;
+            }
+
+            int blockCount = statistics.getBlockCount();
+            statistics.blockCapacity = Math.max(statistics.blockCapacity, blockCount);
+            for (ColumnStatistics column : statistics.columns) {
+                column.growBlocks(statistics.blockCapacity);
+                if (!column.read(input, blockCount)) {
+                    return null;
+                }
+            }
+
+            return statistics;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Statistics of one column.
+     */
+    private class ColumnStatistics {
+        private final String name;
+        private final int address;
+        private final int length;
+        private final DbfColumn.DbfColumnType type;
+        private final boolean isNumeric;
+        private final int prefixLength;
+
+        /**
+         * Configured null value of the column type, read as null like a blank field. Null for binary columns.
+         */
+        private final byte[] nullValue;
+
+        private long nullCount = 0;
+        private HyperLogLog sketch = new HyperLogLog(SKETCH_PRECISION);
+
+        /**
+         * Column min/max, for numeric and non numeric columns.
+         */
+        private double min = Double.NaN;
+        private double max = Double.NaN;
+        private byte[] minPrefix = null;
+        private byte[] maxPrefix = null;
+
+        /**
+         * Zone map.
+         */
+        private boolean[] blockHasValue = new boolean[blockCapacity];
+        private double[] blockMin;
+        private double[] blockMax;
+        private byte[] blockMinPrefix;
+        private byte[] blockMaxPrefix;
+
+        ColumnStatistics(DbfColumn column) {
+            name = column.getName();
+            address = column.getDataAddress();
+            length = column.getLength();
+            type = column.getColumnType();
+            // DATETIME is kept as milliseconds, its little endian bytes do not sort as a prefix would
+            isNumeric = type == DbfColumn.DbfColumnType.NUMBER || type == DbfColumn.DbfColumnType.FLOAT
+                    || type == DbfColumn.DbfColumnType.INTEGER || type.isVisualFoxPro();
+            prefixLength = isNumeric ? 0 : Math.min(length, PREFIX_LENGTH);
+
+            try {
+                nullValue = type == DbfColumn.DbfColumnType.INTEGER || type.isVisualFoxPro() || type == DbfColumn.DbfColumnType.NULL_FLAGS
+                        ? null : header.getConfiguration().getNullValueBytes(type);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+
+            if (isNumeric) {
+                blockMin = new double[blockCapacity];
+                blockMax = new double[blockCapacity];
+            } else {
+                blockMinPrefix = new byte[blockCapacity * prefixLength];
+                blockMaxPrefix = new byte[blockCapacity * prefixLength];
+            }
+        }
+
+        void growBlocks(int capacity) {
+            blockHasValue = Arrays.copyOf(blockHasValue, capacity);
+            if (isNumeric) {
+                blockMin = Arrays.copyOf(blockMin, capacity);
+                blockMax = Arrays.copyOf(blockMax, capacity);
+            } else {
+                blockMinPrefix = Arrays.copyOf(blockMinPrefix, capacity * prefixLength);
+                blockMaxPrefix = Arrays.copyOf(blockMaxPrefix, capacity * prefixLength);
+            }
+        }
+
+        void add(int block, byte[] record, int fieldOffset) {
+            if (type == DbfColumn.DbfColumnType.NULL_FLAGS) {
+                // bits of the system column are not values
+                return;
+            }
+
+            if (nullValue != null && ByteUtils.equalsTrimmed(record, fieldOffset, length, nullValue)) {
+                nullCount++;
+                return;
+            }
+
+            if (isNumeric) {
+                double value;
+                if (type == DbfColumn.DbfColumnType.INTEGER || type.isVisualFoxPro()) {
+                    value = DbfColumn.getBinaryNumber(type, record, fieldOffset);
+                } else {
+                    try {
+                        value = ByteUtils.parseDouble(record, fieldOffset, length);
+                    } catch (NumberFormatException e) {
+                        // Overflow markers and other garbage are counted as blanks.
+                        value = Double.NaN;
+                    }
+                }
+
+                if (Double.isNaN(value)) {
+                    nullCount++;
+                    return;
+                }
+
+                sketch.add(record, fieldOffset, length);
+                if (Double.isNaN(min) || value < min) min = value;
+                if (Double.isNaN(max) || value > max) max = value;
+
+                if (!blockHasValue[block]) {
+                    blockHasValue[block] = true;
+                    blockMin[block] = value;
+                    blockMax[block] = value;
+                } else {
+                    if (value < blockMin[block]) blockMin[block] = value;
+                    if (value > blockMax[block]) blockMax[block] = value;
+                }
+            } else {
+                if (ByteUtils.isBlank(record, fieldOffset, length)) {
+                    nullCount++;
+                    return;
+                }
+
+                sketch.add(record, fieldOffset, length);
+                if (minPrefix == null || compare(record, fieldOffset, minPrefix, 0, prefixLength) < 0) {
+                    minPrefix = Arrays.copyOfRange(record, fieldOffset, fieldOffset + prefixLength);
+                }
+                if (maxPrefix == null || compare(record, fieldOffset, maxPrefix, 0, prefixLength) > 0) {
+                    maxPrefix = Arrays.copyOfRange(record, fieldOffset, fieldOffset + prefixLength);
+                }
+
+                int start = block * prefixLength;
+                if (!blockHasValue[block]) {
+                    blockHasValue[block] = true;
+                    System.arraycopy(record, fieldOffset, blockMinPrefix, start, prefixLength);
+                    System.arraycopy(record, fieldOffset, blockMaxPrefix, start, prefixLength);
+                } else {
+                    if (compare(record, fieldOffset, blockMinPrefix, start, prefixLength) < 0) {
+                        System.arraycopy(record, fieldOffset, blockMinPrefix, start, prefixLength);
+                    }
+                    if (compare(record, fieldOffset, blockMaxPrefix, start, prefixLength) > 0) {
+                        System.arraycopy(record, fieldOffset, blockMaxPrefix, start, prefixLength);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Convert a search value to a field prefix: encode, pad with blanks to the field length and cut to prefix length.
+         */
+        byte[] toPrefix(String value) throws UnsupportedEncodingException {
+            byte[] bytes = value.getBytes(header.getConfiguration().getEncodingName());
+            byte[] prefix = new byte[prefixLength];
+            Arrays.fill(prefix, (byte) ' ');
+            System.arraycopy(bytes, 0, prefix, 0, Math.min(bytes.length, prefixLength));
+            return prefix;
+        }
+
+        void write(DataOutputStream output, int blockCount) throws IOException {
+            output.writeUTF(name);
+            output.writeChar(type.getChar());
+            output.writeInt(length);
+            output.writeLong(nullCount);
+            output.write(sketch.getRegisters());
+
+            if (isNumeric) {
+                output.writeDouble(min);
+                output.writeDouble(max);
+            } else {
+                output.writeBoolean(minPrefix != null);
+                if (minPrefix != null) {
+                    output.write(minPrefix);
+                    output.write(maxPrefix);
+                }
+            }
+
+            for (int block = 0; block < blockCount; block++) {
+                output.writeBoolean(blockHasValue[block]);
+                if (isNumeric) {
+                    output.writeDouble(blockMin[block]);
+                    output.writeDouble(blockMax[block]);
+                } else {
+                    output.write(blockMinPrefix, block * prefixLength, prefixLength);
+                    output.write(blockMaxPrefix, block * prefixLength, prefixLength);
+                }
+            }
+        }
+
+        /**
+         * @return false if saved column does not match this column.
+         */
+        boolean read(DataInputStream input, int blockCount) throws IOException {
+            if (!input.readUTF().equals(name) || input.readChar() != type.getChar() || input.readInt() != length) {
+                return false;
+            }
+
+            nullCount = input.readLong();
+            byte[] registers = new byte[1 << SKETCH_PRECISION];
+            input.readFully(registers);
+            sketch = new HyperLogLog(registers);
+
+            if (isNumeric) {
+                min = input.readDouble();
+                max = input.readDouble();
+            } else if (input.readBoolean()) {
+                minPrefix = new byte[prefixLength];
+                maxPrefix = new byte[prefixLength];
+                input.readFully(minPrefix);
+                input.readFully(maxPrefix);
+            }
+
+            for (int block = 0; block < blockCount; block++) {
+                blockHasValue[block] = input.readBoolean();
+                if (isNumeric) {
+                    blockMin[block] = input.readDouble();
+                    blockMax[block] = input.readDouble();
+                } else {
+                    input.readFully(blockMinPrefix, block * prefixLength, prefixLength);
+                    input.readFully(blockMaxPrefix, block * prefixLength, prefixLength);
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.util.ByteUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * All records of a DBF file, held in memory outside of the Java heap. Records are stored back to back in direct
+ * byte buffers, exactly as they are in the file, so a table costs its record data and nothing per row.
+ * <p>
+ * Records are accessed through a {@link Cursor}, a flyweight that points at one record at a time:
+ * <pre>
+ *     DbfTable table = DbfTable.load(dbfFile);
+ *     DbfTable.Cursor cursor = table.cursor();
+ *     while (cursor.next()) {
+ *         if (!cursor.isDeleted()) {
+ *             total += cursor.getDouble(populationColumn);
+ *         }
+ *     }
+ * </pre>
+ * A table is read-only and can be shared by threads, as long as each thread uses its own cursor.
+ * Memory is released when the table is garbage collected.
+ */
+public class DbfTable {
+    /**
+     * Maximum size of one buffer. Pages hold a whole number of records, so no record spans two pages.
+     */
+    public static final int MAX_PAGE_SIZE = 1 << 30;
+
+    private final DbfHeader header;
+    private final int recordLength;
+    private final long recordCount;
+    private final int recordsPerPage;
+    private final ByteBuffer[] pages;
+
+    /**
+     * @param header Header of the records.
+     * @param recordCount Number of records.
+     * @param maxPageSize Maximum size of one buffer in bytes.
+     */
+    private DbfTable(DbfHeader header, long recordCount, int maxPageSize) {
+        this.header = header;
+        this.recordLength = header.getRecordLength();
+        this.recordCount = recordCount;
+        this.recordsPerPage = Math.max(1, maxPageSize / recordLength);
+
+        int pageCount = (int) ((recordCount + recordsPerPage - 1) / recordsPerPage);
+        this.pages = new ByteBuffer[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            long records = Math.min(recordsPerPage, recordCount - (long) i * recordsPerPage);
+            pages[i] = ByteBuffer.allocateDirect((int) (records * recordLength)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Load all records of a file. The file is read through its own handle, so the position of the file does not change.
+     *
+     * @param source Opened DBF file.
+     * @return Table with all records of the file, including the deleted ones.
+     * @exception IllegalStateException If the file is not opened.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static DbfTable load(DbfFile source) throws IOException {
+        return load(source, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Load all records of a file, in buffers of at most maxPageSize bytes.
+     *
+     * @param source Opened DBF file.
+     * @param maxPageSize Maximum size of one buffer in bytes.
+     * @return Table with all records of the file, including the deleted ones.
+     * @exception IllegalStateException If the file is not opened.
+     * @exception IllegalArgumentException If the page size is not positive.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static DbfTable load(DbfFile source, int maxPageSize) throws IOException {
+        if (source.dbfFile == null) {
+            throw new IllegalStateException("Source file is not opened.");
+        }
+        if (maxPageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+
+        DbfHeader header = source.getHeader();
+        DbfTable table = new DbfTable(header, source.countRecordsInFile(), maxPageSize);
+
+        RandomAccessFile file = new RandomAccessFile(source.getFilePath(), "r");
+        try {
+            // Read straight into the direct buffers, the data is never copied through the heap.
+            FileChannel channel = file.getChannel();
+            long position = header.headerLength();
+            for (ByteBuffer page : table.pages) {
+                while (page.hasRemaining()) {
+                    int count = channel.read(page, position);
+                    if (count < 0) {
+                        throw new EOFException("File ended before all records were read.");
+                    }
+                    position += count;
+                }
+                // Buffer methods are called through Buffer, ByteBuffer only overrides them since Java 9
+                ((Buffer) page).clear();
+            }
+        } finally {
+            file.close();
+        }
+
+        return table;
+    }
+
+    /**
+     * @return New cursor, positioned before the first record.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * @return Header of the records.
+     */
+    public DbfHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return Number of records, including the deleted ones.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Points at one record of the table. Moving a cursor does not create any objects, so one cursor can walk
+     * through any number of records. A cursor must not be shared by threads.
+     */
+    public class Cursor {
+        private final byte[] field;
+        private final ByteBuffer[] views = new ByteBuffer[pages.length];
+        private DbfRecord record = null;
+
+        private long index = -1;
+        private ByteBuffer page = null;
+        private int pageIndex = -1;
+        private int offset = 0;
+
+        private Cursor() {
+            int maxLength = 0;
+            for (int i = 0; i < header.getColumnCount(); i++) {
+                maxLength = Math.max(maxLength, header.get(i).getLength());
+            }
+            field = new byte[maxLength];
+        }
+
+        /**
+         * Move to the next record.
+         * @return true if the cursor points at a record, false if there are no more records.
+         */
+        public boolean next() {
+            if (index + 1 >= recordCount) {
+                index = recordCount;
+                page = null;
+                return false;
+            }
+            moveTo(index + 1);
+            return true;
+        }
+
+        /**
+         * Move to the record with the given index.
+         * @param recordIndex Zero-based index of the record.
+         * @exception IndexOutOfBoundsException If there is no record with the given index.
+         */
+        public void moveTo(long recordIndex) {
+            if (recordIndex < 0 || recordIndex >= recordCount) {
+                throw new IndexOutOfBoundsException("Record index " + recordIndex + " is out of range [0, " + recordCount + ").");
+            }
+
+            index = recordIndex;
+            pageIndex = (int) (recordIndex / recordsPerPage);
+            page = pages[pageIndex];
+            offset = (int) (recordIndex - (long) pageIndex * recordsPerPage) * recordLength;
+        }
+
+        /**
+         * @return Index of the current record.
+         */
+        public long getIndex() {
+            return index;
+        }
+
+        /**
+         * @return true if the current record is flagged as deleted.
+         */
+        public boolean isDeleted() {
+            return getPage().get(offset) == '*';
+        }
+
+        /**
+         * @param colIndex Index of the column.
+         * @return Value of the column as it would be returned by {@link DbfRecord#get(int)}.
+         * @throws UnsupportedEncodingException If the encoding of the file is not supported.
+         */
+        public String get(int colIndex) throws UnsupportedEncodingException {
+            DbfColumn column = header.get(colIndex);
+
+            if (column.getColumnType() == DbfColumn.DbfColumnType.INTEGER) {
+                return Integer.toString(getPage().getInt(offset + column.getDataAddress()));
+            }
+            if (column.getColumnType().isVisualFoxPro()) {
+                // Binary values are decoded by a record, the same way as they are read from the file.
+                if (record == null) {
+                    record = new DbfRecord(header);
+                }
+                copyTo(record);
+                try {
+                    return record.get(colIndex);
+                } catch (UnsupportedEncodingException e) {
+                    throw e;
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            byte[] bytes = copyField(column);
+            if (header.getConfiguration().isNullValue(column.getColumnType(), bytes, 0, column.getLength())) {
+                return "";
+            }
+            return new String(bytes, 0, column.getLength(), header.getConfiguration().getEncodingName());
+        }
+
+        /**
+         * @param colIndex Index of the column.
+         * @return Value of a numeric column (NUMBER, FLOAT, INTEGER, DOUBLE or CURRENCY), or NaN if the value is blank or null.
+         * @exception UnsupportedOperationException If the column is not numeric.
+         * @exception NumberFormatException If the value is not a number.
+         * @throws UnsupportedEncodingException If the encoding of the file is not supported.
+         */
+        public double getDouble(int colIndex) throws UnsupportedEncodingException {
+            DbfColumn column = header.get(colIndex);
+            DbfColumn.DbfColumnType columnType = column.getColumnType();
+
+            if (columnType == DbfColumn.DbfColumnType.INTEGER) {
+                return getPage().getInt(offset + column.getDataAddress());
+            } else if (columnType == DbfColumn.DbfColumnType.DOUBLE || columnType == DbfColumn.DbfColumnType.CURRENCY) {
+                return DbfColumn.getBinaryNumber(columnType, copyField(column), 0);
+            } else if (columnType == DbfColumn.DbfColumnType.NUMBER || columnType == DbfColumn.DbfColumnType.FLOAT) {
+                byte[] bytes = copyField(column);
+                if (header.getConfiguration().isNullValue(columnType, bytes, 0, column.getLength())) {
+                    return Double.NaN;
+                }
+                return ByteUtils.parseDouble(bytes, 0, column.getLength());
+            } else {
+                throw new UnsupportedOperationException("Invalid data type. Column '" + column.getName() + "' is not numeric.");
+            }
+        }
+
+        /**
+         * @param colIndex Index of the column.
+         * @return Value of an integer column (NUMBER without decimals or INTEGER).
+         * @exception UnsupportedOperationException If the column is not an integer column.
+         * @exception NumberFormatException If the value is blank or not an integer.
+         */
+        public long getLong(int colIndex) {
+            DbfColumn column = header.get(colIndex);
+            DbfColumn.DbfColumnType columnType = column.getColumnType();
+
+            if (columnType == DbfColumn.DbfColumnType.INTEGER) {
+                return getPage().getInt(offset + column.getDataAddress());
+            } else if (columnType == DbfColumn.DbfColumnType.NUMBER && column.getDecimalCount() == 0) {
+                return ByteUtils.parseLong(copyField(column), 0, column.getLength());
+            } else {
+                throw new UnsupportedOperationException("Invalid data type. Column '" + column.getName() + "' is not an integer column.");
+            }
+        }
+
+        /**
+         * @param colIndex Index of the column.
+         * @return true if the value of the column is blank or equals the null value of the column type.
+         * @throws UnsupportedEncodingException If the encoding of the file is not supported.
+         */
+        public boolean isNull(int colIndex) throws UnsupportedEncodingException {
+            DbfColumn column = header.get(colIndex);
+            if (column.getColumnType() == DbfColumn.DbfColumnType.INTEGER) {
+                return false;
+            }
+
+            byte[] bytes = copyField(column);
+            if (column.getColumnType().isVisualFoxPro()) {
+                return DbfColumn.isBinaryBlank(column.getColumnType(), bytes, 0);
+            }
+            if (ByteUtils.isBlank(bytes, 0, column.getLength())) {
+                return true;
+            }
+            return header.getConfiguration().isNullValue(column.getColumnType(), bytes, 0, column.getLength());
+        }
+
+        /**
+         * Copy the current record into a record object, e.g. to modify it and write it to a file.
+         * @param record Record created with the header of this table.
+         */
+        public void copyTo(DbfRecord record) {
+            ByteBuffer view = getView();
+            ((Buffer) view).position(offset);
+            view.get(record.getData(), 0, recordLength);
+            record.setRecordIndex(index);
+        }
+
+        private ByteBuffer getPage() {
+            if (page == null) {
+                throw new IllegalStateException("Cursor does not point at a record.");
+            }
+            return page;
+        }
+
+        /**
+         * @return View of the current page with its own position, used for bulk copies.
+         */
+        private ByteBuffer getView() {
+            getPage();
+            if (views[pageIndex] == null) {
+                views[pageIndex] = pages[pageIndex].duplicate();
+            }
+            return views[pageIndex];
+        }
+
+        /**
+         * Copy a field of the current record to the scratch buffer of this cursor.
+         */
+        private byte[] copyField(DbfColumn column) {
+            ByteBuffer view = getView();
+            ((Buffer) view).position(offset + column.getDataAddress());
+            view.get(field, 0, column.getLength());
+            return field;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.socialexplorer.fastDBF4j;
+
+import com.socialexplorer.fastDBF4j.exceptions.InvalidDbfFileException;
+import com.socialexplorer.fastDBF4j.util.FileReader;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Concatenates DBF files with the same columns into one file, and splits a file into files of a given number of records.
+ * <p>
+ * Records are never decoded. Headers are compared once, and the record data of each file is moved as one range with
+ * FileChannel.transferTo, which lets the kernel copy the data (sendfile, copy_file_range) without passing it through
+ * the Java heap. The header of the target file is copied from the (first) source file, language driver and all,
+ * and only its record count is changed, written once when all records are copied.
+ * Deleted records are copied as they are.
+ */
+public class DbfTransfer {
+    private DbfTransfer() {
+    }
+
+    /**
+     * Concatenate files with the same columns. The files are opened one at a time, so any number of files can be concatenated.
+     *
+     * @param sourceFilePaths Paths of the files, in the order of their records in the target file.
+     * @param targetFilePath Path of the concatenated file. If the file exists, it is overwritten.
+     * @param tryToReadCpg True if the encoding of the files should be read from their .cpg files, see
+     *                     {@link DbfFile#DbfFile(String, String, boolean)}.
+     * @return Number of records written.
+     * @exception IllegalArgumentException If there are no files, the target file is one of the files, the files
+     *                                     differ in columns (name, type, length, decimals), encoding or file type,
+     *                                     or there are too many records for one file.
+     * @throws IOException If an I/O error occurs.
+     * @throws InvalidDbfFileException If a file is not a valid DBF file.
+     */
+    public static long concat(List<String> sourceFilePaths, String targetFilePath, boolean tryToReadCpg)
+            throws IOException, InvalidDbfFileException {
+        if (sourceFilePaths.isEmpty()) {
+            throw new IllegalArgumentException("Source file list can not be empty.");
+        }
+
+        String targetPath = new File(targetFilePath).getCanonicalPath();
+        DbfHeader[] headers = new DbfHeader[sourceFilePaths.size()];
+        long[] recordCounts = new long[sourceFilePaths.size()];
+        long recordCount = 0;
+
+        // Check all headers before the target file is touched.
+        for (int i = 0; i < headers.length; i++) {
+            String sourceFilePath = sourceFilePaths.get(i);
+            if (new File(sourceFilePath).getCanonicalPath().equals(targetPath)) {
+                throw new IllegalArgumentException("Target file " + targetFilePath + " is also a source file.");
+            }
+
+            DbfFile source = new DbfFile(sourceFilePath, "r", tryToReadCpg);
+            source.open();
+            try {
+                headers[i] = source.getHeader();
+                recordCounts[i] = source.countRecordsInFile();
+            } finally {
+                source.close();
+            }
+
+            checkCompatible(headers[0], sourceFilePaths.get(0), headers[i], sourceFilePath);
+            recordCount += recordCounts[i];
+        }
+
+        if (recordCount > DbfHeader.MAX_RECORD_COUNT) {
+            throw new IllegalArgumentException("Files have " + recordCount + " records, a DBF file can hold at most "
+                    + DbfHeader.MAX_RECORD_COUNT + ".");
+        }
+
+        int recordLength = headers[0].getRecordLength();
+        FileReader writer = new FileReader(new RandomAccessFile(targetFilePath, "rw"));
+        try {
+            writer.setLength(0);
+            FileChannel target = writer.getChannel();
+
+            for (int i = 0; i < headers.length; i++) {
+                RandomAccessFile input = new RandomAccessFile(sourceFilePaths.get(i), "r");
+                try {
+                    FileChannel source = input.getChannel();
+                    if (i == 0) {
+                        transfer(source, 0, headers[0].headerLength(), target);
+                    }
+                    transfer(source, headers[i].headerLength(), recordCounts[i] * recordLength, target);
+                } finally {
+                    input.close();
+                }
+            }
+
+            finish(writer, headers[0], recordCount);
+        } finally {
+            writer.close();
+        }
+
+        return recordCount;
+    }
+
+    /**
+     * Split a file into files of recordsPerFile records, the last file gets the rest. A file without records is
+     * split into one file without records. The source file is read through its own handle, so its position does not change.
+     *
+     * @param source Opened DBF file.
+     * @param recordsPerFile Number of records of each target file.
+     * @param targetFilePathFormat Format of the paths of the target files, with the zero based number of the file
+     *                             as the only argument, e.g. "tracts_%03d.dbf". Existing files are overwritten.
+     * @return Paths of the target files, in order.
+     * @exception IllegalStateException If the file is not opened or records are waiting in its journal.
+     * @exception IllegalArgumentException If the number of records is not positive, a target file is the source file,
+     *                                  or two target files have the same path.
+     * @throws IOException If an I/O error occurs.
+     */
+    public static List<String> split(DbfFile source, long recordsPerFile, String targetFilePathFormat) throws IOException {
+        if (source.dbfFile == null) {
+            throw new IllegalStateException("Source file is not opened.");
+        }
+        if (source.getJournal() != null && source.getJournal().getPendingCount() > 0) {
+            throw new IllegalStateException("Records are waiting in the journal, commit them first.");
+        }
+        if (recordsPerFile <= 0) {
+            throw new IllegalArgumentException("Number of records per file must be positive.");
+        }
+
+        DbfHeader header = source.getHeader();
+        int recordLength = header.getRecordLength();
+        long recordCount = source.countRecordsInFile();
+        List<String> targetFilePaths = new ArrayList<String>();
+
+        // Check all target paths before any of them is written, a target that is the source would be truncated.
+        long fileCount = Math.max(1, (recordCount + recordsPerFile - 1) / recordsPerFile);
+        String sourcePath = new File(source.getFilePath()).getCanonicalPath();
+        Set<String> targetPaths = new HashSet<String>();
+        for (long i = 0; i < fileCount; i++) {
+            String targetFilePath = String.format(targetFilePathFormat, i);
+            String targetPath = new File(targetFilePath).getCanonicalPath();
+            if (targetPath.equals(sourcePath)) {
+                throw new IllegalArgumentException("Target file " + targetFilePath + " is also the source file.");
+            }
+            if (!targetPaths.add(targetPath)) {
+                throw new IllegalArgumentException("Target file " + targetFilePath + " is used for more than one part.");
+            }
+        }
+
+        RandomAccessFile input = new RandomAccessFile(source.getFilePath(), "r");
+        try {
+            FileChannel channel = input.getChannel();
+            long first = 0;
+            do {
+                long count = Math.min(recordsPerFile, recordCount - first);
+                String targetFilePath = String.format(targetFilePathFormat, (long) targetFilePaths.size());
+
+                FileReader writer = new FileReader(new RandomAccessFile(targetFilePath, "rw"));
+                try {
+                    writer.setLength(0);
+                    transfer(channel, 0, header.headerLength(), writer.getChannel());
+                    transfer(channel, header.headerLength() + first * recordLength, count * recordLength, writer.getChannel());
+                    finish(writer, header, count);
+                } finally {
+                    writer.close();
+                }
+
+                targetFilePaths.add(targetFilePath);
+                first += count;
+            } while (first < recordCount);
+        } finally {
+            input.close();
+        }
+
+        return targetFilePaths;
+    }
+
+    /**
+     * Check that records of a file can be copied into a file with the header of another file as they are.
+     */
+    static void checkCompatible(DbfHeader expected, String expectedFilePath, DbfHeader actual, String actualFilePath) {
+        String files = actualFilePath + " and " + expectedFilePath;
+
+        if (expected.isVisualFoxPro() != actual.isVisualFoxPro()) {
+            throw new IllegalArgumentException("Files " + files + " are of different types.");
+        }
+        if (!expected.getConfiguration().getEncodingName().equalsIgnoreCase(actual.getConfiguration().getEncodingName())) {
+            throw new IllegalArgumentException("Files " + files + " have different encodings, "
+                    + actual.getConfiguration().getEncodingName() + " and " + expected.getConfiguration().getEncodingName() + ".");
+        }
+        if (expected.getColumnCount() != actual.getColumnCount()) {
+            throw new IllegalArgumentException("Files " + files + " have different numbers of columns.");
+        }
+
+        for (int i = 0; i < expected.getColumnCount(); i++) {
+            DbfColumn a = actual.get(i);
+            DbfColumn e = expected.get(i);
+            if (!a.getName().equals(e.getName()) || a.getColumnType() != e.getColumnType()
+                    || a.getLength() != e.getLength() || a.getDecimalCount() != e.getDecimalCount()) {
+                throw new IllegalArgumentException("Column " + i + " of files " + files + " differs: '" + a.getName() + "' "
+                        + a.getColumnType() + "(" + a.getLength() + "," + a.getDecimalCount() + ") and '" + e.getName() + "' "
+                        + e.getColumnType() + "(" + e.getLength() + "," + e.getDecimalCount() + ").");
+            }
+        }
+    }
+
+    /**
+     * Copy a range of a file to the current position of the target, advancing it.
+     */
+    private static void transfer(FileChannel source, long position, long count, FileChannel target) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long transferred = source.transferTo(position, end - position, target);
+            if (transferred <= 0 && position >= source.size()) {
+                throw new EOFException("File ended before all records were copied.");
+            }
+            position += transferred;
+        }
+    }
+
+    /**
+     * Write the end of file marker after the records, and the record count into the copied header.
+     */
+    private static void finish(FileReader writer, DbfHeader header, long recordCount) throws IOException {
+        // The channel shares its position with the file, so the marker goes right after the copied records.
+        writer.write(0x1A);
+
+        writer.seek(header.recordCountOffset);
+        writer.writeLittleEndianInt((int) recordCount);
+    }
+}
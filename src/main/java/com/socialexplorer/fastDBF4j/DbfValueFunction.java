@@ -0,0 +1,15 @@
+package com.socialexplorer.fastDBF4j;
+
+import java.io.IOException;
+
+/**
+ * Computes a new value of a column from a record, used by {@link DbfFile#updateColumn(int, DbfValueFunction)}.
+ */
+public interface DbfValueFunction {
+    /**
+     * @param record Current record. The record object is reused for the next call, do not keep it.
+     * @return New value of the column, as it would be passed to {@link DbfRecord#set(int, String)}.
+     * @throws IOException Thrown by the function to stop the update, it is passed on to the caller.
+     */
+    String apply(DbfRecord record) throws IOException;
+}
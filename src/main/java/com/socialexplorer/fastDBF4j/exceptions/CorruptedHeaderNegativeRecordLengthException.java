@@ -2,6 +2,6 @@ package com.socialexplorer.fastDBF4j.exceptions;
 
 public class CorruptedHeaderNegativeRecordLengthException extends InvalidDbfFileException {
     public CorruptedHeaderNegativeRecordLengthException(Integer invalidRecordLength) {
-        super("Expected non-negative record length definition in header but got " + invalidRecordLength);
+        super("Expected a record length between 1 and 65535 in header but got " + invalidRecordLength);
     }
 }
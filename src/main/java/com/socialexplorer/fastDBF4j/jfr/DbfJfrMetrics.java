@@ -0,0 +1,182 @@
+package com.socialexplorer.fastDBF4j.jfr;
+
+import com.socialexplorer.fastDBF4j.DbfColumn;
+import com.socialexplorer.fastDBF4j.DbfMetrics;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics that are emitted as JDK Flight Recorder events, so DBF I/O shows up in recordings and in JFR streaming
+ * next to GC and socket I/O. Needs a runtime with JFR (Java 11 and later, or Java 8 from update 262).
+ * <pre>
+ *     DbfJfrMetrics metrics = new DbfJfrMetrics();
+ *     dbfFile.setMetrics(metrics);
+ *     ...
+ *     metrics.close();
+ * </pre>
+ * Header reads and record reads and writes are events of their own, with the number of records and the time taken.
+ * Bytes, seeks, cache hits and decoded values are too frequent for an event each: they are counted, and the totals
+ * are emitted once per period (1 s by default) as a fastdbf4j.Statistics event.
+ * <p>
+ * Events are committed after the fact, so their own JFR duration is zero and thresholds do not filter them;
+ * the time taken is in the nanos field. When an event type is disabled, reporting it costs the check only.
+ */
+public class DbfJfrMetrics implements DbfMetrics {
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder seeks = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder valuesDecoded = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    private final Runnable statisticsHook = new Runnable() {
+        public void run() {
+            StatisticsEvent event = new StatisticsEvent();
+            event.bytesRead = bytesRead.sum();
+            event.bytesWritten = bytesWritten.sum();
+            event.seeks = seeks.sum();
+            event.cacheHits = cacheHits.sum();
+            event.valuesDecoded = valuesDecoded.sum();
+            event.decodeNanos = decodeNanos.sum();
+            event.commit();
+        }
+    };
+
+    /**
+     * Register the periodic statistics event. Call {@link #close()} once the metrics are not used any more.
+     */
+    public DbfJfrMetrics() {
+        FlightRecorder.addPeriodicEvent(StatisticsEvent.class, statisticsHook);
+    }
+
+    /**
+     * Stop emitting the periodic statistics event.
+     */
+    public void close() {
+        FlightRecorder.removePeriodicEvent(statisticsHook);
+    }
+
+    public void headerRead(long nanos) {
+        HeaderReadEvent event = new HeaderReadEvent();
+        if (event.isEnabled()) {
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    public void recordsRead(int count, long nanos) {
+        RecordsReadEvent event = new RecordsReadEvent();
+        if (event.isEnabled()) {
+            event.count = count;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    public void recordsWritten(int count, long nanos) {
+        RecordsWrittenEvent event = new RecordsWrittenEvent();
+        if (event.isEnabled()) {
+            event.count = count;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    public void bytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public void seek() {
+        seeks.increment();
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void valueDecoded(DbfColumn.DbfColumnType columnType, long nanos) {
+        valuesDecoded.increment();
+        decodeNanos.add(nanos);
+    }
+
+    @Name("fastdbf4j.HeaderRead")
+    @Label("DBF Header Read")
+    @Category("FastDBF4j")
+    @StackTrace(false)
+    static class HeaderReadEvent extends Event {
+        @Label("Time Taken")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("fastdbf4j.RecordsRead")
+    @Label("DBF Records Read")
+    @Description("Records read with one call, a whole block for block reads")
+    @Category("FastDBF4j")
+    @StackTrace(false)
+    static class RecordsReadEvent extends Event {
+        @Label("Records")
+        int count;
+
+        @Label("Time Taken")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("fastdbf4j.RecordsWritten")
+    @Label("DBF Records Written")
+    @Description("Records written with one call, a whole block for block writes")
+    @Category("FastDBF4j")
+    @StackTrace(false)
+    static class RecordsWrittenEvent extends Event {
+        @Label("Records")
+        int count;
+
+        @Label("Time Taken")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("fastdbf4j.Statistics")
+    @Label("DBF I/O Statistics")
+    @Description("Totals since the metrics were created")
+    @Category("FastDBF4j")
+    @Period("1 s")
+    @StackTrace(false)
+    static class StatisticsEvent extends Event {
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        @Label("Seeks")
+        long seeks;
+
+        @Label("Cache Hits")
+        long cacheHits;
+
+        @Label("Values Decoded")
+        long valuesDecoded;
+
+        @Label("Decode Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long decodeNanos;
+    }
+}
@@ -1,8 +1,30 @@
 package com.socialexplorer.fastDBF4j.util;
 
 import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public class ByteUtils {
+    /**
+     * Powers of ten that are exactly representable as double.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * Maximum number of significant digits that fit into double mantissa exactly.
+     */
+    public static final int MAX_EXACT_DIGITS = 15;
+
+    /**
+     * Eight blanks (spaces) packed into a long.
+     */
+    public static final long EIGHT_BLANKS = 0x2020202020202020L;
+
     public static byte[] int2byte(int intValue) throws IOException {
         ByteArrayOutputStream outStream = new ByteArrayOutputStream(Integer.SIZE/8);
         DataOutputStream dos = new DataOutputStream(outStream);
@@ -45,4 +67,350 @@ public class ByteUtils {
 
         return b1 << 24 | b2 << 16 | b3 << 8 | b4 << 0;
     }
+
+    /**
+     * Read a 4 byte little endian integer from a byte array.
+     * @param b Byte array.
+     * @param offset Offset of the first (least significant) byte.
+     * @return Integer value.
+     */
+    public static int getLittleEndianInt(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8 | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] << 24);
+    }
+
+    /**
+     * Read an 8 byte little endian integer from a byte array.
+     * @param b Byte array.
+     * @param offset Offset of the first (least significant) byte.
+     * @return Long value.
+     */
+    public static long getLittleEndianLong(byte[] b, int offset) {
+        return (getLittleEndianInt(b, offset) & 0xFFFFFFFFL) | ((long) getLittleEndianInt(b, offset + 4) << 32);
+    }
+
+    /**
+     * Write a 4 byte little endian integer to a byte array.
+     * @param b Byte array.
+     * @param offset Offset of the first (least significant) byte.
+     * @param value Integer value.
+     */
+    public static void putLittleEndianInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+        b[offset + 2] = (byte) (value >> 16);
+        b[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * Write an 8 byte little endian integer to a byte array.
+     * @param b Byte array.
+     * @param offset Offset of the first (least significant) byte.
+     * @param value Long value.
+     */
+    public static void putLittleEndianLong(byte[] b, int offset, long value) {
+        putLittleEndianInt(b, offset, (int) value);
+        putLittleEndianInt(b, offset + 4, (int) (value >> 32));
+    }
+
+    /**
+     * @param b Byte array.
+     * @param offset Offset of the field.
+     * @param length Length of the field.
+     * @return true if the field contains only blanks (spaces or NULL characters), false otherwise.
+     */
+    public static boolean isBlank(byte[] b, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (b[i] != ' ' && b[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare a field, with leading and trailing blanks (spaces and control characters) ignored, to the given bytes.
+     * @param b Byte array.
+     * @param offset Offset of the field.
+     * @param length Length of the field.
+     * @param value Bytes to compare to, without leading and trailing blanks.
+     * @return true if the trimmed field equals the given bytes.
+     */
+    public static boolean equalsTrimmed(byte[] b, int offset, int length, byte[] value) {
+        int start = offset;
+        int end = offset + length;
+        while (start < end && (b[start] & 0xff) <= ' ') start++;
+        while (end > start && (b[end - 1] & 0xff) <= ' ') end--;
+
+        if (end - start != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (b[start + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /***
+     * Parse an integer stored as ASCII text, padded with blanks, without creating String objects.
+     * @param b Byte array.
+     * @param offset Offset of the field.
+     * @param length Length of the field.
+     * @return Parsed value.
+     * @exception NumberFormatException If the field is blank or is not an integer.
+     */
+    public static long parseLong(byte[] b, int offset, int length) {
+        int start = offset;
+        int end = offset + length;
+        while (start < end && (b[start] == ' ' || b[start] == 0)) start++;
+        while (end > start && (b[end - 1] == ' ' || b[end - 1] == 0)) end--;
+
+        if (start == end) {
+            throw new NumberFormatException("Blank value can not be parsed as a number.");
+        }
+
+        boolean negative = false;
+        int i = start;
+        if (b[i] == '-' || b[i] == '+') {
+            negative = b[i] == '-';
+            i++;
+        }
+
+        if (i == end || end - i > 18) {
+            // Sign only, or too many digits to accumulate without overflow checks.
+            return Long.parseLong(new String(b, start, end - start, StandardCharsets.US_ASCII));
+        }
+
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number: " + new String(b, start, end - start, StandardCharsets.US_ASCII));
+            }
+            value = value * 10 + digit;
+        }
+
+        return negative ? -value : value;
+    }
+
+    /***
+     * Format a number as ASCII text with a fixed number of decimals, right aligned and padded with blanks,
+     * as NUMBER and FLOAT fields are stored. Values with up to 15 significant digits are formatted without creating
+     * objects, larger values go through BigDecimal. Rounding is half up, with the same result as String.format().
+     * @param value Value to format, must be finite.
+     * @param decimals Number of decimals.
+     * @param b Byte array.
+     * @param offset Offset of the field.
+     * @param length Length of the field.
+     * @return true if the value fits into the field, false otherwise (field content is then undefined).
+     * @exception NumberFormatException If the value is NaN or infinite.
+     */
+    public static boolean formatNumber(double value, int decimals, byte[] b, int offset, int length) {
+        Arrays.fill(b, offset, offset + length, (byte) ' ');
+
+        double scaled = decimals < POWERS_OF_TEN.length ? Math.abs(value) * POWERS_OF_TEN[decimals] : Double.POSITIVE_INFINITY;
+        // Scaling rounds by at most half an ulp, values that close to a tie are rounded below, from the shortest decimal representation.
+        if (scaled < POWERS_OF_TEN[MAX_EXACT_DIGITS] && Math.abs(scaled - Math.floor(scaled) - 0.5) > Math.ulp(scaled)) {
+            long digits = Math.round(scaled);
+            boolean negative = value < 0 && digits != 0;
+            int position = offset + length;
+
+            for (int i = 0; i < decimals; i++) {
+                if (position == offset) return false;
+                b[--position] = (byte) ('0' + digits % 10);
+                digits /= 10;
+            }
+            if (decimals > 0) {
+                if (position == offset) return false;
+                b[--position] = '.';
+            }
+            do {
+                if (position == offset) return false;
+                b[--position] = (byte) ('0' + digits % 10);
+                digits /= 10;
+            } while (digits != 0);
+            if (negative) {
+                if (position == offset) return false;
+                b[--position] = '-';
+            }
+            return true;
+        }
+
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new NumberFormatException("Value " + value + " can not be stored as a number.");
+        }
+        String text = BigDecimal.valueOf(value).setScale(decimals, RoundingMode.HALF_UP).toPlainString();
+        if (text.length() > length) {
+            return false;
+        }
+        for (int i = 0, position = offset + length - text.length(); i < text.length(); i++, position++) {
+            b[position] = (byte) text.charAt(i);
+        }
+        return true;
+    }
+
+    /***
+     * Parse a number stored as ASCII text, padded with blanks, without creating String objects. Numbers with up to
+     * 15 significant digits are parsed directly from the bytes (the result is the same as with Double.parseDouble),
+     * longer numbers and numbers in scientific notation fall back to Double.parseDouble.
+     * @param b Byte array.
+     * @param offset Offset of the field.
+     * @param length Length of the field.
+     * @return Parsed value, or Double.NaN if the field is blank.
+     * @exception NumberFormatException If the field is not a number.
+     */
+    public static double parseDouble(byte[] b, int offset, int length) {
+        return parseDouble(b, offset, length, null);
+    }
+
+    /***
+     * Same as {@link #parseDouble(byte[], int, int)}, but when a little endian view of the byte array is given,
+     * blanks and digits are processed eight bytes at a time (SWAR - SIMD within a register).
+     * Pass a view that is reused for many values, e.g. one view per block of records.
+     * @param b Byte array.
+     * @param offset Offset of the field.
+     * @param length Length of the field.
+     * @param view Little endian ByteBuffer wrapping the whole byte array, or null to process one byte at a time.
+     * @return Parsed value, or Double.NaN if the field is blank.
+     * @exception NumberFormatException If the field is not a number.
+     */
+    public static double parseDouble(byte[] b, int offset, int length, ByteBuffer view) {
+        return parseDouble(b, offset, length, view, true);
+    }
+
+    /***
+     * Same as {@link #parseDouble(byte[], int, int)}, but returns Double.NaN instead of throwing when the field
+     * is not a number (e.g. the '*****' overflow marker), for hot paths that treat invalid values like blanks.
+     * @param b Byte array.
+     * @param offset Offset of the field.
+     * @param length Length of the field.
+     * @return Parsed value, or Double.NaN if the field is blank or not a number.
+     */
+    public static double parseDoubleOrNaN(byte[] b, int offset, int length) {
+        return parseDouble(b, offset, length, null, false);
+    }
+
+    private static double parseDouble(byte[] b, int offset, int length, ByteBuffer view, boolean strict) {
+        int start = offset;
+        int end = offset + length;
+        if (view != null) {
+            // Numbers are right justified, so leading blanks are the long run.
+            while (end - start >= 8 && view.getLong(start) == EIGHT_BLANKS) start += 8;
+        }
+        while (start < end && (b[start] == ' ' || b[start] == 0)) start++;
+        while (end > start && (b[end - 1] == ' ' || b[end - 1] == 0)) end--;
+
+        if (start == end) {
+            return Double.NaN;
+        }
+
+        boolean negative = false;
+        int i = start;
+        if (b[i] == '-' || b[i] == '+') {
+            negative = b[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        boolean anyDigit = false;
+        for (; i < end; i++) {
+            if (view != null && end - i >= 8 && digits + 8 <= MAX_EXACT_DIGITS) {
+                long chunk = view.getLong(i);
+                if (isEightDigits(chunk)) {
+                    // Leading zeros do not count as significant digits, but they are all caught by the check above.
+                    anyDigit = true;
+                    mantissa = mantissa * 100000000L + parseEightDigits(chunk);
+                    digits = mantissa == 0 ? 0 : digits + 8;
+                    if (decimals >= 0) {
+                        decimals += 8;
+                    }
+                    i += 7;
+                    continue;
+                }
+            }
+
+            byte c = b[i];
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (mantissa != 0 || c != '0') {
+                    digits++;
+                }
+                if (digits > MAX_EXACT_DIGITS) {
+                    break;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (c == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                break;
+            }
+        }
+
+        if (i < end || !anyDigit || decimals >= POWERS_OF_TEN.length) {
+            // Not a plain decimal number (too long, exponent, garbage), let the JDK deal with it.
+            if (!strict && !isDecimalLiteral(b, start, end)) {
+                return Double.NaN;
+            }
+            return Double.parseDouble(new String(b, start, end - start, StandardCharsets.US_ASCII));
+        }
+
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /***
+     * @return true if the bytes are a decimal number Double.parseDouble accepts: optional sign, digits with
+     *         an optional decimal point, optional exponent.
+     */
+    private static boolean isDecimalLiteral(byte[] b, int start, int end) {
+        int i = start;
+        if (i < end && (b[i] == '-' || b[i] == '+')) i++;
+        int digits = 0;
+        for (; i < end && b[i] >= '0' && b[i] <= '9'; i++) digits++;
+        if (i < end && b[i] == '.') {
+            for (i++; i < end && b[i] >= '0' && b[i] <= '9'; i++) digits++;
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < end && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            if (i < end && (b[i] == '-' || b[i] == '+')) i++;
+            int exponentDigits = 0;
+            for (; i < end && b[i] >= '0' && b[i] <= '9'; i++) exponentDigits++;
+            if (exponentDigits == 0) {
+                return false;
+            }
+        }
+        return i == end;
+    }
+
+    /***
+     * @param chunk Eight bytes loaded as a little endian long.
+     * @return true if all eight bytes are ASCII digits.
+     */
+    public static boolean isEightDigits(long chunk) {
+        // Every byte must be 0x3?, and adding 6 must not carry it out of the 0x3? range (so ? is at most 9).
+        return (chunk & 0xF0F0F0F0F0F0F0F0L) == 0x3030303030303030L
+                && ((chunk + 0x0606060606060606L) & 0xF0F0F0F0F0F0F0F0L) == 0x3030303030303030L;
+    }
+
+    /***
+     * Parse eight ASCII digits at once, first digit in the lowest byte. Check the digits with {@link #isEightDigits(long)}.
+     * @param chunk Eight bytes loaded as a little endian long.
+     * @return Value of the eight digit number.
+     */
+    public static int parseEightDigits(long chunk) {
+        long value = chunk - 0x3030303030303030L;
+        value = (value * 10 + (value >>> 8)) & 0x00FF00FF00FF00FFL;
+        value = (value * 100 + (value >>> 16)) & 0x0000FFFF0000FFFFL;
+        value = (value * 10000 + (value >>> 32)) & 0xFFFFFFFFL;
+        return (int) value;
+    }
 }
@@ -1,19 +1,50 @@
 package com.socialexplorer.fastDBF4j.util;
 
+import com.socialexplorer.fastDBF4j.DbfColumn;
+import com.socialexplorer.fastDBF4j.DbfMetrics;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
 public class Configuration {
     /**
      * Encoding to be used if it is not provided by the user and the encoding written in DBF language driver
      * is not valid.
      */
     public static final String DEFAULT_ENCODING_NAME = "windows-1252";
+    /**
+     * Default size in bytes of the buffers used for bulk sequential I/O (packing, copying, scanning).
+     */
+    public static final int DEFAULT_IO_BUFFER_SIZE = 1024 * 1024;
     /**
      * Encoding name that is used.
      */
     private String encodingName;
+    /**
+     * Charset of the encoding, looked up on first use.
+     */
+    private volatile Charset charset = null;
     /**
      * True if encoding is provided by the user (should be forced). False if it should be read from dbf.
      */
     private Boolean shouldTryToSetEncodingFromLanguageDriver;
+    /**
+     * Size in bytes of the buffers used for bulk sequential I/O.
+     */
+    private int ioBufferSize = DEFAULT_IO_BUFFER_SIZE;
+    /**
+     * Receives I/O and decode measurements, null if metrics are disabled.
+     */
+    private DbfMetrics metrics = null;
+    /**
+     * Null value of each column type, indexed by ordinal. Null if the column type has no null value.
+     */
+    private final String[] nullValues = new String[DbfColumn.DbfColumnType.values().length];
+    /**
+     * Null values trimmed and encoded with the encoding of the file, so fields can be checked without decoding them.
+     * Created on first use, cleared when a null value or the encoding changes.
+     */
+    private volatile byte[][] nullValueBytes = null;
 
     public String getEncodingName() {
         return encodingName;
@@ -21,6 +52,21 @@ public class Configuration {
 
     public void setEncodingName(String encodingName) {
         this.encodingName = encodingName;
+        charset = null;
+        nullValueBytes = null;
+    }
+
+    /**
+     * @return Charset of the encoding, so values can be decoded without looking up the encoding by name.
+     * @exception java.nio.charset.UnsupportedCharsetException If the encoding is not supported.
+     */
+    public Charset getCharset() {
+        Charset current = charset;
+        if (current == null) {
+            current = Charset.forName(encodingName);
+            charset = current;
+        }
+        return current;
     }
 
     public Boolean getShouldTryToSetEncodingFromLanguageDriver() {
@@ -30,4 +76,95 @@ public class Configuration {
     public void setShouldTryToSetEncodingFromLanguageDriver(Boolean shouldTryToSetEncodingFromLanguageDriver) {
         this.shouldTryToSetEncodingFromLanguageDriver = shouldTryToSetEncodingFromLanguageDriver;
     }
+
+    public int getIoBufferSize() {
+        return ioBufferSize;
+    }
+
+    /**
+     * @param ioBufferSize Size in bytes of the buffers used for bulk sequential I/O.
+     * @exception IllegalArgumentException If the buffer size is not positive.
+     */
+    public void setIoBufferSize(int ioBufferSize) {
+        if (ioBufferSize <= 0) {
+            throw new IllegalArgumentException("I/O buffer size must be positive.");
+        }
+        this.ioBufferSize = ioBufferSize;
+    }
+
+    public DbfMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics Receives I/O and decode measurements, null to disable metrics.
+     */
+    public void setMetrics(DbfMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param type Column type.
+     * @return Value that is written for null values of the column type and read as null, or null if there is none.
+     */
+    public String getNullValue(DbfColumn.DbfColumnType type) {
+        return nullValues[type.ordinal()];
+    }
+
+    /**
+     * Set the value that is written to fields of the given type when setting a null value, and that is read
+     * as null when found in the file (blanks around the value are ignored). Applies to files using this configuration only.
+     *
+     * @param type Column type.
+     * @param nullValue Null value, or null to read and write null values as blank fields.
+     */
+    public void setNullValue(DbfColumn.DbfColumnType type, String nullValue) {
+        nullValues[type.ordinal()] = nullValue;
+        nullValueBytes = null;
+    }
+
+    /**
+     * Copy the null values of all column types from another configuration.
+     * @param other Configuration to copy from.
+     */
+    public void setNullValues(Configuration other) {
+        System.arraycopy(other.nullValues, 0, nullValues, 0, nullValues.length);
+        nullValueBytes = null;
+    }
+
+    /**
+     * @param type Column type.
+     * @return Null value of the column type, trimmed and encoded with the encoding of the file,
+     *         or null if the column type has no null value.
+     * @throws UnsupportedEncodingException If the encoding is not supported.
+     */
+    public byte[] getNullValueBytes(DbfColumn.DbfColumnType type) throws UnsupportedEncodingException {
+        byte[][] bytes = nullValueBytes;
+        if (bytes == null) {
+            // Build a new array and publish it at once, so concurrent readers never see a partial one.
+            bytes = new byte[nullValues.length][];
+            for (int i = 0; i < nullValues.length; i++) {
+                if (nullValues[i] != null) {
+                    bytes[i] = nullValues[i].trim().getBytes(encodingName);
+                }
+            }
+            nullValueBytes = bytes;
+        }
+        return bytes[type.ordinal()];
+    }
+
+    /**
+     * Check whether a field holds the null value of its column type, comparing bytes in place.
+     *
+     * @param type Column type.
+     * @param b Record data.
+     * @param offset Offset of the field.
+     * @param length Length of the field.
+     * @return true if the field, with blanks trimmed, equals the null value of the column type.
+     * @throws UnsupportedEncodingException If the encoding is not supported.
+     */
+    public boolean isNullValue(DbfColumn.DbfColumnType type, byte[] b, int offset, int length) throws UnsupportedEncodingException {
+        byte[] nullValue = getNullValueBytes(type);
+        return nullValue != null && ByteUtils.equalsTrimmed(b, offset, length, nullValue);
+    }
 }
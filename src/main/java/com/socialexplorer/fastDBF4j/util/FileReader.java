@@ -1,18 +1,32 @@
 package com.socialexplorer.fastDBF4j.util;
 
+import com.socialexplorer.fastDBF4j.DbfMetrics;
+
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 public class FileReader {
     /**
      * Reader/writer that is actually used for reading and writing to the file.
      */
     private final RandomAccessFile reader;
+    /**
+     * Receives byte counts and seeks, null if metrics are disabled.
+     */
+    private DbfMetrics metrics = null;
 
     public FileReader(RandomAccessFile reader) {
         this.reader = reader;
     }
 
+    /**
+     * @param metrics Receives byte counts and seeks of bulk reads and writes, null to disable metrics.
+     */
+    public void setMetrics(DbfMetrics metrics) {
+        this.metrics = metrics;
+    }
+
 
     public int readLittleEndianInt() throws IOException {
         return ByteUtils.swap(reader.readInt());
@@ -26,7 +40,7 @@ public class FileReader {
         byte b1 = reader.readByte(); // least significant byte comes first in little endian
         byte b2 = reader.readByte(); // most significant
 
-        return (b2 << 8) | (b1 & 0xFF);
+        return ((b2 & 0xFF) << 8) | (b1 & 0xFF);
     }
 
     public void writeLittleEndianInt(int bigEndianInt) throws IOException {
@@ -82,13 +96,32 @@ public class FileReader {
 
     public void close() throws IOException { reader.close(); }
     public long length() throws IOException { return reader.length(); }
-    public void seek(long pos) throws IOException { reader.seek(pos); }
+    public void seek(long pos) throws IOException {
+        reader.seek(pos);
+        if (metrics != null) metrics.seek();
+    }
     public long getFilePointer() throws IOException { return reader.getFilePointer(); }
-    public void write(byte[] b) throws IOException { reader.write(b); }
+    public void write(byte[] b) throws IOException {
+        reader.write(b);
+        if (metrics != null) metrics.bytesWritten(b.length);
+    }
     public void write(int b) throws IOException { reader.write(b); }
     public void writeByte(int v) throws IOException { reader.writeByte(v); }
-    public void write(byte[] b, int off, int len) throws IOException { reader.write(b, off, len); }
+    public void write(byte[] b, int off, int len) throws IOException {
+        reader.write(b, off, len);
+        if (metrics != null) metrics.bytesWritten(len);
+    }
     public byte readByte() throws IOException { return reader.readByte(); }
-    public int read(byte[] b, int off, int len) throws IOException { return reader.read(b, off, len); }
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = reader.read(b, off, len);
+        if (metrics != null && count > 0) metrics.bytesRead(count);
+        return count;
+    }
     public int skipBytes(int n) throws IOException { return reader.skipBytes(n); }
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        reader.readFully(b, off, len);
+        if (metrics != null) metrics.bytesRead(len);
+    }
+    public void setLength(long newLength) throws IOException { reader.setLength(newLength); }
+    public FileChannel getChannel() { return reader.getChannel(); }
 }
@@ -0,0 +1,125 @@
+package com.socialexplorer.fastDBF4j.util;
+
+/**
+ * HyperLogLog sketch that estimates the number of distinct values using a fixed amount of memory
+ * (one byte per register). With 4096 registers the standard error is about 1.6%.
+ *
+ * Values are added as byte ranges, so field data can be added straight from a record buffer.
+ */
+public class HyperLogLog {
+    /**
+     * Number of hash bits used to pick a register.
+     */
+    private final int precision;
+
+    private final byte[] registers;
+
+    /**
+     * @param precision Number of hash bits used to pick a register, between 4 and 16. Sketch uses 2^precision bytes.
+     * @exception IllegalArgumentException If precision is out of range.
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Precision must be between 4 and 16.");
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Create a sketch from registers saved with {@link #getRegisters()}.
+     * @param registers Saved registers. Length must be a power of two between 16 and 65536.
+     * @exception IllegalArgumentException If the number of registers is not valid.
+     */
+    public HyperLogLog(byte[] registers) {
+        this(Integer.numberOfTrailingZeros(registers.length));
+        if (registers.length != this.registers.length) {
+            throw new IllegalArgumentException("Number of registers must be a power of two.");
+        }
+        System.arraycopy(registers, 0, this.registers, 0, registers.length);
+    }
+
+    /**
+     * Add a value.
+     * @param b Byte array.
+     * @param offset Offset of the value.
+     * @param length Length of the value.
+     */
+    public void add(byte[] b, int offset, int length) {
+        long hash = hash(b, offset, length);
+
+        int register = (int) (hash >>> (64 - precision));
+        // Position of the first 1 bit in the remaining bits. Lowest bit is set so it is never more than 64 - precision + 1.
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+
+        if (registers[register] < rank) {
+            registers[register] = rank;
+        }
+    }
+
+    /**
+     * Merge another sketch of the same precision into this one.
+     * @param other Sketch to merge.
+     * @exception IllegalArgumentException If precisions differ.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Sketches with different precisions can not be merged.");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] < other.registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * @return Estimated number of distinct values added.
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeroRegisters = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeroRegisters++;
+            }
+        }
+
+        double alpha = m == 16 ? 0.673 : (m == 32 ? 0.697 : (m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m)));
+        double estimate = alpha * m * m / sum;
+
+        // Small range correction (linear counting).
+        if (estimate <= 2.5 * m && zeroRegisters > 0) {
+            estimate = m * Math.log((double) m / zeroRegisters);
+        }
+
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return Registers of the sketch, used to save it. This is the internal array, not a copy.
+     */
+    public byte[] getRegisters() {
+        return registers;
+    }
+
+    /**
+     * 64 bit FNV-1a hash with a final avalanche step, so that all bits are well mixed.
+     */
+    private static long hash(byte[] b, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= b[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,161 @@
+package com.socialexplorer.fastDBF4j.test;
+
+import com.socialexplorer.fastDBF4j.DbfColumn;
+import com.socialexplorer.fastDBF4j.DbfConcurrentReader;
+import com.socialexplorer.fastDBF4j.DbfFile;
+import com.socialexplorer.fastDBF4j.DbfRecord;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of random lookups with DbfConcurrentReader, compared with DbfFile.read(index) behind a lock,
+ * for 1 to 10000 concurrent callers.
+ * <p>
+ * Usage: RunConcurrentReaderBenchmark [dbf file or ""] [lookups per round]
+ * Without a file, a file of 200000 records is created in the temp folder. Each thread count is run once to warm up,
+ * then three times, and the median is reported. Callers run on virtual threads when the JDK has them (21 and later),
+ * on platform threads otherwise. Scaling needs several cores: on one core all callers share it, whatever the reader.
+ */
+public class RunConcurrentReaderBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 100, 1000, 10000};
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        String path = args.length > 0 && args[0].length() > 0 ? args[0] : createFile(200000);
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+        final DbfFile file = new DbfFile(path, "r", false);
+        file.open();
+        final DbfConcurrentReader reader = new DbfConcurrentReader(file);
+        final long recordCount = file.getHeader().getRecordCount();
+
+        System.out.println("records: " + recordCount + ", lookups per round: " + lookups
+                + ", threads: " + (isVirtual() ? "virtual" : "platform") + ", cores: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("callers\tconcurrent reader\tsynchronized DbfFile.read\t(lookups/s)");
+
+        for (int threads : THREAD_COUNTS) {
+            double[] concurrent = new double[ROUNDS];
+            double[] locked = new double[ROUNDS];
+            for (int round = -1; round < ROUNDS; round++) {
+                double concurrentRate = run(threads, lookups, recordCount, new Lookup() {
+                    public void read(long index, DbfRecord record) throws Exception {
+                        reader.read(index, record);
+                    }
+                }, file);
+                double lockedRate = run(threads, lookups, recordCount, new Lookup() {
+                    public void read(long index, DbfRecord record) throws Exception {
+                        synchronized (file) {
+                            file.read(index, record);
+                        }
+                    }
+                }, file);
+                if (round >= 0) {
+                    concurrent[round] = concurrentRate;
+                    locked[round] = lockedRate;
+                }
+            }
+            System.out.println(threads + "\t" + Math.round(median(concurrent)) + "\t" + Math.round(median(locked)));
+        }
+
+        reader.close();
+        file.close();
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private interface Lookup {
+        void read(long index, DbfRecord record) throws Exception;
+    }
+
+    /**
+     * Run lookups spread evenly over the callers, all started at once.
+     * @return Lookups per second.
+     */
+    private static double run(int threads, int lookups, final long recordCount, final Lookup lookup, final DbfFile file) throws Exception {
+        final int perThread = Math.max(1, lookups / threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        ExecutorService executor = newExecutor(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                final long seed = t;
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            Random random = new Random(seed);
+                            DbfRecord record = new DbfRecord(file.getHeader());
+                            start.await();
+                            for (int i = 0; i < perThread; i++) {
+                                lookup.read((long) (random.nextDouble() * recordCount), record);
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            done.await();
+            return (double) perThread * threads / ((System.nanoTime() - begin) / 1e9);
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Virtual thread per task executor on JDK 21 and later, looked up reflectively since the library targets Java 8.
+     */
+    private static ExecutorService newExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    private static boolean isVirtual() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static String createFile(int recordCount) throws Exception {
+        File temp = File.createTempFile("concurrent-reader", ".dbf");
+        temp.delete();
+        temp.deleteOnExit();
+
+        DbfFile file = new DbfFile(temp.getPath(), "rw", false);
+        file.open();
+        file.getHeader().addColumn("ID", DbfColumn.DbfColumnType.NUMBER, 10, 0);
+        file.getHeader().addColumn("NAME", DbfColumn.DbfColumnType.CHARACTER, 40, 0);
+        DbfRecord record = new DbfRecord(file.getHeader());
+        for (int i = 0; i < recordCount; i++) {
+            record.clear();
+            record.set(0, Integer.toString(i));
+            record.set(1, "record " + i);
+            file.write(record);
+        }
+        file.close();
+
+        return temp.getPath();
+    }
+}
@@ -7,6 +7,8 @@ import com.socialexplorer.fastDBF4j.exceptions.DbfDataTruncateException;
 import com.socialexplorer.fastDBF4j.exceptions.InvalidDbfFileException;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class RunDbfReader {
     public static void main(String[] args) throws Exception {
@@ -15,15 +17,29 @@ public class RunDbfReader {
 
     private static void addColumn() throws IOException, InvalidDbfFileException, DbfDataTruncateException {
         String path = "/home/maida/tmp/datahub-java-workers/test_data/new.dbf";
-        DbfFile dbfFile = new DbfFile(path, "rw", true);
+        String migratedPath = "/home/maida/tmp/datahub-java-workers/test_data/new_migrated.dbf";
+        DbfFile dbfFile = new DbfFile(path, "r", true);
         dbfFile.open();
 
-        DbfColumn dbfColumn = new DbfColumn("kolona", DbfColumn.DbfColumnType.CHARACTER, 10, 0);
-        dbfFile.getHeader().addColumn(dbfColumn);
+        // Header of an opened file is locked, so write the records into a new file with the extra column.
+        List<DbfColumn> columns = new ArrayList<DbfColumn>();
+        for (int i = 0; i < dbfFile.getHeader().getColumnCount(); i++) {
+            columns.add(dbfFile.getHeader().get(i));
+        }
+        columns.add(new DbfColumn("kolona", DbfColumn.DbfColumnType.CHARACTER, 10, 0));
+        dbfFile.migrateSchema(columns, migratedPath);
+        dbfFile.close();
+
+        DbfFile migratedFile = new DbfFile(migratedPath, "rw", true);
+        migratedFile.open();
+        int columnIndex = migratedFile.getHeader().findColumn("kolona");
 
-        DbfRecord dbfRecord = new DbfRecord(dbfFile.getHeader());
-        dbfRecord.set(0, "aaa");
-        dbfFile.write(dbfRecord);
+        DbfRecord dbfRecord;
+        while ((dbfRecord = migratedFile.readNext()) != null) {
+            dbfRecord.set(columnIndex, "aaa");
+            migratedFile.update(dbfRecord);
+        }
+        migratedFile.close();
     }
 
 
@@ -0,0 +1,184 @@
+package com.socialexplorer.fastDBF4j.test;
+
+import com.socialexplorer.fastDBF4j.DbfColumn;
+import com.socialexplorer.fastDBF4j.DbfConcurrentAppender;
+import com.socialexplorer.fastDBF4j.DbfFile;
+import com.socialexplorer.fastDBF4j.DbfJournal;
+import com.socialexplorer.fastDBF4j.DbfRecord;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Crash and replay of the journal around operations that write the file directly (pack, updateColumn,
+ * DbfConcurrentAppender). A crash is simulated by copying the DBF file and its journal while the file is still open,
+ * then the copy is opened for writing, which replays the journal. The copy must hold the records of the live file.
+ * <p>
+ * Usage: RunJournalCrashTest [folder for temporary files]
+ */
+public class RunJournalCrashTest {
+    public static void main(String[] args) throws Exception {
+        File folder = args.length > 0 ? new File(args[0]) : Files.createTempDirectory("journal-crash").toFile();
+
+        packAfterCommittedUpdates(folder);
+        packWithPendingUpdate(folder);
+        updateColumnAfterCommittedUpdate(folder);
+        appendAfterCommittedUpdate(folder);
+
+        System.out.println("All journal crash tests passed.");
+    }
+
+    /**
+     * Update and delete records, commit each, then pack: replay must not bring back deleted records
+     * or write images over the moved records.
+     */
+    private static void packAfterCommittedUpdates(File folder) throws Exception {
+        DbfFile file = create(folder, "pack.dbf", "R1", "R2", "R3", "R4", "R5");
+
+        DbfRecord record = file.read(3);
+        record.set(0, "NEW4");
+        file.update(record);
+        file.commit();
+
+        record = file.read(0);
+        record.setIsDeleted(true);
+        file.update(record);
+        file.commit();
+
+        file.pack();
+        check("pack after committed updates", crash(file), "R2", "R3", "NEW4", "R5");
+        file.close();
+    }
+
+    /**
+     * Update a record without committing it, then pack: the pending image must be committed before records move.
+     */
+    private static void packWithPendingUpdate(File folder) throws Exception {
+        DbfFile file = create(folder, "pending.dbf", "R1", "R2", "R3");
+
+        DbfRecord record = file.read(0);
+        record.setIsDeleted(true);
+        file.update(record);
+        file.commit();
+
+        record = file.read(2);
+        record.set(0, "P3");
+        file.update(record);
+
+        file.pack();
+        check("pack with pending update", crash(file), "R2", "P3");
+        file.close();
+    }
+
+    /**
+     * Update a record and commit, then set the numeric column of all records: replay must not undo the column update.
+     */
+    private static void updateColumnAfterCommittedUpdate(File folder) throws Exception {
+        DbfFile file = create(folder, "column.dbf", "R1", "R2", "R3");
+
+        DbfRecord record = file.read(1);
+        record.set(0, "U2");
+        file.update(record);
+        file.commit();
+
+        file.updateColumn(1, 0, new double[]{10, 20, 30});
+        DbfFile copy = crash(file);
+        check("updateColumn after committed update", copy, "R1:10", "U2:20", "R3:30");
+        file.close();
+    }
+
+    /**
+     * Update a record and commit, then append records with the concurrent appender: replay must keep the appended records.
+     */
+    private static void appendAfterCommittedUpdate(File folder) throws Exception {
+        DbfFile file = create(folder, "append.dbf", "R1", "R2");
+
+        DbfRecord record = file.read(0);
+        record.set(0, "U1");
+        file.update(record);
+        file.commit();
+
+        DbfConcurrentAppender appender = new DbfConcurrentAppender(file);
+        record = new DbfRecord(file.getHeader());
+        for (String name : new String[]{"A3", "A4"}) {
+            record.clear();
+            record.set(0, name);
+            appender.append(record);
+        }
+        appender.close();
+
+        check("append after committed update", crash(file), "U1", "R2", "A3", "A4");
+        file.close();
+    }
+
+    /**
+     * Create a file with a NAME and a V column holding the given names, and enable its journal.
+     */
+    private static DbfFile create(File folder, String name, String... names) throws Exception {
+        File path = new File(folder, name);
+        path.delete();
+        new File(path.getPath() + DbfJournal.SIDECAR_EXTENSION).delete();
+
+        DbfFile file = new DbfFile(path.getPath(), "rw", false);
+        file.open();
+        file.getHeader().addColumn("NAME", DbfColumn.DbfColumnType.CHARACTER, 10, 0);
+        file.getHeader().addColumn("V", DbfColumn.DbfColumnType.NUMBER, 5, 0);
+        file.enableJournal();
+
+        DbfRecord record = new DbfRecord(file.getHeader());
+        for (int i = 0; i < names.length; i++) {
+            record.clear();
+            record.set(0, names[i]);
+            record.set(1, Integer.toString(i));
+            file.write(record);
+        }
+        file.commit();
+
+        return file;
+    }
+
+    /**
+     * Copy the file and its journal as they are on disk, then open the copy for writing, replaying the journal.
+     */
+    private static DbfFile crash(DbfFile file) throws Exception {
+        File source = new File(file.getFilePath());
+        File copy = new File(source.getParentFile(), "crashed-" + source.getName());
+        File journal = new File(source.getPath() + DbfJournal.SIDECAR_EXTENSION);
+        File copyJournal = new File(copy.getPath() + DbfJournal.SIDECAR_EXTENSION);
+
+        Files.copy(source.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        copyJournal.delete();
+        if (journal.exists()) {
+            Files.copy(journal.toPath(), copyJournal.toPath());
+        }
+
+        DbfFile crashed = new DbfFile(copy.getPath(), "rw", false);
+        crashed.open();
+        return crashed;
+    }
+
+    /**
+     * Check the live records of a file. An expected value is a name, or name:value to check the V column as well.
+     */
+    private static void check(String test, DbfFile file, String... expected) throws Exception {
+        List<String> actual = new ArrayList<String>();
+        DbfRecord record;
+        while ((record = file.readNext()) != null) {
+            if (record.getIsDeleted()) {
+                continue;
+            }
+            String name = record.get(0).trim();
+            actual.add(expected.length > 0 && expected[0].indexOf(':') >= 0 ? name + ":" + record.get(1).trim() : name);
+        }
+        file.close();
+
+        if (!actual.equals(Arrays.asList(expected))) {
+            throw new AssertionError(test + ": expected " + Arrays.asList(expected) + " after replay, found " + actual);
+        }
+        System.out.println(test + ": OK");
+    }
+}